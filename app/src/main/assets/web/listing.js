@@ -0,0 +1,507 @@
+let currentItem={name:'',isDir:false,link:''};
+let isEmptyAreaClick=false;
+const fileData={};
+function initTheme(){let t=localStorage.getItem('aroma-theme')||'light';document.body.setAttribute('data-theme',t)}
+function toggleTheme(){let t=document.body.getAttribute('data-theme')==='dark'?'light':'dark';document.body.setAttribute('data-theme',t);localStorage.setItem('aroma-theme',t)}
+function applyView(){let grid=localStorage.getItem('aroma-view')==='grid';document.querySelector('.file-list').classList.toggle('grid',grid);if(!grid)return;document.querySelectorAll('.file-item[data-thumb]').forEach(item=>{if(item.querySelector('.thumb'))return;let img=document.createElement('img');img.className='thumb';img.loading='lazy';img.alt='';img.src=item.dataset.thumb.split('/').map(encodeURIComponent).join('/')+'?s=256';item.appendChild(img)})}
+function toggleView(){localStorage.setItem('aroma-view',localStorage.getItem('aroma-view')==='grid'?'list':'grid');applyView()}
+function showModal(id){document.getElementById(id).classList.add('show')}
+function hideModal(id){document.getElementById(id).classList.remove('show')}
+function showContextMenu(e,name,isDir,link){e.preventDefault();e.stopPropagation();currentItem={name,isDir,link};isEmptyAreaClick=false;let m=document.getElementById('contextMenu');m.style.left=e.pageX+'px';m.style.top=e.pageY+'px';m.classList.add('show');updateContextMenuItems(false)}
+function showEmptyContextMenu(e){e.preventDefault();isEmptyAreaClick=true;currentItem={name:'',isDir:false,link:''};let m=document.getElementById('contextMenu');m.style.left=e.pageX+'px';m.style.top=e.pageY+'px';m.classList.add('show');updateContextMenuItems(true)}
+function updateContextMenuItems(emptyArea){let items=document.querySelectorAll('.context-menu-item');items.forEach(item=>{let t=item.textContent.trim();if(emptyArea){item.style.display=(t.includes('New Folder'))?'flex':'none'}else{item.style.display='flex'}})}
+document.addEventListener('click',()=>document.getElementById('contextMenu').classList.remove('show'));
+document.addEventListener('keydown',e=>{if(e.key==='Escape'){document.querySelectorAll('.modal.show').forEach(m=>m.classList.remove('show'));document.getElementById('contextMenu').classList.remove('show')}if(e.ctrlKey&&e.key==='a'){e.preventDefault();selectAll()}});
+function openItem(){window.location.href=currentItem.link+(currentItem.isDir?'/':'')}
+function downloadItem(){window.location.href=currentItem.link+(currentItem.isDir?'/?zip':'?download')}
+function downloadSelected(){let checked=document.querySelectorAll('input[name=selected]:checked');if(checked.length===0){alert('Select files or folders first');return}let f=document.createElement('form');f.method='post';f.style.display='none';let a=document.createElement('input');a.name='action';a.value='zip';f.appendChild(a);checked.forEach(c=>{let i=document.createElement('input');i.name='selected';i.value=c.value;f.appendChild(i)});document.body.appendChild(f);f.submit();f.remove()}
+function previewItem(){if(!currentItem.isDir)window.open(currentItem.link+'?preview','_blank')}
+function showRenameModal(){document.getElementById('renameOldName').value=currentItem.name;document.getElementById('renameCurrentDisplay').textContent=currentItem.name;document.getElementById('renameNewName').value=currentItem.name;showModal('renameModal');document.getElementById('renameNewName').select()}
+function copyPath(){navigator.clipboard.writeText(window.location.origin+currentItem.link).then(()=>alert('Path copied!'))}
+function deleteItem(){if(confirm('Delete "'+currentItem.name+'"?')){let f=document.createElement('form');f.method='post';f.innerHTML='<input name="action" value="delete"><input name="selected" value="'+currentItem.name+'">';document.body.appendChild(f);f.submit()}}
+function createFolderFromMenu(){showModal('createFolderModal');document.getElementById('newFolderName').focus()}
+function selectAll(){document.querySelectorAll('input[name=selected]').forEach(c=>{c.checked=true});updateFileInfoPanel()}
+function selectNone(){document.querySelectorAll('input[name=selected]').forEach(c=>{c.checked=false});updateFileInfoPanel()}
+function updateFileInfoPanel(){let checked=document.querySelectorAll('input[name=selected]:checked');let panel=document.getElementById('fileInfoPanel');let content=document.getElementById('fileInfoContent');if(checked.length===0){panel.style.display='none';return}panel.style.display='block';if(checked.length===1){let name=checked[0].value;let item=checked[0].closest('.file-item');let meta=item.querySelector('.file-meta');let size=meta?meta.textContent:'';content.innerHTML='<strong>'+name+'</strong><br>'+size}else{let totalSize=0;checked.forEach(c=>{let d=fileData[c.value];if(d&&d.size)totalSize+=d.size});content.innerHTML=checked.length+' items selected<br>Total: '+formatSize(totalSize)}}
+function formatSize(b){if(b<=0)return'0 B';let u=['B','KB','MB','GB','TB'];let i=Math.floor(Math.log(b)/Math.log(1024));return(b/Math.pow(1024,i)).toFixed(1)+' '+u[i]}
+document.querySelectorAll('input[name=selected]').forEach(c=>c.addEventListener('change',updateFileInfoPanel));
+document.querySelectorAll('.file-item').forEach(item=>{let n=item.dataset.name;let s=parseInt(item.dataset.size)||0;let m=parseInt(item.dataset.modified)||0;fileData[n]={size:s,modified:m}});
+let activeInput=null;let uploadFiles=[];
+function updateFileStatus(){let fi=document.getElementById('fileInput');let fo=document.getElementById('folderInput');let sf=document.getElementById('selectedFiles');let btn=document.getElementById('uploadBtn');let allFiles=activeInput==='file'?Array.from(fi.files):(activeInput==='folder'?Array.from(fo.files):[]);uploadFiles=allFiles.filter(f=>{let n=(f.webkitRelativePath||f.name).split('/').pop();return!n.startsWith('.')&&n!=='Thumbs.db'&&n!=='desktop.ini'});let count=uploadFiles.length;if(count>0){let totalSize=uploadFiles.reduce((a,f)=>a+f.size,0);let names=uploadFiles.map(f=>f.webkitRelativePath||f.name);sf.innerHTML=count+' file(s) selected ('+formatSize(totalSize)+'):<br>'+names.slice(0,5).join(', ')+(names.length>5?' ...':'');btn.disabled=false}else{sf.textContent='';btn.disabled=true}}
+document.getElementById('fileInput').addEventListener('change',function(){activeInput='file';updateFileStatus()});
+document.getElementById('folderInput').addEventListener('change',function(){activeInput='folder';updateFileStatus()});
+const CONCURRENCY = 4, CONCURRENCY_MAX = 16, CAPACITY_POLL = 2000;
+const CHUNKED_MIN = 16 * 1024 * 1024, CHUNK_WORKERS = 3, CHUNK_RETRIES = 8;
+const DEDUP_MIN = 64 * 1024, DEDUP_MAX = 256 * 1024 * 1024, DEDUP_BATCH = 100;
+const TAR_MAX_FILE = 1024 * 1024, TAR_MIN_FILES = 16, TAR_BATCH_BYTES = 32 * 1024 * 1024, TAR_BATCH_FILES = 1000;
+
+// One 512-byte ustar header; the checksum field counts as spaces while it is summed.
+function tarHeader(name, size, mtime, type) {
+  let enc = new TextEncoder();
+  let h = new Uint8Array(512);
+  let put = (v, off, len) => h.set(enc.encode(v).subarray(0, len), off);
+  let oct = (v, len) => v.toString(8).padStart(len - 1, '0');
+  put(name, 0, 100);
+  put(oct(0o644, 8), 100, 8);
+  put(oct(0, 8), 108, 8);
+  put(oct(0, 8), 116, 8);
+  put(oct(size, 12), 124, 12);
+  put(oct(Math.floor(mtime / 1000), 12), 136, 12);
+  put('        ', 148, 8);
+  h[156] = type.charCodeAt(0);
+  put('ustar\0' + '00', 257, 8);
+  put(oct(h.reduce((a, b) => a + b, 0), 7) + '\0 ', 148, 8);
+  return h;
+}
+
+// Packs files into a tar Blob without reading them; names over 100 bytes go in a pax 'path' record.
+function tarBlob(files) {
+  let enc = new TextEncoder();
+  let parts = [];
+  let pad = n => new Uint8Array((512 - n % 512) % 512);
+  files.forEach(f => {
+    let name = f.webkitRelativePath || f.name;
+    if (enc.encode(name).length > 100) {
+      // the record length counts its own digits
+      let rec = ' path=' + name + '\n';
+      let n = enc.encode(rec).length;
+      let len = n + String(n).length;
+      if (String(len).length > String(n).length) len++;
+      let pax = enc.encode(len + rec);
+      parts.push(tarHeader('PaxHeader', pax.length, f.lastModified, 'x'), pax, pad(pax.length));
+    }
+    parts.push(tarHeader(name, f.size, f.lastModified, '0'), f, pad(f.size));
+  });
+  parts.push(new Uint8Array(1024));
+  return new Blob(parts);
+}
+
+function sleep(ms) {
+  return new Promise(r => setTimeout(r, ms));
+}
+
+// Resolves with the XHR, or {status:0} on a network error, never rejects.
+function putChunk(url, blob, onProgress) {
+  return new Promise(resolve => {
+    let x = new XMLHttpRequest();
+    x.upload.onprogress = e => onProgress(e.loaded);
+    x.onload = () => resolve(x);
+    x.onerror = () => resolve({status: 0});
+    x.open('PUT', url);
+    x.send(blob);
+  });
+}
+
+async function sha256Hex(file) {
+  let d = await crypto.subtle.digest('SHA-256', await file.arrayBuffer());
+  return Array.from(new Uint8Array(d), x => x.toString(16).padStart(2, '0')).join('');
+}
+
+// The gaps between the server's received ranges, cut into chunk-sized [start, end) pieces.
+function missingChunks(received, size, chunk) {
+  let todo = [];
+  let pos = 0;
+  received.concat([[size, size]]).forEach(r => {
+    for (let a = pos; a < r[0]; a += chunk) todo.push([a, Math.min(a + chunk, r[0])]);
+    pos = Math.max(pos, r[1]);
+  });
+  return todo;
+}
+
+async function startUpload() {
+  if (uploadFiles.length === 0) return;
+  let btn = document.getElementById('uploadBtn');
+  let prog = document.getElementById('uploadProgress');
+  let bar = document.getElementById('progressBar');
+  let pct = document.getElementById('progressPercent');
+  let txt = document.getElementById('progressText');
+  let spd = document.getElementById('progressSpeed');
+  let overwrite = document.getElementById('overwriteCheck').checked;
+  btn.disabled = true;
+  btn.textContent = 'Uploading...';
+  prog.style.display = 'block';
+  let totalFiles = uploadFiles.length;
+  let totalBytes = uploadFiles.reduce((a, f) => a + f.size, 0);
+  let uploadedBytes = 0;
+  let uploadedFiles = 0;
+  let success = 0;
+  let skipped = 0;
+  let failed = [];
+  let queue = [...uploadFiles];
+  let startTime = Date.now();
+
+  function updateProgress() {
+    let p = totalBytes > 0 ? (uploadedBytes / totalBytes * 100) : 0;
+    bar.style.width = p + '%';
+    pct.textContent = Math.round(p) + '%';
+    txt.textContent = uploadedFiles + ' / ' + totalFiles + ' files (' + formatSize(uploadedBytes) + ' / ' + formatSize(totalBytes) + ')';
+    let elapsed = (Date.now() - startTime) / 1000;
+    let speed = elapsed > 0 ? uploadedBytes / elapsed : 0;
+    spd.textContent = 'Speed: ' + formatSize(speed) + '/s';
+  }
+
+  // Large files go through a resumable session: PUT the missing ranges, re-read the session
+  // after a failure and carry on from what the server already has.
+  async function uploadChunked(file, fname) {
+    let path = decodeURIComponent(window.location.pathname).replace(/\/?$/, '/') + fname;
+    let q = '?path=' + encodeURIComponent(path) + '&size=' + file.size + '&key=' + file.lastModified + (overwrite ? '&overwrite=1' : '');
+    let s = null;
+    for (let attempt = 0; ; attempt++) {
+      let r = null;
+      try {
+        r = await fetch('/api/upload' + q, {method: 'POST'});
+      } catch (e) {}
+      if (r && r.status === 409) {
+        skipped++;
+        failed.push(fname + ' (exists)');
+        return false;
+      }
+      if (r && r.status === 507) {
+        failed.push(fname + ' (not enough space)');
+        return false;
+      }
+      if (r && r.ok) {
+        s = await r.json();
+        break;
+      }
+      if (attempt >= CHUNK_RETRIES) {
+        failed.push(fname + ' (error)');
+        return false;
+      }
+      await sleep(Math.min(30000, 1000 * 2 ** attempt));
+    }
+
+    let base = '/api/upload/' + s.id;
+    let fileDone = 0;
+    function setDone(v) {
+      uploadedBytes += v - fileDone;
+      fileDone = v;
+      updateProgress();
+    }
+    setDone(s.receivedBytes);
+    let failures = 0;
+
+    while (s.receivedBytes < s.size) {
+      let todo = missingChunks(s.received, s.size, s.chunkSize);
+      let i = 0, ok = true, full = false;
+      let run = async () => {
+        while (ok && i < todo.length) {
+          let c = todo[i++];
+          let live = 0;
+          let x = await putChunk(base + '?offset=' + c[0], file.slice(c[0], c[1]), l => {
+            uploadedBytes += l - live;
+            live = l;
+            updateProgress();
+          });
+          uploadedBytes -= live;
+          if (x.status >= 200 && x.status < 300) {
+            setDone(fileDone + c[1] - c[0]);
+          } else if (x.status === 503) {
+            todo.push(c);
+            updateProgress();
+            await backOff(x.getResponseHeader('Retry-After'));
+          } else {
+            if (x.status === 507) full = true;
+            ok = false;
+            updateProgress();
+          }
+        }
+      };
+      await Promise.all(Array.from({length: CHUNK_WORKERS}, run));
+      if (full) {
+        failed.push(fname + ' (not enough space)');
+        return false;
+      }
+      if (ok) {
+        failures = 0;
+      } else {
+        if (++failures > CHUNK_RETRIES) {
+          failed.push(fname + ' (interrupted)');
+          return false;
+        }
+        spd.textContent = 'Connection lost, resuming...';
+        await sleep(Math.min(30000, 1000 * 2 ** failures));
+      }
+      let r = null;
+      try {
+        r = await fetch(base);
+      } catch (e) {}
+      if (r && r.status === 404) {
+        failed.push(fname + ' (upload expired)');
+        return false;
+      }
+      if (r && r.ok) {
+        s = await r.json();
+        setDone(s.receivedBytes);
+      }
+    }
+
+    // A lost answer to finishing is simply asked again: the server repeats it.
+    let r = null;
+    for (let attempt = 0; ; attempt++) {
+      r = null;
+      try {
+        r = await fetch(base, {method: 'POST'});
+      } catch (e) {}
+      if ((r && r.status < 500) || attempt >= CHUNK_RETRIES) break;
+      spd.textContent = 'Finishing ' + fname + '...';
+      await sleep(Math.min(30000, 1000 * 2 ** attempt));
+    }
+    if (r && r.ok) {
+      success++;
+      return true;
+    }
+    if (r && r.status === 409) {
+      skipped++;
+      failed.push(fname + ' (exists)');
+    } else {
+      failed.push(fname + ' (error)');
+    }
+    return false;
+  }
+
+  // Resolves true/false when done, 'retry' to queue the batch again after a 503,
+  // or 'split' to fall back to uploading its files one by one.
+  function uploadTar(item) {
+    return new Promise(resolve => {
+      let blob = tarBlob(item.tar);
+      let done = 0;
+      let xhr = new XMLHttpRequest();
+      xhr.upload.onprogress = e => {
+        let v = Math.min(item.size, e.loaded);
+        uploadedBytes += v - done;
+        done = v;
+        updateProgress();
+      };
+      xhr.onload = () => {
+        if (xhr.status === 503) {
+          uploadedBytes -= done;
+          backOff(xhr.getResponseHeader('Retry-After'));
+          resolve('retry');
+          return;
+        }
+        if (xhr.status === 507) {
+          uploadedBytes -= done;
+          item.tar.forEach(f => failed.push((f.webkitRelativePath || f.name) + ' (not enough space)'));
+          resolve(false);
+          return;
+        }
+        let res = null;
+        try {
+          res = JSON.parse(xhr.responseText);
+        } catch (e) {}
+        if (xhr.status === 200 && res) {
+          success += res.files;
+          skipped += res.skipped.length;
+          res.skipped.forEach(p => failed.push(p + ' (exists)'));
+          res.failed.forEach(p => failed.push(p));
+          uploadedBytes += item.size - done;
+          resolve(true);
+          return;
+        }
+        uploadedBytes -= done;
+        resolve('split');
+      };
+      xhr.onerror = () => {
+        uploadedBytes -= done;
+        resolve('split');
+      };
+      xhr.open('POST', window.location.pathname + (overwrite ? '?overwrite=1' : ''));
+      xhr.setRequestHeader('Content-Type', 'application/x-tar');
+      xhr.send(blob);
+    });
+  }
+
+  function uploadFile(file) {
+    if (file.tar) return uploadTar(file);
+    let fname = file.webkitRelativePath || file.name;
+    if (file.size >= CHUNKED_MIN) return uploadChunked(file, fname);
+    return new Promise((resolve) => {
+      let fd = new FormData();
+      fd.append('originalPath', fname);
+      if (overwrite) fd.append('overwrite', 'true');
+      fd.append('uploadedFile', file, fname);
+      let xhr = new XMLHttpRequest();
+      xhr.upload.onprogress = function(e) {
+        if (e.lengthComputable) {
+          let prev = file._uploaded || 0;
+          file._uploaded = e.loaded;
+          uploadedBytes += e.loaded - prev;
+          updateProgress();
+        }
+      };
+      xhr.onload = function() {
+        if (xhr.status === 503) {
+          uploadedBytes -= file._uploaded || 0;
+          file._uploaded = 0;
+          backOff(xhr.getResponseHeader('Retry-After'));
+          resolve('retry');
+          return;
+        }
+        if (xhr.status >= 200 && xhr.status < 300) {
+          success++;
+          resolve(true);
+        } else {
+          if (xhr.status === 507) {
+            failed.push(fname + ' (not enough space)');
+          } else if (xhr.responseText.includes('exists')) {
+            skipped++;
+            failed.push(fname + ' (exists)');
+          } else {
+            failed.push(fname);
+          }
+          resolve(false);
+        }
+      };
+      // A 503 answered before the body was read often reaches the page as a dropped connection,
+      // so this is treated like one: wait, then try again with one upload fewer in flight.
+      xhr.onerror = function() {
+        uploadedBytes -= file._uploaded || 0;
+        file._uploaded = 0;
+        file._retries = (file._retries || 0) + 1;
+        if (file._retries > CHUNK_RETRIES) {
+          failed.push(fname + ' (error)');
+          resolve(false);
+          return;
+        }
+        backOff(String(Math.min(30, 2 ** file._retries)));
+        resolve('retry');
+      };
+      xhr.open('POST', window.location.pathname);
+      xhr.send(fd);
+    });
+  }
+
+  // Hashes mid-sized files and asks the server to link or copy any it already has,
+  // dropping those from the queue. Any failure just leaves the rest to be uploaded.
+  async function dedup() {
+    if (!(window.crypto && crypto.subtle)) return;
+    let base = decodeURIComponent(window.location.pathname).replace(/\/?$/, '/');
+    let cands = queue.filter(f => f.size >= DEDUP_MIN && f.size <= DEDUP_MAX);
+    for (let b = 0; b < cands.length; b += DEDUP_BATCH) {
+      let batch = cands.slice(b, b + DEDUP_BATCH);
+      let lines = [];
+      for (let f of batch) {
+        let fname = f.webkitRelativePath || f.name;
+        spd.textContent = 'Checking ' + fname + '...';
+        try {
+          lines.push(await sha256Hex(f) + ' ' + f.size + ' ' + base + fname);
+        } catch (e) {
+          return;
+        }
+      }
+      let r = null;
+      try {
+        r = await fetch('/api/dedup' + (overwrite ? '?overwrite=1' : ''), {
+          method: 'POST',
+          headers: {'Content-Type': 'text/plain'},
+          body: lines.join('\n')
+        });
+      } catch (e) {}
+      if (!r || !r.ok) return;
+      let res = await r.json();
+      res.files.forEach((e, i) => {
+        if (e.status !== 'linked' && e.status !== 'copied' && e.status !== 'unchanged') return;
+        let f = batch[i];
+        queue.splice(queue.indexOf(f), 1);
+        success++;
+        uploadedFiles++;
+        uploadedBytes += f.size;
+      });
+      updateProgress();
+    }
+  }
+
+  let target = CONCURRENCY;
+  let retryAt = 0;
+  let running = new Set();
+
+  // On a 503 hold new starts until Retry-After and run one fewer upload than now.
+  function backOff(header) {
+    let s = parseInt(header) || 2;
+    retryAt = Math.max(retryAt, Date.now() + s * 1000);
+    target = Math.max(1, running.size - 1);
+    spd.textContent = 'Server busy, waiting ' + s + ' s...';
+    return sleep(s * 1000);
+  }
+
+  // Groups many small files into tar batches so each costs a header, not a request.
+  function packSmallFiles() {
+    let small = queue.filter(f => f.size < TAR_MAX_FILE);
+    if (small.length < TAR_MIN_FILES) return;
+    queue = queue.filter(f => f.size >= TAR_MAX_FILE);
+    let item = null;
+    small.forEach(f => {
+      if (!item || item.tar.length >= TAR_BATCH_FILES || item.size + f.size > TAR_BATCH_BYTES) {
+        item = {tar: [], size: 0};
+        queue.push(item);
+      }
+      item.tar.push(f);
+      item.size += f.size;
+    });
+  }
+
+  async function capacity() {
+    try {
+      let r = await fetch('/api/capacity', {cache: 'no-store'});
+      if (r.ok) return await r.json();
+    } catch (e) {}
+    return null;
+  }
+
+  await dedup();
+  packSmallFiles();
+  let need = queue.reduce((n, f) => n + f.size, 0);
+  let cap = await capacity();
+  if (cap && cap.freeBytes < need
+      && !confirm('Not enough free space on the device: ' + formatSize(need) + ' to upload, ' + formatSize(cap.freeBytes) + ' free. Upload anyway?')) {
+    btn.textContent = 'Upload';
+    btn.disabled = false;
+    prog.style.display = 'none';
+    bar.style.width = '0%';
+    return;
+  }
+
+  // Keep as many uploads running as the server says it has slots for.
+  let lastPoll = 0;
+  while (queue.length > 0 || running.size > 0) {
+    if (Date.now() - lastPoll >= CAPACITY_POLL) {
+      lastPoll = Date.now();
+      let c = await capacity();
+      if (c) target = Math.max(1, Math.min(CONCURRENCY_MAX, c.available + running.size));
+    }
+    while (queue.length > 0 && running.size < target && Date.now() >= retryAt) {
+      let file = queue.shift();
+      let p = uploadFile(file).then(res => {
+        running.delete(p);
+        if (res === 'retry') {
+          queue.unshift(file);
+        } else if (res === 'split') {
+          file.tar.forEach(f => queue.push(f));
+        } else {
+          uploadedFiles += file.tar ? file.tar.length : 1;
+        }
+        updateProgress();
+      });
+      running.add(p);
+    }
+    await Promise.race([...running, sleep(500)]);
+  }
+
+  btn.textContent = 'Upload';
+  btn.disabled = false;
+  prog.style.display = 'none';
+  bar.style.width = '0%';
+  let msg = 'Uploaded: ' + success;
+  if (skipped > 0) msg += '\nSkipped (exists): ' + skipped;
+  if (failed.length > skipped) msg += '\nFailed: ' + (failed.length - skipped);
+  alert(msg);
+  history.replaceState(null, '', window.location.pathname);
+  let a = document.createElement('a');
+  a.href = window.location.pathname;
+  document.body.appendChild(a);
+  a.click();
+}
+document.querySelector('.file-list').addEventListener('contextmenu',function(e){if(e.target===this||e.target.classList.contains('empty')){showEmptyContextMenu(e)}});
+initTheme();
+applyView();
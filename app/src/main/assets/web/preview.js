@@ -0,0 +1,6 @@
+let followSource=null;
+const MAX_FOLLOW_LINES=5000;
+function appendFollowLine(out,text){out.appendChild(document.createTextNode(text+'\n'));while(out.childNodes.length>MAX_FOLLOW_LINES)out.removeChild(out.firstChild)}
+function toggleFollow(){let btn=document.getElementById('followBtn');let out=document.getElementById('followOutput');if(followSource){followSource.close();followSource=null;btn.textContent='Follow';document.body.classList.remove('following');return}out.textContent='';document.body.classList.add('following');btn.textContent='Stop following';followSource=new EventSource(btn.dataset.src);followSource.onmessage=function(e){let atBottom=window.innerHeight+window.scrollY>=document.body.scrollHeight-40;e.data.split('\n').forEach(l=>appendFollowLine(out,l));if(atBottom)window.scrollTo(0,document.body.scrollHeight)};followSource.addEventListener('reset',function(e){appendFollowLine(out,'--- file '+e.data+' ---')})}
+let followBtn=document.getElementById('followBtn');
+if(followBtn)followBtn.addEventListener('click',toggleFollow);
@@ -0,0 +1,6 @@
+let history=[];let historyIndex=-1;
+const input=document.getElementById('cmdInput');const output=document.getElementById('output');const terminal=document.getElementById('terminal');const runBtn=document.getElementById('runBtn');
+input.addEventListener('keydown',function(e){if(e.key==='Enter'){runCommand()}else if(e.key==='ArrowUp'){e.preventDefault();if(historyIndex<history.length-1){historyIndex++;input.value=history[history.length-1-historyIndex]}}else if(e.key==='ArrowDown'){e.preventDefault();if(historyIndex>0){historyIndex--;input.value=history[history.length-1-historyIndex]}else{historyIndex=-1;input.value=''}}});
+async function runCommand(){let cmd=input.value.trim();if(!cmd)return;history.push(cmd);historyIndex=-1;input.value='';runBtn.disabled=true;output.innerHTML+='<span class="cmd">$ '+escapeHtml(cmd)+'</span>\n';if(cmd==='clear'){output.innerHTML='';runBtn.disabled=false;return}if(cmd==='help'){output.innerHTML+='<span class="info">Available commands:\n  ls, pwd, cd, cat, echo, whoami, id, df, free, ps, top -n 1, uname -a\n  getprop (Android properties)\n  pm list packages (list apps)\n  dumpsys battery (battery info)\n  clear - clear screen\n  Any other shell command supported by the device</span>\n\n';runBtn.disabled=false;scrollToBottom();return}try{let res=await fetch('/api/exec',{method:'POST',headers:{'Content-Type':'application/json'},body:JSON.stringify({cmd:cmd})});let data=await res.json();if(data.stdout){output.innerHTML+='<span class="result">'+escapeHtml(data.stdout)+'</span>'}if(data.stderr){output.innerHTML+='<span class="error">'+escapeHtml(data.stderr)+'</span>'}if(data.error){output.innerHTML+='<span class="error">Error: '+escapeHtml(data.error)+'</span>\n'}}catch(e){output.innerHTML+='<span class="error">Request failed: '+escapeHtml(e.message)+'</span>\n'}output.innerHTML+='\n';runBtn.disabled=false;scrollToBottom()}
+function scrollToBottom(){terminal.scrollTop=terminal.scrollHeight}
+function escapeHtml(t){return t.replace(/&/g,'&amp;').replace(/</g,'&lt;').replace(/>/g,'&gt;')}
@@ -0,0 +1,83 @@
+package com.example.aroma;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class ByteRange {
+    // More ranges than this is almost certainly abuse; the header is ignored and the whole file sent.
+    private static final int MAX_RANGES = 32;
+
+    public final long start;
+    public final long end;
+
+    public ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public long length() {
+        return end - start + 1;
+    }
+
+    public String contentRange(long total) {
+        return "bytes " + start + "-" + end + "/" + total;
+    }
+
+    // Returns null when the header should be ignored (absent, malformed or not in bytes),
+    // an empty list when no range is satisfiable (416), otherwise sorted, coalesced ranges.
+    public static List<ByteRange> parse(String header, long total) {
+        if (header == null) return null;
+        String value = header.trim();
+        if (!value.regionMatches(true, 0, "bytes=", 0, 6)) return null;
+        String[] specs = value.substring(6).split(",");
+        if (specs.length > MAX_RANGES) return null;
+
+        List<ByteRange> ranges = new ArrayList<>();
+        try {
+            for (String rawSpec : specs) {
+                String spec = rawSpec.trim();
+                int dash = spec.indexOf('-');
+                if (dash < 0) return null;
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                if (first.isEmpty()) {
+                    if (last.isEmpty()) return null;
+                    long suffix = Long.parseLong(last);
+                    if (suffix < 0) return null;
+                    if (suffix > 0 && total > 0) {
+                        ranges.add(new ByteRange(Math.max(0, total - suffix), total - 1));
+                    }
+                } else {
+                    long start = Long.parseLong(first);
+                    long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                    if (start < 0 || end < start) return null;
+                    if (start < total) {
+                        ranges.add(new ByteRange(start, Math.min(end, total - 1)));
+                    }
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return coalesce(ranges);
+    }
+
+    private static List<ByteRange> coalesce(List<ByteRange> ranges) {
+        if (ranges.size() < 2) return ranges;
+        Collections.sort(ranges, (a, b) -> Long.compare(a.start, b.start));
+        List<ByteRange> merged = new ArrayList<>(ranges.size());
+        ByteRange current = ranges.get(0);
+        for (int i = 1; i < ranges.size(); i++) {
+            ByteRange next = ranges.get(i);
+            if (next.start <= current.end + 1) {
+                current = new ByteRange(current.start, Math.max(current.end, next.end));
+            } else {
+                merged.add(current);
+                current = next;
+            }
+        }
+        merged.add(current);
+        return merged;
+    }
+}
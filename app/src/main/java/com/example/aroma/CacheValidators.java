@@ -0,0 +1,72 @@
+package com.example.aroma;
+
+import fi.iki.elonen.NanoHTTPD;
+
+import java.io.File;
+import java.io.OutputStream;
+
+public final class CacheValidators {
+
+    private CacheValidators() {
+    }
+
+    // Strong: any change in size or mtime changes the bytes we would send.
+    public static String fileETag(File file) {
+        return "\"" + Long.toHexString(file.length()) + "-" + Long.toHexString(file.lastModified()) + "\"";
+    }
+
+    // Weak: the listing only changes when entries are added, removed or renamed, which updates
+    // the directory mtime. Edits inside a child file do not, so the tag is not byte-exact.
+    public static String directoryETag(DirectorySnapshot snapshot) {
+        return "W/\"" + Long.toHexString(snapshot.getModified()) + "-" + Integer.toHexString(snapshot.size()) + "\"";
+    }
+
+    public static boolean isNotModified(NanoHTTPD.IHTTPSession session, String etag, long lastModified) {
+        String ifNoneMatch = session.getHeaders().get("if-none-match");
+        if (ifNoneMatch != null) {
+            return matchesAny(ifNoneMatch, etag);
+        }
+        long since = HttpDate.parse(session.getHeaders().get("if-modified-since"));
+        return since != -1 && lastModified / 1000 <= since / 1000;
+    }
+
+    // If-Range requires a strong comparison, so weak tags never match.
+    public static boolean strongMatch(String candidate, String etag) {
+        return !candidate.startsWith("W/") && !etag.startsWith("W/") && candidate.equals(etag);
+    }
+
+    private static boolean matchesAny(String header, String etag) {
+        String opaque = stripWeak(etag);
+        for (String candidate : header.split(",")) {
+            String value = candidate.trim();
+            if (value.equals("*") || stripWeak(value).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    public static NanoHTTPD.Response notModified(String etag, long lastModified) {
+        NanoHTTPD.Response response = new NotModifiedResponse();
+        response.addHeader("ETag", etag);
+        if (lastModified > 0) {
+            response.addHeader("Last-Modified", HttpDate.format(lastModified));
+        }
+        response.addHeader("Cache-Control", "no-cache");
+        return response;
+    }
+
+    private static class NotModifiedResponse extends StreamingResponse {
+        NotModifiedResponse() {
+            super(Status.NOT_MODIFIED, null, 0);
+        }
+
+        @Override
+        protected void writeBody(OutputStream out) {
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.aroma;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// Decodes a Transfer-Encoding: chunked request body, which NanoHTTPD leaves untouched. Reads
+// stop at the terminating chunk, and trailers are consumed, so the connection stays usable.
+public class ChunkedInputStream extends InputStream {
+    private static final int MAX_LINE = 4096;
+
+    private final InputStream in;
+    private long chunkRemaining;
+    private boolean finished;
+
+    public ChunkedInputStream(InputStream in) {
+        this.in = in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (finished) return -1;
+        if (len == 0) return 0;
+        if (chunkRemaining == 0) {
+            chunkRemaining = nextChunkSize();
+            if (chunkRemaining == 0) {
+                // trailers, then the blank line that ends the body
+                while (!readLine().isEmpty()) {
+                }
+                finished = true;
+                return -1;
+            }
+        }
+        int n = in.read(b, off, (int) Math.min(len, chunkRemaining));
+        if (n < 0) throw new IOException("Chunked body ended early");
+        chunkRemaining -= n;
+        if (chunkRemaining == 0 && !readLine().isEmpty()) {
+            throw new IOException("Malformed chunk");
+        }
+        return n;
+    }
+
+    private long nextChunkSize() throws IOException {
+        String line = readLine();
+        int extension = line.indexOf(';');
+        if (extension >= 0) line = line.substring(0, extension);
+        try {
+            long size = Long.parseLong(line.trim(), 16);
+            if (size < 0) throw new NumberFormatException();
+            return size;
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed chunk size: " + line);
+        }
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) throw new IOException("Chunked body ended early");
+            if (sb.length() >= MAX_LINE) throw new IOException("Chunk header too long");
+            if (c != '\r') sb.append((char) c);
+        }
+        return sb.toString();
+    }
+}
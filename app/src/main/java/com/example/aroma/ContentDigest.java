@@ -0,0 +1,255 @@
+package com.example.aroma;
+
+import android.os.Build;
+
+import fi.iki.elonen.NanoHTTPD.IHTTPSession;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+// Digests of a body computed while it streams through, in RFC 9530 form
+// ("crc32c=:<base64>:, sha-256=:<base64>:"). CRC32C is always taken: it costs next to nothing
+// and catches transfer damage. SHA-256 only when the client names it in Want-Repr-Digest,
+// Want-Content-Digest or a Content-Digest of its own.
+public final class ContentDigest {
+    private final Checksum crc = newCrc32c();
+    private final MessageDigest sha256;
+    private byte[] sha256Result;
+    // a CRC32C put together from pieces elsewhere; -1 when crc is computed here
+    private long knownCrc = -1;
+
+    public ContentDigest(boolean withSha256) {
+        MessageDigest digest = null;
+        if (withSha256) {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException ignored) {
+            }
+        }
+        this.sha256 = digest;
+    }
+
+    // For data whose CRC32C is already known; SHA-256, if wanted, still has to be fed.
+    public static ContentDigest withCrc32c(long crc32c, boolean withSha256) {
+        ContentDigest digest = new ContentDigest(withSha256);
+        digest.knownCrc = crc32c;
+        return digest;
+    }
+
+    static Checksum newCrc32c() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.O ? new CRC32C() : new SoftwareCrc32c();
+    }
+
+    // The CRC32C of A followed by B from those of A and B, as zlib's crc32_combine: B's length
+    // worth of zero bits is applied to crc1 by repeated squaring of the CRC's GF(2) operator.
+    public static long combineCrc32c(long crc1, long crc2, long length2) {
+        if (length2 <= 0) return crc1;
+        int[] even = new int[32];
+        int[] odd = new int[32];
+        // the operator for one zero bit
+        odd[0] = 0x82F63B78;
+        int row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        gf2Square(even, odd);
+        gf2Square(odd, even);
+        int crc = (int) crc1;
+        long length = length2;
+        do {
+            gf2Square(even, odd);
+            if ((length & 1) != 0) crc = gf2Times(even, crc);
+            length >>>= 1;
+            if (length == 0) break;
+            gf2Square(odd, even);
+            if ((length & 1) != 0) crc = gf2Times(odd, crc);
+            length >>>= 1;
+        } while (length != 0);
+        return (crc ^ (int) crc2) & 0xFFFFFFFFL;
+    }
+
+    private static int gf2Times(int[] matrix, int vector) {
+        int sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) sum ^= matrix[i];
+        }
+        return sum;
+    }
+
+    private static void gf2Square(int[] square, int[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2Times(matrix, matrix[n]);
+        }
+    }
+
+    // Null unless the request asks for a digest with Want-Repr-Digest.
+    public static ContentDigest wanted(IHTTPSession session) {
+        String want = session.getHeaders().get("want-repr-digest");
+        return want != null ? new ContentDigest(mentionsSha256(want)) : null;
+    }
+
+    // For request bodies: always CRC32C, SHA-256 when the client sent or asked for it.
+    public static ContentDigest forUpload(IHTTPSession session) {
+        Map<String, String> headers = session.getHeaders();
+        return new ContentDigest(mentionsSha256(headers.get("content-digest")) || mentionsSha256(headers.get("want-repr-digest"))
+                || mentionsSha256(headers.get("want-content-digest")));
+    }
+
+    // Whether the request's Want-Repr-Digest names SHA-256.
+    public static boolean wantsSha256(IHTTPSession session) {
+        return mentionsSha256(session.getHeaders().get("want-repr-digest"));
+    }
+
+    // A Repr-Digest value for a SHA-256 known beforehand, given in hex.
+    public static String sha256Header(String hex) {
+        byte[] digest = new byte[hex.length() / 2];
+        for (int i = 0; i < digest.length; i++) {
+            digest[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return "sha-256=:" + Base64.getEncoder().encodeToString(digest) + ":";
+    }
+
+    private static boolean mentionsSha256(String header) {
+        return header != null && header.toLowerCase(Locale.US).contains("sha-256");
+    }
+
+    public void update(byte[] b, int off, int len) {
+        if (knownCrc < 0) crc.update(b, off, len);
+        if (sha256 != null) sha256.update(b, off, len);
+    }
+
+    // Wraps out so everything written through it is digested on the way to disk.
+    public OutputStream digesting(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                if (knownCrc < 0) crc.update(b);
+                if (sha256 != null) sha256.update((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                update(b, off, len);
+            }
+        };
+    }
+
+    // For data that did not arrive in order, e.g. chunks of a resumable upload.
+    public void update(File file) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                update(buffer, 0, n);
+            }
+        }
+    }
+
+    public String crc32cHex() {
+        return String.format(Locale.US, "%08x", crcValue());
+    }
+
+    // Null when SHA-256 was not computed.
+    public String sha256Hex() {
+        byte[] digest = sha256Bytes();
+        return digest != null ? HashIndex.hex(digest) : null;
+    }
+
+    public String header() {
+        long value = crcValue();
+        byte[] crcBytes = {(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value};
+        String header = "crc32c=:" + Base64.getEncoder().encodeToString(crcBytes) + ":";
+        byte[] digest = sha256Bytes();
+        if (digest != null) {
+            header += ", sha-256=:" + Base64.getEncoder().encodeToString(digest) + ":";
+        }
+        return header;
+    }
+
+    // ,"crc32c":"...","sha256":"..." for appending to a JSON object
+    public String jsonFields() {
+        String json = ",\"crc32c\":\"" + crc32cHex() + "\"";
+        String sha = sha256Hex();
+        return sha != null ? json + ",\"sha256\":\"" + sha + "\"" : json;
+    }
+
+    // False when the client's Content-Digest names an algorithm computed here with another value.
+    // Algorithms this side did not compute are not checked.
+    public boolean matches(String contentDigest) {
+        if (contentDigest == null) return true;
+        String ours = header();
+        for (String member : contentDigest.split(",")) {
+            String[] pair = member.trim().split("=", 2);
+            if (pair.length != 2) continue;
+            String algorithm = pair[0].trim().toLowerCase(Locale.US);
+            if (!algorithm.equals("crc32c") && !(algorithm.equals("sha-256") && sha256 != null)) continue;
+            if (!ours.contains(algorithm + "=" + pair[1].trim())) return false;
+        }
+        return true;
+    }
+
+    private long crcValue() {
+        return knownCrc >= 0 ? knownCrc : crc.getValue();
+    }
+
+    private byte[] sha256Bytes() {
+        if (sha256 == null) return null;
+        if (sha256Result == null) sha256Result = sha256.digest();
+        return sha256Result;
+    }
+
+    // java.util.zip.CRC32C arrived in API 26
+    static final class SoftwareCrc32c implements Checksum {
+        private static final int[] TABLE = new int[256];
+
+        static {
+            for (int i = 0; i < 256; i++) {
+                int c = i;
+                for (int k = 0; k < 8; k++) {
+                    c = (c & 1) != 0 ? (c >>> 1) ^ 0x82F63B78 : c >>> 1;
+                }
+                TABLE[i] = c;
+            }
+        }
+
+        private int crc = 0xFFFFFFFF;
+
+        @Override
+        public void update(int b) {
+            crc = (crc >>> 8) ^ TABLE[(crc ^ b) & 0xff];
+        }
+
+        @Override
+        public void update(byte[] b, int off, int len) {
+            int c = crc;
+            for (int i = off; i < off + len; i++) {
+                c = (c >>> 8) ^ TABLE[(c ^ b[i]) & 0xff];
+            }
+            crc = c;
+        }
+
+        @Override
+        public long getValue() {
+            return (~crc) & 0xFFFFFFFFL;
+        }
+
+        @Override
+        public void reset() {
+            crc = 0xFFFFFFFF;
+        }
+    }
+}
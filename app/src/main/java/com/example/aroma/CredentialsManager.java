@@ -13,10 +13,14 @@ public class CredentialsManager {
     private static final String KEY_NGROK_TOKEN = "ngrok_token";
     private static final String KEY_FOLDER_TYPE = "folder_type";
     private static final String KEY_THEME = "theme";
+    private static final String KEY_COMPRESSION_LEVEL = "compression_level";
+    private static final String KEY_STORAGE_RESERVE_MB = "storage_reserve_mb";
     
     private static final String DEFAULT_USERNAME = "admin";
     private static final String DEFAULT_PASSWORD = "password";
     private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_COMPRESSION_LEVEL = 6;
+    private static final int DEFAULT_STORAGE_RESERVE_MB = (int) (StorageGuard.DEFAULT_RESERVE_BYTES / (1024 * 1024));
     public static final int FOLDER_DOWNLOADS = 0;
     public static final int FOLDER_DOCUMENTS = 1;
     public static final int FOLDER_PICTURES = 2;
@@ -98,4 +102,20 @@ public class CredentialsManager {
     public void setTheme(int theme) {
         prefs.edit().putInt(KEY_THEME, theme).apply();
     }
+
+    public int getCompressionLevel() {
+        return prefs.getInt(KEY_COMPRESSION_LEVEL, DEFAULT_COMPRESSION_LEVEL);
+    }
+
+    public void setCompressionLevel(int level) {
+        prefs.edit().putInt(KEY_COMPRESSION_LEVEL, level).apply();
+    }
+
+    public int getStorageReserveMb() {
+        return prefs.getInt(KEY_STORAGE_RESERVE_MB, DEFAULT_STORAGE_RESERVE_MB);
+    }
+
+    public void setStorageReserveMb(int megabytes) {
+        prefs.edit().putInt(KEY_STORAGE_RESERVE_MB, megabytes).apply();
+    }
 }
@@ -0,0 +1,197 @@
+package com.example.aroma;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoHTTPD.IHTTPSession;
+import fi.iki.elonen.NanoHTTPD.Method;
+import fi.iki.elonen.NanoHTTPD.Response;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Locale;
+
+// Upload negotiation by content: before sending anything the client posts one line per file,
+//   <sha256> <size> <path>
+// to POST /api/dedup (?overwrite=1 to replace existing files) and gets a status for each:
+//   unchanged  the target already has this content
+//   linked     made from a file the server already holds, as a hard link
+//   copied     the same, as a copy where links are not supported (e.g. FUSE-backed storage)
+//   exists     the target exists with other content and overwrite was not asked for
+//   missing    unknown content: upload it as usual
+//   nospace    a copy would not fit in the free space
+//   invalid    a bad line or path
+// GET /api/dedup reports the state of the hash index.
+public class DedupApi {
+    private static final String TAG = "AROMA";
+    public static final String PATH = "/api/dedup";
+
+    private final File rootDir;
+    private final HashIndex index;
+    private final StorageGuard storage;
+    private final UploadApi.Listener listener;
+
+    public DedupApi(File rootDir, HashIndex index, StorageGuard storage, UploadApi.Listener listener) {
+        this.rootDir = rootDir;
+        this.index = index;
+        this.storage = storage;
+        this.listener = listener;
+    }
+
+    public Response serve(IHTTPSession session) {
+        if (session.getMethod() == Method.GET) {
+            return NanoHTTPD.newFixedLengthResponse(Response.Status.OK, "application/json",
+                    "{\"files\":" + index.size() + ",\"pending\":" + index.pending() + ",\"minSize\":" + HashIndex.MIN_SIZE + "}");
+        }
+        if (session.getMethod() != Method.POST) {
+            return error(Response.Status.METHOD_NOT_ALLOWED, "Use POST with one \"<sha256> <size> <path>\" line per file");
+        }
+        String body;
+        try {
+            body = PooledBody.read(session);
+        } catch (IOException e) {
+            Response response = error(Response.Status.BAD_REQUEST, "Cannot read request: " + e.getMessage());
+            response.addHeader("Connection", "close");
+            return response;
+        }
+        if (body == null) {
+            Response response = error(Response.Status.PAYLOAD_TOO_LARGE, "Send at most " + PooledBody.MAX_BYTES + " bytes per request");
+            response.addHeader("Connection", "close");
+            return response;
+        }
+        List<String> overwriteValues = session.getParameters().get("overwrite");
+        boolean overwrite = overwriteValues != null && !overwriteValues.isEmpty()
+                && ("1".equals(overwriteValues.get(0)) || "true".equals(overwriteValues.get(0)));
+
+        StringBuilder json = new StringBuilder("{\"files\":[");
+        long savedBytes = 0;
+        int count = 0;
+        for (String line : body.split("\n")) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+            String[] fields = line.split(" ", 3);
+            String path = fields.length == 3 ? fields[2] : line;
+            long size = fields.length == 3 ? parseLong(fields[1]) : -1;
+            String hash = fields.length == 3 ? fields[0].toLowerCase(Locale.US) : null;
+            String status;
+            if (!isSha256Hex(hash) || size < 0) {
+                status = "invalid";
+            } else {
+                status = materialize(session, hash, size, path, overwrite);
+                if (status.equals("linked") || status.equals("copied") || status.equals("unchanged")) {
+                    savedBytes += size;
+                }
+            }
+            if (count++ > 0) json.append(',');
+            json.append("{\"path\":").append(Json.quote(path)).append(",\"status\":\"").append(status).append("\"}");
+        }
+        json.append("],\"savedBytes\":").append(savedBytes).append('}');
+        Log.d(TAG, "Dedup: " + count + " files, " + savedBytes + " bytes not sent");
+        return NanoHTTPD.newFixedLengthResponse(Response.Status.OK, "application/json", json.toString());
+    }
+
+    private String materialize(IHTTPSession session, String hash, long size, String path, boolean overwrite) {
+        File target = UploadApi.resolve(rootDir, path);
+        if (target == null) return "invalid";
+        if (target.exists()) {
+            if (target.isDirectory()) return "exists";
+            if (target.length() == size && hash.equals(index.hashOf(target))) return "unchanged";
+            if (!overwrite) return "exists";
+        }
+        File source = index.find(hash, size);
+        if (source == null) return "missing";
+        File parent = target.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) return "missing";
+
+        File partFile;
+        try {
+            partFile = PartFiles.create(target);
+        } catch (IOException e) {
+            Log.w(TAG, "Dedup cannot create a part file for " + path + ": " + e.getMessage());
+            return "missing";
+        }
+        // link(2) wants a free name; the random one stays unused by anyone else once deleted
+        partFile.delete();
+        String status;
+        if (link(source, partFile)) {
+            status = "linked";
+        } else {
+            try (StorageGuard.Reservation space = storage.reserve(size)) {
+                if (space == null) return "nospace";
+                copy(source, partFile);
+            } catch (IOException e) {
+                Log.w(TAG, "Dedup copy failed for " + path + ": " + e.getMessage());
+                partFile.delete();
+                return "missing";
+            }
+            status = "copied";
+        }
+        // the source may have changed since it was indexed; then the client sends the file itself
+        if (partFile.length() != size) {
+            partFile.delete();
+            return "missing";
+        }
+        try {
+            PartFiles.moveIntoPlace(partFile, target);
+        } catch (IOException e) {
+            Log.w(TAG, "Dedup cannot move " + path + " into place: " + e.getMessage());
+            partFile.delete();
+            return "missing";
+        }
+        index.record(target, hash);
+        listener.onUploadFinished(target, session);
+        return status;
+    }
+
+    // A hard link shares the blocks, so nothing is written at all. Uploads always replace files
+    // by rename, never in place, so the linked files do not change together through this server.
+    private static boolean link(File source, File target) {
+        try {
+            Os.link(source.getAbsolutePath(), target.getAbsolutePath());
+            return true;
+        } catch (ErrnoException e) {
+            return false;
+        }
+    }
+
+    private static void copy(File source, File target) throws IOException {
+        try (FileChannel in = new FileInputStream(source).getChannel();
+             FileChannel out = new FileOutputStream(target).getChannel()) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long n = in.transferTo(position, size - position, out);
+                if (n <= 0) break;
+                position += n;
+            }
+        }
+    }
+
+    // Only a well-formed SHA-256 is looked up; anything else makes the line invalid.
+    private static boolean isSha256Hex(String hash) {
+        if (hash == null || hash.length() != 64) return false;
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+        return true;
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Response error(Response.IStatus status, String message) {
+        return NanoHTTPD.newFixedLengthResponse(status, "application/json", "{\"error\":" + Json.quote(message) + "}");
+    }
+}
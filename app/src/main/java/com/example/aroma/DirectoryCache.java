@@ -0,0 +1,117 @@
+package com.example.aroma;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// LRU of directory snapshots keyed by absolute path. A snapshot is reused while the directory
+// mtime is unchanged, which covers entries being added, removed or renamed. Writes that only
+// change a child's size or mtime do not touch the directory, so the server invalidates
+// explicitly after every mutation it performs itself.
+//
+// mtime can have one-second resolution, so a directory changed within a moment of being read
+// may keep the mtime the snapshot holds; such a snapshot is handed out but not cached. Nor is
+// one read before an invalidate() that happened while it was being read.
+public class DirectoryCache {
+    public static final int DEFAULT_MAX_DIRECTORIES = 64;
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+    static final long RACY_MILLIS = 2000;
+
+    private final int maxDirectories;
+    private final int maxEntries;
+    private final LinkedHashMap<String, DirectorySnapshot> snapshots = new LinkedHashMap<>(16, 0.75f, true);
+    private int cachedEntries;
+    // bumped by every invalidation
+    private long generation;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public DirectoryCache(int maxDirectories, int maxEntries) {
+        this.maxDirectories = maxDirectories;
+        this.maxEntries = maxEntries;
+    }
+
+    // Null when the directory cannot be read.
+    public DirectorySnapshot get(File dir) {
+        String key = dir.getAbsolutePath();
+        long modified = dir.lastModified();
+        long readGeneration;
+        synchronized (this) {
+            DirectorySnapshot cached = snapshots.get(key);
+            if (cached != null && modified != 0 && cached.getModified() == modified) {
+                hits.incrementAndGet();
+                return cached;
+            }
+            readGeneration = generation;
+        }
+        misses.incrementAndGet();
+        long started = System.currentTimeMillis();
+        // read outside the lock so a slow directory does not block other listings
+        DirectorySnapshot snapshot = DirectorySnapshot.read(dir);
+        synchronized (this) {
+            if (generation != readGeneration) return snapshot;
+            remove(key);
+            if (snapshot != null && snapshot.size() <= maxEntries && started - snapshot.getModified() >= RACY_MILLIS) {
+                snapshots.put(key, snapshot);
+                cachedEntries += snapshot.size();
+                trim();
+            }
+        }
+        return snapshot;
+    }
+
+    // The cached snapshot if it is still current, without reading the directory otherwise.
+    public synchronized DirectorySnapshot peek(File dir) {
+        DirectorySnapshot cached = snapshots.get(dir.getAbsolutePath());
+        long modified = dir.lastModified();
+        return cached != null && modified != 0 && cached.getModified() == modified ? cached : null;
+    }
+
+    // Drops the directory and everything cached below it.
+    public synchronized void invalidate(File dir) {
+        generation++;
+        String key = dir.getAbsolutePath();
+        String prefix = key.endsWith(File.separator) ? key : key + File.separator;
+        Iterator<Map.Entry<String, DirectorySnapshot>> it = snapshots.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, DirectorySnapshot> entry = it.next();
+            if (entry.getKey().equals(key) || entry.getKey().startsWith(prefix)) {
+                cachedEntries -= entry.getValue().size();
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        generation++;
+        snapshots.clear();
+        cachedEntries = 0;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public synchronized int size() {
+        return snapshots.size();
+    }
+
+    private void remove(String key) {
+        DirectorySnapshot old = snapshots.remove(key);
+        if (old != null) cachedEntries -= old.size();
+    }
+
+    private void trim() {
+        Iterator<DirectorySnapshot> it = snapshots.values().iterator();
+        while ((snapshots.size() > maxDirectories || cachedEntries > maxEntries) && it.hasNext()) {
+            cachedEntries -= it.next().size();
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.aroma;
+
+import android.os.Build;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+// Reads a directory with one attribute lookup per entry. On API 26+ a single stat per child
+// replaces File's separate isDirectory()/length()/lastModified() calls; older releases fall
+// back to java.io.File.
+public final class DirectoryScanner {
+
+    public static final class Entry {
+        public final String name;
+        public final boolean directory;
+        public final long size;
+        public final long modified;
+
+        Entry(String name, boolean directory, long size, long modified) {
+            this.name = name;
+            this.directory = directory;
+            this.size = directory ? 0 : size;
+            this.modified = modified;
+        }
+    }
+
+    public interface Visitor {
+        void visit(Entry entry);
+    }
+
+    private static final class Keyed {
+        final Entry entry;
+        final CollationKey key;
+
+        Keyed(Entry entry, CollationKey key) {
+            this.entry = entry;
+            this.key = key;
+        }
+    }
+
+    // Absolute paths of folders the server keeps for itself inside the served root. Only those
+    // exact folders are hidden; a folder of the same name anywhere else is the user's own.
+    private static final Set<String> INTERNAL = new CopyOnWriteArraySet<>();
+
+    private DirectoryScanner() {
+    }
+
+    public static void hide(File dir) {
+        INTERNAL.add(dir.getAbsolutePath());
+    }
+
+    public static void scan(File dir, Visitor visitor) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir.toPath())) {
+                for (Path child : stream) {
+                    String name = child.getFileName().toString();
+                    if (isInternal(dir, name)) continue;
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(child, BasicFileAttributes.class);
+                    } catch (IOException e) {
+                        // dangling symlink or vanished entry: still list it, like File would
+                        visitor.visit(new Entry(name, false, 0, 0));
+                        continue;
+                    }
+                    visitor.visit(new Entry(name, attrs.isDirectory(), attrs.size(), attrs.lastModifiedTime().toMillis()));
+                }
+            }
+            return;
+        }
+        String[] names = dir.list();
+        if (names == null) throw new IOException("Cannot read " + dir.getAbsolutePath());
+        for (String name : names) {
+            if (isInternal(dir, name)) continue;
+            File child = new File(dir, name);
+            visitor.visit(new Entry(name, child.isDirectory(), child.length(), child.lastModified()));
+        }
+    }
+
+    private static boolean isInternal(File dir, String name) {
+        return name.startsWith(".") && !INTERNAL.isEmpty() && INTERNAL.contains(new File(dir, name).getAbsolutePath());
+    }
+
+    // Folders first, then by name in the device locale ignoring case. Each name is collated
+    // once up front so the sort itself only compares precomputed keys.
+    public static List<Entry> list(File dir) throws IOException {
+        Collator collator = Collator.getInstance();
+        collator.setStrength(Collator.SECONDARY);
+        List<Keyed> keyed = new ArrayList<>();
+        scan(dir, entry -> keyed.add(new Keyed(entry, collator.getCollationKey(entry.name))));
+        Keyed[] sorted = keyed.toArray(new Keyed[0]);
+        Arrays.sort(sorted, (a, b) -> {
+            if (a.entry.directory != b.entry.directory) return a.entry.directory ? -1 : 1;
+            int c = a.key.compareTo(b.key);
+            return c != 0 ? c : a.entry.name.compareTo(b.entry.name);
+        });
+        List<Entry> entries = new ArrayList<>(sorted.length);
+        for (Keyed k : sorted) {
+            entries.add(k.entry);
+        }
+        return entries;
+    }
+
+    // The order of list() as a comparator, for placing single entries against a listing.
+    public static Comparator<Entry> order() {
+        Collator collator = Collator.getInstance();
+        collator.setStrength(Collator.SECONDARY);
+        return (a, b) -> {
+            if (a.directory != b.directory) return a.directory ? -1 : 1;
+            int c = collator.compare(a.name, b.name);
+            return c != 0 ? c : a.name.compareTo(b.name);
+        };
+    }
+}
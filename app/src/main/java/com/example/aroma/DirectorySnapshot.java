@@ -0,0 +1,67 @@
+package com.example.aroma;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// The entries of one directory as read at a single point in time, in DirectoryScanner order.
+// Immutable, so cached copies can be shared between request threads.
+public final class DirectorySnapshot {
+
+    private final List<DirectoryScanner.Entry> entries;
+    private final long modified;
+    // other orders, sorted on first use and kept with the snapshot
+    private List<DirectoryScanner.Entry> bySize;
+    private List<DirectoryScanner.Entry> byModified;
+
+    private DirectorySnapshot(List<DirectoryScanner.Entry> entries, long modified) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.modified = modified;
+    }
+
+    // Null when the directory cannot be read.
+    public static DirectorySnapshot read(File dir) {
+        long modified = dir.lastModified();
+        try {
+            return new DirectorySnapshot(DirectoryScanner.list(dir), modified);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public List<DirectoryScanner.Entry> getEntries() {
+        return entries;
+    }
+
+    // Folders first, then by size; equal sizes stay in name order.
+    public synchronized List<DirectoryScanner.Entry> getEntriesBySize() {
+        if (bySize == null) {
+            List<DirectoryScanner.Entry> sorted = new ArrayList<>(entries);
+            // stable, so ties keep the name order
+            Collections.sort(sorted, (a, b) -> a.directory != b.directory ? (a.directory ? -1 : 1) : Long.compare(a.size, b.size));
+            bySize = Collections.unmodifiableList(sorted);
+        }
+        return bySize;
+    }
+
+    // Folders first, then by mtime; equal mtimes stay in name order.
+    public synchronized List<DirectoryScanner.Entry> getEntriesByModified() {
+        if (byModified == null) {
+            List<DirectoryScanner.Entry> sorted = new ArrayList<>(entries);
+            Collections.sort(sorted, (a, b) -> a.directory != b.directory ? (a.directory ? -1 : 1) : Long.compare(a.modified, b.modified));
+            byModified = Collections.unmodifiableList(sorted);
+        }
+        return byModified;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // Directory mtime when the snapshot was taken
+    public long getModified() {
+        return modified;
+    }
+}
@@ -10,34 +10,26 @@ import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.io.File;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
 public class FileAdapter extends RecyclerView.Adapter<FileAdapter.ViewHolder> {
 
-    private final List<File> files;
+    private final File dir;
+    private final List<DirectoryScanner.Entry> entries;
     private final OnFileClickListener listener;
     private final boolean isDarkTheme;
 
-    private void sortFiles() {
-        Collections.sort(files, (a, b) -> {
-            if (a.isDirectory() && !b.isDirectory()) return -1;
-            if (!a.isDirectory() && b.isDirectory()) return 1;
-            return a.getName().compareToIgnoreCase(b.getName());
-        });
-    }
-
     public interface OnFileClickListener {
         void onFileClick(File file);
     }
 
-    public FileAdapter(Context context, List<File> files, OnFileClickListener listener) {
-        this.files = files;
+    // entries come from DirectoryScanner.list(), already sorted
+    public FileAdapter(Context context, File dir, List<DirectoryScanner.Entry> entries, OnFileClickListener listener) {
+        this.dir = dir;
+        this.entries = entries;
         this.listener = listener;
         CredentialsManager cm = new CredentialsManager(context);
         this.isDarkTheme = cm.getTheme() == CredentialsManager.THEME_DARK;
-        sortFiles();
     }
 
     @NonNull
@@ -49,16 +41,16 @@ public class FileAdapter extends RecyclerView.Adapter<FileAdapter.ViewHolder> {
 
     @Override
     public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-        File file = files.get(position);
-        holder.textView.setText(file.getName() + (file.isDirectory() ? "/" : ""));
+        DirectoryScanner.Entry entry = entries.get(position);
+        holder.textView.setText(entry.name + (entry.directory ? "/" : ""));
         holder.textView.setTextColor(isDarkTheme ? 0xFFFFFFFF : 0xFF111111);
         holder.itemView.setBackgroundColor(isDarkTheme ? 0xFF16213e : 0xFFFFFFFF);
-        holder.itemView.setOnClickListener(v -> listener.onFileClick(file));
+        holder.itemView.setOnClickListener(v -> listener.onFileClick(new File(dir, entry.name)));
     }
 
     @Override
     public int getItemCount() {
-        return files.size();
+        return entries.size();
     }
 
     static class ViewHolder extends RecyclerView.ViewHolder {
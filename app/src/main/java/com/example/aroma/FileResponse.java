@@ -0,0 +1,191 @@
+package com.example.aroma;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+public class FileResponse extends StreamingResponse {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public interface TransferListener {
+        void onTransferFinished(long bytesSent, long elapsedMillis, boolean complete);
+    }
+
+    private final FileInputStream in;
+    private final List<ByteRange> ranges;
+    private final List<byte[]> partHeaders;
+    private final byte[] closingBoundary;
+    private TransferListener transferListener;
+    private ContentDigest digest;
+    private boolean digestComplete;
+    private long bytesSent;
+
+    private FileResponse(IStatus status, String mimeType, long contentLength, File file,
+                         List<ByteRange> ranges, List<byte[]> partHeaders, byte[] closingBoundary)
+            throws IOException {
+        super(status, mimeType, contentLength);
+        this.in = new FileInputStream(file);
+        this.ranges = ranges;
+        this.partHeaders = partHeaders;
+        this.closingBoundary = closingBoundary;
+        addHeader("Accept-Ranges", "bytes");
+        addHeader("Last-Modified", HttpDate.format(file.lastModified()));
+        addHeader("ETag", CacheValidators.fileETag(file));
+        addHeader("Cache-Control", "no-cache");
+    }
+
+    public static FileResponse full(File file, String mimeType) throws IOException {
+        long length = file.length();
+        List<ByteRange> whole = length > 0
+                ? Collections.singletonList(new ByteRange(0, length - 1))
+                : Collections.emptyList();
+        return new FileResponse(Status.OK, mimeType, length, file, whole, null, null);
+    }
+
+    public static FileResponse partial(File file, String mimeType, List<ByteRange> ranges)
+            throws IOException {
+        long total = file.length();
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            FileResponse response = new FileResponse(Status.PARTIAL_CONTENT, mimeType, range.length(),
+                    file, ranges, null, null);
+            response.addHeader("Content-Range", range.contentRange(total));
+            return response;
+        }
+
+        String boundary = "AROMA" + UUID.randomUUID().toString().replace("-", "");
+        List<byte[]> partHeaders = new ArrayList<>(ranges.size());
+        long contentLength = 0;
+        for (ByteRange range : ranges) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + "Content-Type: " + mimeType + "\r\n"
+                    + "Content-Range: " + range.contentRange(total) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            contentLength += partHeader.length + range.length();
+        }
+        byte[] closing = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        contentLength += closing.length;
+        return new FileResponse(Status.PARTIAL_CONTENT, "multipart/byteranges; boundary=" + boundary,
+                contentLength, file, ranges, partHeaders, closing);
+    }
+
+    // Quoted ASCII fallback plus RFC 6266 filename* so non-Latin names survive the download.
+    public static String attachmentDisposition(String filename) {
+        String fallback = filename.replaceAll("[^\\x20-\\x7e]|[\"\\\\]", "_");
+        try {
+            String encoded = URLEncoder.encode(filename, "UTF-8").replace("+", "%20");
+            return "attachment; filename=\"" + fallback + "\"; filename*=UTF-8''" + encoded;
+        } catch (UnsupportedEncodingException e) {
+            return "attachment; filename=\"" + fallback + "\"";
+        }
+    }
+
+    public boolean includesStart() {
+        return getStatus() == Status.OK || ranges.get(0).start == 0;
+    }
+
+    public void setTransferListener(TransferListener listener) {
+        this.transferListener = listener;
+    }
+
+    // Digests the whole file while sending it and appends the result as a Repr-Digest trailer.
+    // The bytes then pass through user space instead of sendfile, but are still read only once.
+    public void sendDigestTrailer(ContentDigest digest) {
+        this.digest = digest;
+        declareTrailer("Repr-Digest");
+    }
+
+    @Override
+    protected String trailer() {
+        return digestComplete ? digest.header() : null;
+    }
+
+    @Override
+    protected void writeBody(OutputStream out) throws IOException {
+        long started = System.currentTimeMillis();
+        boolean complete = false;
+        try {
+            FileChannel channel = in.getChannel();
+            SocketChannel socket = directChannel();
+            byte[] buffer = socket == null ? new byte[BUFFER_SIZE] : null;
+            for (int i = 0; i < ranges.size(); i++) {
+                if (partHeaders != null) {
+                    out.write(partHeaders.get(i));
+                    bytesSent += partHeaders.get(i).length;
+                }
+                ByteRange range = ranges.get(i);
+                if (socket != null) {
+                    transferRange(channel, range.start, range.length(), socket, out);
+                } else {
+                    copyRange(channel, range.start, range.length(), buffer, out);
+                }
+            }
+            if (closingBoundary != null) {
+                out.write(closingBoundary);
+                bytesSent += closingBoundary.length;
+            }
+            complete = true;
+            digestComplete = digest != null;
+        } finally {
+            if (transferListener != null) {
+                transferListener.onTransferFinished(bytesSent, System.currentTimeMillis() - started, complete);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+        super.close();
+    }
+
+    // sendfile(2) from the page cache straight into the socket; no user-space copy.
+    private void transferRange(FileChannel channel, long position, long count, SocketChannel socket,
+                               OutputStream out) throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long sent = channel.transferTo(position, end - position, socket);
+            if (sent <= 0) {
+                // No progress (truncated file, or a filesystem without sendfile support):
+                // finish this range through the buffered path, which reports truncation.
+                copyRange(channel, position, end - position, new byte[BUFFER_SIZE], out);
+                return;
+            }
+            position += sent;
+            bytesSent += sent;
+        }
+    }
+
+    private void copyRange(FileChannel channel, long position, long count, byte[] buffer, OutputStream out)
+            throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buffer);
+        long remaining = count;
+        while (remaining > 0) {
+            bb.clear();
+            bb.limit((int) Math.min(buffer.length, remaining));
+            int read = channel.read(bb, position);
+            if (read < 0) {
+                throw new IOException("File shrank while sending, " + remaining + " bytes missing");
+            }
+            if (digest != null) {
+                digest.update(buffer, 0, read);
+            }
+            out.write(buffer, 0, read);
+            position += read;
+            remaining -= read;
+            bytesSent += read;
+        }
+    }
+}
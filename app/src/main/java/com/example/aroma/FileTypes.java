@@ -0,0 +1,185 @@
+package com.example.aroma;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Everything the server knows about a file from its name: MIME type, how to preview it,
+// whether compressing it is worthwhile and which icon to show. One hash lookup on the
+// lowercase extension; content sniffing is only used for names without a known extension.
+public final class FileTypes {
+
+    public enum PreviewKind { IMAGE, VIDEO, AUDIO, PDF, TEXT, NONE }
+
+    public static final class Type {
+        public final String mimeType;
+        public final PreviewKind preview;
+        public final boolean compressible;
+        public final String icon;
+
+        Type(String mimeType, PreviewKind preview, boolean compressible, String icon) {
+            this.mimeType = mimeType;
+            this.preview = preview;
+            this.compressible = compressible;
+            this.icon = icon;
+        }
+    }
+
+    // HTML character references
+    public static final String ICON_FOLDER = "&#128193;";
+    private static final String ICON_FILE = "&#128196;";
+    private static final String ICON_IMAGE = "&#128444;";
+    private static final String ICON_VIDEO = "&#127902;";
+    private static final String ICON_AUDIO = "&#127925;";
+    private static final String ICON_TEXT = "&#128221;";
+    private static final String ICON_ARCHIVE = "&#128230;";
+
+    public static final Type UNKNOWN = new Type("application/octet-stream", PreviewKind.NONE, false, ICON_FILE);
+
+    private static final Map<String, Type> BY_EXTENSION = new HashMap<>();
+    private static final Map<String, Type> BY_MIME_TYPE = new HashMap<>();
+
+    static {
+        image("image/jpeg", false, "jpg", "jpeg");
+        image("image/png", false, "png");
+        image("image/gif", false, "gif");
+        image("image/webp", false, "webp");
+        image("image/bmp", true, "bmp");
+        image("image/x-icon", true, "ico");
+        image("image/svg+xml", true, "svg");
+        register("image/heic", PreviewKind.NONE, false, ICON_IMAGE, "heic", "heif");
+
+        register("video/mp4", PreviewKind.VIDEO, false, ICON_VIDEO, "mp4", "m4v");
+        register("video/webm", PreviewKind.VIDEO, false, ICON_VIDEO, "webm");
+        register("video/quicktime", PreviewKind.VIDEO, false, ICON_VIDEO, "mov");
+        register("video/x-matroska", PreviewKind.NONE, false, ICON_VIDEO, "mkv");
+        register("video/3gpp", PreviewKind.NONE, false, ICON_VIDEO, "3gp");
+        register("video/x-msvideo", PreviewKind.NONE, false, ICON_VIDEO, "avi");
+
+        register("audio/mpeg", PreviewKind.AUDIO, false, ICON_AUDIO, "mp3");
+        register("audio/wav", PreviewKind.AUDIO, true, ICON_AUDIO, "wav");
+        register("audio/ogg", PreviewKind.AUDIO, false, ICON_AUDIO, "ogg", "oga", "opus");
+        register("audio/mp4", PreviewKind.AUDIO, false, ICON_AUDIO, "m4a");
+        register("audio/flac", PreviewKind.AUDIO, false, ICON_AUDIO, "flac");
+        register("audio/aac", PreviewKind.AUDIO, false, ICON_AUDIO, "aac");
+
+        register("application/pdf", PreviewKind.PDF, false, ICON_FILE, "pdf");
+
+        text("text/html", "html", "htm");
+        text("text/css", "css");
+        text("application/javascript", "js");
+        text("application/json", "json");
+        text("application/xml", "xml");
+        text("text/csv", "csv");
+        text("text/markdown", "md");
+        text("text/plain", "txt", "log", "py", "java", "kt", "c", "cpp", "h", "sh", "yml", "yaml", "ini",
+                "conf", "cfg", "properties", "sql", "ts", "tsx", "jsx", "rb", "go", "rs", "swift", "gradle", "toml");
+
+        register("application/zip", PreviewKind.NONE, false, ICON_ARCHIVE, "zip");
+        register("application/gzip", PreviewKind.NONE, false, ICON_ARCHIVE, "gz", "tgz");
+        register("application/x-7z-compressed", PreviewKind.NONE, false, ICON_ARCHIVE, "7z");
+        register("application/vnd.rar", PreviewKind.NONE, false, ICON_ARCHIVE, "rar");
+        register("application/x-tar", PreviewKind.NONE, true, ICON_ARCHIVE, "tar");
+        register("application/vnd.android.package-archive", PreviewKind.NONE, false, ICON_ARCHIVE, "apk");
+    }
+
+    private FileTypes() {
+    }
+
+    private static void register(String mimeType, PreviewKind preview, boolean compressible, String icon, String... extensions) {
+        Type type = new Type(mimeType, preview, compressible, icon);
+        for (String extension : extensions) {
+            BY_EXTENSION.put(extension, type);
+        }
+        BY_MIME_TYPE.put(mimeType, type);
+    }
+
+    private static void image(String mimeType, boolean compressible, String... extensions) {
+        register(mimeType, PreviewKind.IMAGE, compressible, ICON_IMAGE, extensions);
+    }
+
+    private static void text(String mimeType, String... extensions) {
+        register(mimeType, PreviewKind.TEXT, true, ICON_TEXT, extensions);
+    }
+
+    public static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        if (dot < 0 || dot == name.length() - 1) return "";
+        return name.substring(dot + 1).toLowerCase(Locale.US);
+    }
+
+    // By name only; never touches the file, so it is cheap enough for every listing row.
+    public static Type forName(String name) {
+        Type type = BY_EXTENSION.get(extension(name));
+        return type != null ? type : UNKNOWN;
+    }
+
+    // By MIME type, ignoring parameters such as charset; UNKNOWN when not registered.
+    public static Type forMimeType(String mimeType) {
+        if (mimeType == null) return UNKNOWN;
+        String bare = mimeType.toLowerCase(Locale.US);
+        int params = bare.indexOf(';');
+        if (params >= 0) bare = bare.substring(0, params);
+        Type type = BY_MIME_TYPE.get(bare.trim());
+        return type != null ? type : UNKNOWN;
+    }
+
+    // By name, falling back to the file's leading bytes when the extension is unknown.
+    public static Type detect(File file) {
+        Type type = forName(file.getName());
+        if (type != UNKNOWN) return type;
+        byte[] head = new byte[16];
+        int length;
+        try (InputStream in = new FileInputStream(file)) {
+            length = in.read(head);
+        } catch (IOException e) {
+            return UNKNOWN;
+        }
+        String sniffed = sniff(head, Math.max(length, 0));
+        return sniffed != null ? BY_EXTENSION.get(sniffed) : UNKNOWN;
+    }
+
+    // The extension matching well-known magic bytes, or null.
+    private static String sniff(byte[] b, int length) {
+        if (startsWith(b, length, 0xFF, 0xD8, 0xFF)) return "jpg";
+        if (startsWith(b, length, 0x89, 'P', 'N', 'G')) return "png";
+        if (startsWith(b, length, 'G', 'I', 'F', '8')) return "gif";
+        if (startsWith(b, length, '%', 'P', 'D', 'F')) return "pdf";
+        if (startsWith(b, length, 'P', 'K', 3, 4)) return "zip";
+        if (startsWith(b, length, 0x1F, 0x8B)) return "gz";
+        if (startsWith(b, length, 'O', 'g', 'g', 'S')) return "ogg";
+        if (startsWith(b, length, 'I', 'D', '3')) return "mp3";
+        if (startsWith(b, length, 'f', 'L', 'a', 'C')) return "flac";
+        if (length >= 12 && ascii(b, 0, 4).equals("RIFF")) {
+            String form = ascii(b, 8, 4);
+            if (form.equals("WEBP")) return "webp";
+            if (form.equals("WAVE")) return "wav";
+        }
+        if (length >= 12 && ascii(b, 4, 4).equals("ftyp")) {
+            String brand = ascii(b, 8, 4);
+            if (brand.startsWith("qt")) return "mov";
+            if (brand.startsWith("M4A")) return "m4a";
+            if (brand.startsWith("heic") || brand.startsWith("mif1")) return "heic";
+            return "mp4";
+        }
+        if (startsWith(b, length, 0x1A, 0x45, 0xDF, 0xA3)) return "mkv";
+        return null;
+    }
+
+    private static boolean startsWith(byte[] b, int length, int... magic) {
+        if (length < magic.length) return false;
+        for (int i = 0; i < magic.length; i++) {
+            if ((b[i] & 0xff) != magic[i]) return false;
+        }
+        return true;
+    }
+
+    private static String ascii(byte[] b, int offset, int length) {
+        return new String(b, offset, length, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.aroma;
+
+import android.os.Build;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// tail -F over Server-Sent Events. Only bytes past the last position are read on each poll.
+// Each event carries the byte offset after its last line as its id, so a reconnecting
+// EventSource resumes exactly where it stopped via Last-Event-ID.
+public class FollowResponse extends StreamingResponse {
+    private static final String TAG = "AROMA";
+    public static final int MAX_FOLLOWERS = 4;
+    private static final int INITIAL_TAIL_BYTES = 16 * 1024;
+    private static final int MAX_LINE_BYTES = 64 * 1024;
+    private static final long POLL_MILLIS = 500;
+    private static final long HEARTBEAT_MILLIS = 15_000;
+    private static final AtomicInteger FOLLOWERS = new AtomicInteger();
+
+    private final File file;
+    private final long from;
+
+    private FollowResponse(File file, long from) {
+        super(Status.OK, "text/event-stream", -1);
+        this.file = file;
+        this.from = from;
+        addHeader("Cache-Control", "no-cache");
+    }
+
+    // from < 0 starts with the last few KB of the file. Null when too many clients are following.
+    public static FollowResponse open(File file, long from) {
+        if (FOLLOWERS.incrementAndGet() > MAX_FOLLOWERS) {
+            FOLLOWERS.decrementAndGet();
+            return null;
+        }
+        return new FollowResponse(file, from);
+    }
+
+    @Override
+    protected void send(OutputStream outputStream) {
+        try {
+            super.send(outputStream);
+        } finally {
+            FOLLOWERS.decrementAndGet();
+        }
+    }
+
+    @Override
+    protected void writeBody(OutputStream out) throws IOException {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            Object identity = fileKey();
+            long position;
+            boolean skipPartialLine = false;
+            if (from >= 0) {
+                position = Math.min(from, channel.size());
+            } else {
+                position = Math.max(0, channel.size() - INITIAL_TAIL_BYTES);
+                skipPartialLine = position > 0;
+            }
+            writeAscii(out, "retry: 2000\n\n");
+            out.flush();
+
+            ByteBuffer buffer = ByteBuffer.allocate(MAX_LINE_BYTES);
+            ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+            ByteArrayOutputStream event = new ByteArrayOutputStream(MAX_LINE_BYTES);
+            long lastWrite = System.currentTimeMillis();
+            while (true) {
+                // The path may now name a different file (rotated) or a shorter one (truncated)
+                long pathLength = file.length();
+                Object currentIdentity = fileKey();
+                boolean rotated = identity != null && currentIdentity != null && !identity.equals(currentIdentity);
+                if (file.exists() && (rotated || pathLength < position)) {
+                    raf.close();
+                    raf = new RandomAccessFile(file, "r");
+                    channel = raf.getChannel();
+                    identity = currentIdentity;
+                    position = 0;
+                    line.reset();
+                    skipPartialLine = false;
+                    writeAscii(out, "event: reset\ndata: " + (rotated ? "rotated" : "truncated") + "\n\n");
+                    out.flush();
+                    lastWrite = System.currentTimeMillis();
+                }
+
+                boolean progressed = false;
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read > 0) {
+                    progressed = true;
+                    position += read;
+                    byte[] bytes = buffer.array();
+                    for (int i = 0; i < read; i++) {
+                        byte b = bytes[i];
+                        if (b == '\n' || line.size() >= MAX_LINE_BYTES) {
+                            if (!skipPartialLine) {
+                                appendDataLine(event, line);
+                            }
+                            skipPartialLine = false;
+                            line.reset();
+                            if (b == '\n') continue;
+                        }
+                        line.write(b);
+                    }
+                    if (event.size() > 0) {
+                        long id = position - line.size();
+                        writeAscii(out, "id: " + id + "\n");
+                        event.writeTo(out);
+                        out.write('\n');
+                        out.flush();
+                        event.reset();
+                        lastWrite = System.currentTimeMillis();
+                    }
+                }
+                if (!progressed) {
+                    if (System.currentTimeMillis() - lastWrite >= HEARTBEAT_MILLIS) {
+                        // also how a closed browser tab is noticed
+                        writeAscii(out, ": ping\n\n");
+                        out.flush();
+                        lastWrite = System.currentTimeMillis();
+                    }
+                    try {
+                        Thread.sleep(POLL_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        } finally {
+            if (raf != null) raf.close();
+            Log.d(TAG, "Stopped following " + file.getName());
+        }
+    }
+
+    private static void appendDataLine(ByteArrayOutputStream event, ByteArrayOutputStream line) throws IOException {
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\r') length--;
+        event.write("data: ".getBytes(StandardCharsets.US_ASCII));
+        // Lines are cut on '\n' only, which never occurs inside a UTF-8 sequence
+        event.write(bytes, 0, length);
+        event.write('\n');
+    }
+
+    private Object fileKey() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return null;
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeAscii(OutputStream out, String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.US_ASCII));
+    }
+}
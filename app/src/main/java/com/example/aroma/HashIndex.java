@@ -0,0 +1,279 @@
+package com.example.aroma;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// SHA-256 of the files under the served root, keyed by path and valid while size and mtime are
+// unchanged. One low-priority thread walks the tree after start-up and hashes whatever is new
+// or changed; uploads are queued as they land. The index is saved in the app's private storage,
+// so a restart only rehashes files that changed meanwhile.
+public class HashIndex {
+    private static final String TAG = "AROMA";
+    // Below this, resending is cheaper than the bookkeeping
+    public static final long MIN_SIZE = 64 * 1024;
+    private static final int MAX_DEPTH = 32;
+    private static final int SAVE_EVERY = 100;
+
+    static final class Record {
+        final String path;
+        final long size;
+        final long modified;
+        final String hash;
+
+        Record(String path, long size, long modified, String hash) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+
+        boolean matches(File file) {
+            return file.length() == size && file.lastModified() == modified;
+        }
+    }
+
+    private final File rootDir;
+    private final File indexFile;
+    private final ConcurrentHashMap<String, Record> byPath = new ConcurrentHashMap<>();
+    // One known path per hash is enough to materialize a copy
+    private final ConcurrentHashMap<String, String> byHash = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Boolean> queued = new ConcurrentHashMap<>();
+    private final AtomicInteger unsaved = new AtomicInteger();
+    private final ThreadPoolExecutor executor;
+    private volatile boolean loaded;
+
+    public HashIndex(File rootDir, File indexFile) {
+        this.rootDir = rootDir;
+        this.indexFile = indexFile;
+        this.executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "aroma-hash");
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    // Loads the saved index and schedules a walk of the whole tree.
+    public void start() {
+        executor.execute(() -> {
+            load();
+            loaded = true;
+            long begin = System.currentTimeMillis();
+            int[] hashed = {0};
+            walk(rootDir, "", 0, hashed);
+            // forget files that are gone
+            for (Record record : byPath.values()) {
+                if (!record.matches(new File(rootDir, record.path))) remove(record);
+            }
+            save();
+            Log.d(TAG, "Hash index: " + byPath.size() + " files, " + hashed[0] + " hashed in "
+                    + (System.currentTimeMillis() - begin) + " ms");
+        });
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+        // keep what was hashed since the last save; an unloaded index would overwrite the file
+        if (loaded && unsaved.get() > 0) save();
+    }
+
+    public int size() {
+        return byPath.size();
+    }
+
+    public int pending() {
+        return executor.getQueue().size() + executor.getActiveCount();
+    }
+
+    // Hashes a new or rewritten file in the background.
+    public void submit(File file) {
+        String path = relativePath(file);
+        if (path == null || file.length() < MIN_SIZE || hashOf(file) != null || queued.putIfAbsent(path, Boolean.TRUE) != null) return;
+        try {
+            executor.execute(() -> {
+                queued.remove(path);
+                hash(file, path);
+                if (unsaved.get() >= SAVE_EVERY) save();
+            });
+        } catch (RuntimeException e) {
+            queued.remove(path);
+        }
+    }
+
+    // For a file whose content is already known, e.g. one just materialized from another.
+    public void record(File file, String hash) {
+        String path = relativePath(file);
+        if (path == null || file.length() < MIN_SIZE) return;
+        put(new Record(path, file.length(), file.lastModified(), hash));
+    }
+
+    // The hash of file if it is indexed and unchanged, else null.
+    public String hashOf(File file) {
+        String path = relativePath(file);
+        Record record = path != null ? byPath.get(path) : null;
+        return record != null && record.matches(file) ? record.hash : null;
+    }
+
+    // A file under the root that currently has this content, or null.
+    public File find(String hash, long size) {
+        String path = byHash.get(hash);
+        if (path != null) {
+            Record record = byPath.get(path);
+            File file = new File(rootDir, path);
+            if (record != null && record.size == size && record.matches(file)) return file;
+            if (record != null) remove(record);
+        }
+        // the remembered copy changed; any other one will do
+        for (Record record : byPath.values()) {
+            if (!record.hash.equals(hash) || record.size != size) continue;
+            File file = new File(rootDir, record.path);
+            if (record.matches(file)) {
+                byHash.put(hash, record.path);
+                return file;
+            }
+            remove(record);
+        }
+        return null;
+    }
+
+    public static String sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private void walk(File dir, String prefix, int depth, int[] hashed) {
+        if (depth > MAX_DEPTH || Thread.currentThread().isInterrupted()) return;
+        try {
+            DirectoryScanner.scan(dir, entry -> {
+                String path = prefix + entry.name;
+                if (entry.directory) {
+                    walk(new File(dir, entry.name), path + "/", depth + 1, hashed);
+                    return;
+                }
+                if (entry.size < MIN_SIZE) return;
+                Record record = byPath.get(path);
+                if (record != null && record.size == entry.size && record.modified == entry.modified) return;
+                if (hash(new File(dir, entry.name), path)) hashed[0]++;
+                if (unsaved.get() >= SAVE_EVERY) save();
+            });
+        } catch (IOException e) {
+            Log.w(TAG, "Hash index cannot read " + dir.getAbsolutePath() + ": " + e.getMessage());
+        }
+    }
+
+    private boolean hash(File file, String path) {
+        // the index is line- and tab-separated
+        if (path.indexOf('\n') >= 0 || path.indexOf('\t') >= 0) return false;
+        long size = file.length();
+        long modified = file.lastModified();
+        try {
+            String hash = sha256(file);
+            // written to while we read it: try again on the next walk
+            if (file.length() != size || file.lastModified() != modified) return false;
+            put(new Record(path, size, modified, hash));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void put(Record record) {
+        Record previous = byPath.put(record.path, record);
+        if (previous != null && !previous.hash.equals(record.hash)) {
+            byHash.remove(previous.hash, previous.path);
+        }
+        byHash.put(record.hash, record.path);
+        unsaved.incrementAndGet();
+    }
+
+    private void remove(Record record) {
+        byPath.remove(record.path, record);
+        byHash.remove(record.hash, record.path);
+        unsaved.incrementAndGet();
+    }
+
+    private String relativePath(File file) {
+        String root = rootDir.getAbsolutePath() + File.separator;
+        String path = file.getAbsolutePath();
+        return path.startsWith(root) ? path.substring(root.length()) : null;
+    }
+
+    // One record per line: hash, size, mtime, path
+    private void load() {
+        if (!indexFile.isFile()) return;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", 4);
+                if (fields.length != 4) continue;
+                try {
+                    put(new Record(fields[3], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[0]));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+            unsaved.set(0);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read hash index: " + e.getMessage());
+        }
+    }
+
+    private synchronized void save() {
+        unsaved.set(0);
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, Record> entry : byPath.entrySet()) {
+                Record r = entry.getValue();
+                out.write(r.hash + "\t" + r.size + "\t" + r.modified + "\t" + r.path + "\n");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot save hash index: " + e.getMessage());
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(indexFile)) {
+            temp.delete();
+        }
+    }
+}
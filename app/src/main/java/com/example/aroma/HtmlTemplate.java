@@ -0,0 +1,133 @@
+package com.example.aroma;
+
+import android.content.Context;
+
+import fi.iki.elonen.NanoHTTPD.Response;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A page from assets/web split once into UTF-8 literal runs and {{name}} placeholders.
+// Strings bound to a placeholder are HTML-escaped; Slots write their own markup and may do
+// slow work (like scanning a directory) after the preceding literals have been sent.
+public final class HtmlTemplate {
+
+    public interface Slot {
+        void write(HtmlWriter out) throws IOException;
+    }
+
+    private final byte[][] literals;
+    private final String[] names;
+
+    private HtmlTemplate(byte[][] literals, String[] names) {
+        this.literals = literals;
+        this.names = names;
+    }
+
+    public static HtmlTemplate load(Context context, String asset) {
+        try (InputStream in = context.getAssets().open(asset)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return compile(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // templates ship inside the APK, so this is a packaging error
+            throw new IllegalStateException("Cannot load template " + asset, e);
+        }
+    }
+
+    public static HtmlTemplate compile(String source) {
+        List<byte[]> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        int pos = 0;
+        while (true) {
+            int open = source.indexOf("{{", pos);
+            int close = open < 0 ? -1 : source.indexOf("}}", open + 2);
+            if (close < 0) {
+                literals.add(source.substring(pos).getBytes(StandardCharsets.UTF_8));
+                break;
+            }
+            literals.add(source.substring(pos, open).getBytes(StandardCharsets.UTF_8));
+            names.add(source.substring(open + 2, close).trim());
+            pos = close + 2;
+        }
+        return new HtmlTemplate(literals.toArray(new byte[0][]), names.toArray(new String[0]));
+    }
+
+    public Page with(String name, String value) {
+        return new Page(this).with(name, value);
+    }
+
+    public Page with(String name, Slot slot) {
+        return new Page(this).with(name, slot);
+    }
+
+    public Response respond(Response.IStatus status) {
+        return new Page(this).respond(status);
+    }
+
+    void render(HtmlWriter out, Map<String, Object> values) throws IOException {
+        for (int i = 0; i < names.length; i++) {
+            out.raw(literals[i]);
+            Object value = values.get(names[i]);
+            if (value instanceof Slot) {
+                ((Slot) value).write(out);
+            } else if (value != null) {
+                out.text(value.toString());
+            }
+        }
+        out.raw(literals[names.length]);
+    }
+
+    public static final class Page {
+        private final HtmlTemplate template;
+        private final Map<String, Object> values = new HashMap<>();
+
+        Page(HtmlTemplate template) {
+            this.template = template;
+        }
+
+        public Page with(String name, String value) {
+            values.put(name, value);
+            return this;
+        }
+
+        public Page with(String name, Slot slot) {
+            values.put(name, slot);
+            return this;
+        }
+
+        public Response respond(Response.IStatus status) {
+            return new PageResponse(status, template, values);
+        }
+    }
+
+    // Rendered while the response is sent, so the page goes out in chunks as it is produced.
+    private static class PageResponse extends StreamingResponse {
+        private final HtmlTemplate template;
+        private final Map<String, Object> values;
+
+        PageResponse(IStatus status, HtmlTemplate template, Map<String, Object> values) {
+            super(status, "text/html", -1);
+            this.template = template;
+            this.values = values;
+        }
+
+        @Override
+        protected void writeBody(OutputStream out) throws IOException {
+            HtmlWriter writer = new HtmlWriter(out);
+            template.render(writer, values);
+            writer.flush();
+        }
+    }
+}
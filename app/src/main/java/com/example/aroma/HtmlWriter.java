@@ -0,0 +1,122 @@
+package com.example.aroma;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Buffered UTF-8 writer for generated pages. Escaping and encoding happen in one pass over
+// the input straight into the byte buffer, so no intermediate strings are created per value.
+public final class HtmlWriter {
+    private final OutputStream out;
+    private final byte[] buffer = new byte[8192];
+    private int count;
+    private long written;
+
+    public HtmlWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    public HtmlWriter raw(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.length - count) {
+            drain();
+            if (bytes.length > buffer.length) {
+                out.write(bytes);
+                written += bytes.length;
+                return this;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+        return this;
+    }
+
+    // Markup written as-is; callers only pass trusted strings.
+    public HtmlWriter raw(String markup) throws IOException {
+        return encode(markup, false, false);
+    }
+
+    // Escaped for use in element content and in quoted attribute values.
+    public HtmlWriter text(String value) throws IOException {
+        return encode(value, true, false);
+    }
+
+    // Escaped as a double-quoted JavaScript string literal inside a quoted HTML attribute.
+    public HtmlWriter jsString(String value) throws IOException {
+        return encode(value, true, true);
+    }
+
+    public HtmlWriter number(long value) throws IOException {
+        return raw(Long.toString(value));
+    }
+
+    public long getBytesWritten() {
+        return written + count;
+    }
+
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    private HtmlWriter encode(String s, boolean escapeHtml, boolean escapeJs) throws IOException {
+        if (s == null) return this;
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (escapeJs && (c == '\\' || c == '"')) {
+                put('\\');
+            }
+            if (escapeHtml) {
+                switch (c) {
+                    case '&': putAscii("&amp;"); continue;
+                    case '<': putAscii("&lt;"); continue;
+                    case '>': putAscii("&gt;"); continue;
+                    case '"': putAscii("&quot;"); continue;
+                    case '\'': putAscii("&#39;"); continue;
+                    default: break;
+                }
+            }
+            if (escapeJs && c < 0x20) {
+                putAscii(c == '\n' ? "\\n" : c == '\r' ? "\\r" : c == '\t' ? "\\t" : " ");
+                continue;
+            }
+            if (c < 0x80) {
+                put(c);
+            } else if (c < 0x800) {
+                put(0xc0 | (c >> 6));
+                put(0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                put(0xf0 | (cp >> 18));
+                put(0x80 | ((cp >> 12) & 0x3f));
+                put(0x80 | ((cp >> 6) & 0x3f));
+                put(0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                put('?');
+            } else {
+                put(0xe0 | (c >> 12));
+                put(0x80 | ((c >> 6) & 0x3f));
+                put(0x80 | (c & 0x3f));
+            }
+        }
+        return this;
+    }
+
+    private void putAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            put(s.charAt(i));
+        }
+    }
+
+    private void put(int b) throws IOException {
+        if (count == buffer.length) drain();
+        buffer[count++] = (byte) b;
+    }
+
+    private void drain() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            written += count;
+            count = 0;
+        }
+    }
+}
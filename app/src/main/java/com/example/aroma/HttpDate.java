@@ -0,0 +1,40 @@
+package com.example.aroma;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+public final class HttpDate {
+    private static final ThreadLocal<SimpleDateFormat> FORMAT = new ThreadLocal<SimpleDateFormat>() {
+        @Override
+        protected SimpleDateFormat initialValue() {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            return format;
+        }
+    };
+
+    private HttpDate() {
+    }
+
+    public static String format(long millis) {
+        return FORMAT.get().format(new Date(millis));
+    }
+
+    // Returns -1 when the value is not an IMF-fixdate.
+    public static long parse(String value) {
+        if (value == null) return -1;
+        try {
+            return FORMAT.get().parse(value.trim()).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    // HTTP dates have one-second resolution, file mtimes usually do not.
+    public static boolean sameSecond(long a, long b) {
+        return a / 1000 == b / 1000;
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.aroma;
+
+import com.example.aroma.DirectoryScanner.Entry;
+
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoHTTPD.Response;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+// GET /api/list?path=&sort=name|size|mtime&order=asc|desc&limit=&cursor=
+// Pages are cut from the DirectoryCache snapshot the HTML listing uses, so both views sort
+// names the same way and a folder is read once rather than once per page. The cursor is found
+// by binary search, so a page costs O(log n) however deep into the folder it is.
+public class ListingApi {
+    private static final int DEFAULT_LIMIT = 200;
+    private static final int MAX_LIMIT = 1000;
+
+    private enum SortKey { NAME, SIZE, MTIME }
+
+    private final File rootDir;
+    private final DirectoryCache directoryCache;
+
+    public ListingApi(File rootDir, DirectoryCache directoryCache) {
+        this.rootDir = rootDir;
+        this.directoryCache = directoryCache;
+    }
+
+    public Response serve(NanoHTTPD.IHTTPSession session) {
+        Map<String, List<String>> params = session.getParameters();
+        String path = param(params, "path", "/");
+        String sortName = param(params, "sort", "name").toLowerCase();
+        String orderName = param(params, "order", "asc").toLowerCase();
+        String cursor = param(params, "cursor", null);
+
+        SortKey sortKey;
+        switch (sortName) {
+            case "name":
+                sortKey = SortKey.NAME;
+                break;
+            case "size":
+                sortKey = SortKey.SIZE;
+                break;
+            case "mtime":
+                sortKey = SortKey.MTIME;
+                break;
+            default:
+                return error(Response.Status.BAD_REQUEST, "sort must be name, size or mtime");
+        }
+        if (!orderName.equals("asc") && !orderName.equals("desc")) {
+            return error(Response.Status.BAD_REQUEST, "order must be asc or desc");
+        }
+        int limit;
+        try {
+            limit = Integer.parseInt(param(params, "limit", String.valueOf(DEFAULT_LIMIT)));
+        } catch (NumberFormatException e) {
+            return error(Response.Status.BAD_REQUEST, "limit must be a number");
+        }
+        if (limit < 1 || limit > MAX_LIMIT) {
+            return error(Response.Status.BAD_REQUEST, "limit must be between 1 and " + MAX_LIMIT);
+        }
+
+        File dir = resolve(path);
+        if (dir == null) {
+            return error(Response.Status.BAD_REQUEST, "Invalid path");
+        }
+        if (!dir.isDirectory()) {
+            return error(Response.Status.NOT_FOUND, "Not a directory");
+        }
+
+        DirectorySnapshot snapshot = directoryCache.get(dir);
+        if (snapshot == null) {
+            return error(Response.Status.INTERNAL_ERROR, "Cannot read directory");
+        }
+        boolean descending = orderName.equals("desc");
+        List<Entry> sorted = sortedView(snapshot, sortKey, descending);
+        int start = 0;
+        if (cursor != null) {
+            Entry after = decodeCursor(cursor, sortName + ":" + orderName);
+            if (after == null) {
+                return error(Response.Status.BAD_REQUEST, "Invalid cursor");
+            }
+            start = firstAfter(sorted, after, comparator(sortKey, descending));
+        }
+
+        int end = Math.min(sorted.size(), start + limit);
+        List<Entry> entries = sorted.subList(start, end);
+        String next = null;
+        if (end < sorted.size()) {
+            next = encodeCursor(sortName + ":" + orderName, entries.get(entries.size() - 1));
+        }
+        return new PageResponse(path, sortName, orderName, snapshot.size(), entries, next);
+    }
+
+    private File resolve(String path) {
+        if (PathSegments.climbs(path)) return null;
+        String relative = path.startsWith("/") ? path.substring(1) : path;
+        File dir = relative.isEmpty() ? rootDir : new File(rootDir, relative);
+        try {
+            String root = rootDir.getCanonicalPath();
+            String canonical = dir.getCanonicalPath();
+            if (!canonical.equals(root) && !canonical.startsWith(root + File.separator)) return null;
+        } catch (IOException e) {
+            return null;
+        }
+        return dir;
+    }
+
+    // Folders stay first when descending, so each group is reversed on its own. The view
+    // only maps indexes; nothing is copied.
+    private static List<Entry> sortedView(DirectorySnapshot snapshot, SortKey key, boolean descending) {
+        List<Entry> ascending = key == SortKey.SIZE ? snapshot.getEntriesBySize()
+                : key == SortKey.MTIME ? snapshot.getEntriesByModified() : snapshot.getEntries();
+        if (!descending) return ascending;
+        int folders = firstFile(ascending);
+        int size = ascending.size();
+        return new AbstractList<Entry>() {
+            @Override
+            public Entry get(int index) {
+                return ascending.get(index < folders ? folders - 1 - index : size - 1 - (index - folders));
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private static int firstFile(List<Entry> entries) {
+        int low = 0;
+        int high = entries.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (entries.get(mid).directory) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Index of the first entry that sorts after the cursor entry.
+    private static int firstAfter(List<Entry> entries, Entry after, Comparator<Entry> order) {
+        int low = 0;
+        int high = entries.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (order.compare(entries.get(mid), after) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Matches the order of sortedView: ties on size or mtime fall back to the listing's name order.
+    private static Comparator<Entry> comparator(SortKey key, boolean descending) {
+        Comparator<Entry> names = DirectoryScanner.order();
+        return (a, b) -> {
+            if (a.directory != b.directory) return a.directory ? -1 : 1;
+            int c = 0;
+            if (key == SortKey.SIZE) {
+                c = Long.compare(a.size, b.size);
+            } else if (key == SortKey.MTIME) {
+                c = Long.compare(a.modified, b.modified);
+            }
+            if (c == 0) c = names.compare(a, b);
+            return descending ? -c : c;
+        };
+    }
+
+    // The cursor is the sort position of the last entry returned, so deletions and inserts
+    // between pages never cause skipped or repeated entries.
+    private static String encodeCursor(String ordering, Entry last) {
+        String raw = ordering + "\n" + (last.directory ? "d" : "f") + "\n" + last.size + "\n"
+                + last.modified + "\n" + last.name;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Entry decodeCursor(String cursor, String ordering) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\n", 5);
+            if (parts.length != 5 || !parts[0].equals(ordering)) return null;
+            return new Entry(parts[4], parts[1].equals("d"), Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String param(Map<String, List<String>> params, String name, String fallback) {
+        List<String> values = params.get(name);
+        if (values == null || values.isEmpty() || values.get(0).isEmpty()) return fallback;
+        return values.get(0);
+    }
+
+    private static Response error(Response.IStatus status, String message) {
+        return NanoHTTPD.newFixedLengthResponse(status, "application/json", "{\"error\":" + Json.quote(message) + "}");
+    }
+
+    private static class PageResponse extends StreamingResponse {
+        private final String path;
+        private final String sort;
+        private final String order;
+        private final int total;
+        private final List<Entry> entries;
+        private final String next;
+
+        PageResponse(String path, String sort, String order, int total, List<Entry> entries, String next) {
+            super(Status.OK, "application/json", -1);
+            this.path = path;
+            this.sort = sort;
+            this.order = order;
+            this.total = total;
+            this.entries = entries;
+            this.next = next;
+            addHeader("Cache-Control", "no-cache");
+        }
+
+        @Override
+        protected void writeBody(OutputStream out) throws IOException {
+            Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 8192);
+            w.write("{\"path\":");
+            Json.writeString(w, path);
+            w.write(",\"sort\":\"" + sort + "\",\"order\":\"" + order + "\",\"total\":" + total + ",\"entries\":[");
+            for (int i = 0; i < entries.size(); i++) {
+                Entry e = entries.get(i);
+                if (i > 0) w.write(',');
+                w.write("{\"name\":");
+                Json.writeString(w, e.name);
+                w.write(",\"type\":\"" + (e.directory ? "dir" : "file") + "\",\"size\":" + e.size
+                        + ",\"mtime\":" + e.modified + "}");
+            }
+            w.write("],\"next\":");
+            Json.writeString(w, next);
+            w.write('}');
+            w.flush();
+        }
+    }
+}
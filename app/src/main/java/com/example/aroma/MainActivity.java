@@ -38,10 +38,10 @@ import com.google.zxing.MultiFormatWriter;
 import com.google.zxing.common.BitMatrix;
 
 import java.io.File;
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -407,9 +407,13 @@ public class MainActivity extends Activity implements ServerEventListener {
     private void updateFileList() {
         File rootDir = getStorageDir();
         if (rootDir != null) {
-            File[] filesArray = rootDir.listFiles();
-            List<File> files = filesArray != null ? Arrays.asList(filesArray) : new ArrayList<>();
-            FileAdapter adapter = new FileAdapter(this, files, file ->
+            List<DirectoryScanner.Entry> entries;
+            try {
+                entries = DirectoryScanner.list(rootDir);
+            } catch (IOException e) {
+                entries = new ArrayList<>();
+            }
+            FileAdapter adapter = new FileAdapter(this, rootDir, entries, file ->
                     Toast.makeText(MainActivity.this, getString(R.string.selected_file) + file.getName(), Toast.LENGTH_SHORT).show()
             );
             fileListRecyclerView.setAdapter(adapter);
@@ -0,0 +1,90 @@
+package com.example.aroma;
+
+import android.content.Context;
+import android.media.MediaScannerConnection;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Tells the media scanner about uploaded media in batches. Each scanFile call binds to the
+// scanner service, so calling it per file from the request thread made a big photo upload
+// open thousands of connections while still writing. Paths wait until uploads have been
+// quiet for a moment (or for MAX_DELAY_MS at most) and then go out in a few calls from a
+// background thread. Files the scanner would not index are not queued at all.
+public class MediaScanQueue {
+    private static final String TAG = "AROMA";
+    private static final long QUIET_MS = 1000;
+    private static final long MAX_DELAY_MS = 10_000;
+    private static final int BATCH_SIZE = 500;
+
+    private final Context context;
+    private final ScheduledThreadPoolExecutor executor;
+    // A file written twice before the flush is scanned once
+    private final LinkedHashSet<String> pending = new LinkedHashSet<>();
+    private ScheduledFuture<?> scheduled;
+    private long firstQueuedAt;
+
+    public MediaScanQueue(Context context) {
+        this.context = context;
+        this.executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "aroma-media-scan");
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    public static boolean isMedia(String name) {
+        FileTypes.PreviewKind kind = FileTypes.forName(name).preview;
+        return kind == FileTypes.PreviewKind.IMAGE || kind == FileTypes.PreviewKind.VIDEO || kind == FileTypes.PreviewKind.AUDIO;
+    }
+
+    public void enqueue(File file) {
+        if (!isMedia(file.getName())) return;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (pending.isEmpty()) firstQueuedAt = now;
+            pending.add(file.getAbsolutePath());
+            if (scheduled != null) scheduled.cancel(false);
+            long delay = Math.min(QUIET_MS, Math.max(0, firstQueuedAt + MAX_DELAY_MS - now));
+            try {
+                scheduled = executor.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                // shut down: nothing left to scan for
+                pending.clear();
+            }
+        }
+    }
+
+    public synchronized int pending() {
+        return pending.size();
+    }
+
+    // Scans what is queued, then stops the thread.
+    public void shutdown() {
+        executor.shutdown();
+        flush();
+    }
+
+    private void flush() {
+        List<String> paths;
+        synchronized (this) {
+            paths = new ArrayList<>(pending);
+            pending.clear();
+            scheduled = null;
+        }
+        for (int i = 0; i < paths.size(); i += BATCH_SIZE) {
+            List<String> batch = paths.subList(i, Math.min(paths.size(), i + BATCH_SIZE));
+            MediaScannerConnection.scanFile(context, batch.toArray(new String[0]), null, null);
+        }
+        if (!paths.isEmpty()) {
+            Log.d(TAG, "Media scan requested for " + paths.size() + " files");
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.example.aroma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+// Pull parser for multipart/form-data. Part bodies are handed out as they arrive on the socket,
+// so a file part can go straight to its destination instead of through NanoHTTPD's temp files.
+// Never reads past Content-Length, which keeps the connection usable for the next request.
+public final class MultipartReader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_HEADER_BYTES = 8 * 1024;
+
+    public static final class Part {
+        public final String name;
+        public final String filename;
+        public final String contentType;
+
+        Part(String name, String filename, String contentType) {
+            this.name = name;
+            this.filename = filename;
+            this.contentType = contentType;
+        }
+
+        public boolean isFile() {
+            return filename != null;
+        }
+    }
+
+    private final InputStream in;
+    private final byte[] delimiter;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private long remaining;
+    private int pos;
+    private int limit;
+    // Whatever precedes the first delimiter (a preamble, if any) is skipped like the rest of a part
+    private boolean partEnded;
+    private boolean finished;
+
+    public MultipartReader(InputStream in, long contentLength, String boundary) {
+        this.in = in;
+        this.remaining = contentLength;
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+        // The first delimiter has no CRLF in front of it; pretend it does so every one looks the same
+        buffer[0] = '\r';
+        buffer[1] = '\n';
+        limit = 2;
+    }
+
+    // The boundary parameter of a multipart/form-data Content-Type, or null.
+    public static String boundary(String contentType) {
+        if (contentType == null || !contentType.toLowerCase(Locale.US).startsWith("multipart/form-data")) return null;
+        for (String param : contentType.split(";")) {
+            param = param.trim();
+            if (param.toLowerCase(Locale.US).startsWith("boundary=")) {
+                String value = param.substring("boundary=".length()).trim();
+                if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                return value.isEmpty() || value.length() > 70 ? null : value;
+            }
+        }
+        return null;
+    }
+
+    // Moves to the next part, skipping whatever is left of the current one. Null after the last.
+    public Part next() throws IOException {
+        if (finished) return null;
+        while (!partEnded) {
+            skip();
+        }
+        if (!fill(2)) throw new IOException("Truncated multipart body");
+        if (buffer[pos] == '-' && buffer[pos + 1] == '-') {
+            finished = true;
+            drain();
+            return null;
+        }
+        String headers = readHeaders();
+        String name = null;
+        String filename = null;
+        String contentType = null;
+        for (String line : headers.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon < 0) continue;
+            String key = line.substring(0, colon).trim().toLowerCase(Locale.US);
+            String value = line.substring(colon + 1).trim();
+            if (key.equals("content-disposition")) {
+                name = dispositionParam(value, "name");
+                filename = dispositionParam(value, "filename");
+            } else if (key.equals("content-type")) {
+                contentType = value;
+            }
+        }
+        partEnded = false;
+        return new Part(name, filename, contentType);
+    }
+
+    // Reads from the current part's body; -1 once the part is over.
+    public int read(byte[] b, int off, int len) throws IOException {
+        int available = available();
+        if (available < 0) return -1;
+        int n = Math.min(len, available);
+        System.arraycopy(buffer, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    // Writes the rest of the current part's body to out, straight from the read buffer.
+    public long transferTo(OutputStream out) throws IOException {
+        long total = 0;
+        int available;
+        while ((available = available()) >= 0) {
+            out.write(buffer, pos, available);
+            pos += available;
+            total += available;
+        }
+        return total;
+    }
+
+    // The current part's body as text, for small form fields.
+    public String readString(int maxBytes) throws IOException {
+        ByteArrayOutputStream value = new ByteArrayOutputStream();
+        int available;
+        while ((available = available()) >= 0) {
+            if (value.size() + available > maxBytes) throw new IOException("Form field too large");
+            value.write(buffer, pos, available);
+            pos += available;
+        }
+        return new String(value.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    // Bytes of the current part that can be consumed now; 0 never comes back, -1 ends the part.
+    private int available() throws IOException {
+        if (partEnded) return -1;
+        while (true) {
+            fill(delimiter.length);
+            int match = indexOfDelimiter();
+            if (match == pos) {
+                pos += delimiter.length;
+                partEnded = true;
+                return -1;
+            }
+            if (match > pos) return match - pos;
+            // Everything except a possible delimiter prefix at the end is body
+            int safe = limit - pos - (delimiter.length - 1);
+            if (safe > 0) return safe;
+            if (remaining <= 0) throw new IOException("Truncated multipart body");
+        }
+    }
+
+    private void skip() throws IOException {
+        int available = available();
+        if (available > 0) pos += available;
+    }
+
+    private int indexOfDelimiter() {
+        int last = limit - delimiter.length;
+        byte first = delimiter[0];
+        outer:
+        for (int i = pos; i <= last; i++) {
+            if (buffer[i] != first) continue;
+            for (int j = 1; j < delimiter.length; j++) {
+                if (buffer[i + j] != delimiter[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    // Reads until the blank line; the CRLF after the delimiter starts the header block.
+    private String readHeaders() throws IOException {
+        while (true) {
+            for (int i = pos; i + 3 < limit; i++) {
+                if (buffer[i] == '\r' && buffer[i + 1] == '\n' && buffer[i + 2] == '\r' && buffer[i + 3] == '\n') {
+                    String headers = new String(buffer, pos, i - pos, StandardCharsets.UTF_8);
+                    pos = i + 4;
+                    return headers;
+                }
+            }
+            if (limit - pos > MAX_HEADER_BYTES) throw new IOException("Multipart headers too large");
+            if (!fill(limit - pos + 1)) throw new IOException("Truncated multipart headers");
+        }
+    }
+
+    // Ensures at least min unread bytes are buffered, compacting first. False at end of input.
+    private boolean fill(int min) throws IOException {
+        if (limit - pos >= min) return true;
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        while (limit < min || (limit < buffer.length && remaining > 0 && in.available() > 0)) {
+            if (remaining <= 0) return false;
+            int read = in.read(buffer, limit, (int) Math.min(buffer.length - limit, remaining));
+            if (read < 0) {
+                remaining = 0;
+                return false;
+            }
+            limit += read;
+            remaining -= read;
+        }
+        return true;
+    }
+
+    // Consumes the epilogue so the connection can carry the next request.
+    private void drain() throws IOException {
+        pos = limit;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() < 0) break;
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    // A parameter of a Content-Disposition value; quoted values may contain ';'.
+    private static String dispositionParam(String disposition, String name) {
+        int i = disposition.indexOf(';');
+        while (i >= 0 && i < disposition.length()) {
+            int eq = disposition.indexOf('=', i);
+            if (eq < 0) return null;
+            String key = disposition.substring(i + 1, eq).trim();
+            int end;
+            String value;
+            if (eq + 1 < disposition.length() && disposition.charAt(eq + 1) == '"') {
+                StringBuilder sb = new StringBuilder();
+                end = eq + 2;
+                while (end < disposition.length() && disposition.charAt(end) != '"') {
+                    char c = disposition.charAt(end);
+                    if (c == '\\' && end + 1 < disposition.length()) c = disposition.charAt(++end);
+                    sb.append(c);
+                    end++;
+                }
+                // browsers send a literal quote inside a filename as %22
+                value = sb.toString().replace("%22", "\"");
+                end = disposition.indexOf(';', end);
+            } else {
+                end = disposition.indexOf(';', eq);
+                value = (end < 0 ? disposition.substring(eq + 1) : disposition.substring(eq + 1, end)).trim();
+            }
+            if (key.equalsIgnoreCase(name)) return value;
+            i = end;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.aroma;
+
+import android.os.Build;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+public final class PartFiles {
+    // keeps the temp name well inside the 255 byte limit even for long target names
+    private static final int MAX_PREFIX = 100;
+
+    private PartFiles() {
+    }
+
+    // A new, empty ".<name>.<random>.part" beside the target, so concurrent uploads to the same
+    // path each write their own file and the last one renamed in wins.
+    public static File create(File target) throws IOException {
+        String name = target.getName();
+        if (name.length() > MAX_PREFIX) name = name.substring(0, MAX_PREFIX);
+        return File.createTempFile("." + name + ".", ".part", target.getParentFile());
+    }
+
+    // Same volume, so this is a rename that replaces an existing target in one step. Files.move
+    // says so explicitly and reports why it failed; before API 26 renameTo (rename(2) on
+    // Android) is all there is.
+    public static void moveIntoPlace(File source, File target) throws IOException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return;
+        }
+        if (!source.renameTo(target)) {
+            throw new IOException("rename to " + target.getPath() + " failed");
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.aroma;
+
+public final class PathSegments {
+
+    private PathSegments() {
+    }
+
+    // True when a "/" or "\" separated segment is "..". Names that merely contain two dots,
+    // such as "a..b", are fine.
+    public static boolean climbs(String path) {
+        int start = 0;
+        int length = path.length();
+        for (int i = 0; i <= length; i++) {
+            if (i == length || path.charAt(i) == '/' || path.charAt(i) == '\\') {
+                if (i - start == 2 && path.charAt(start) == '.' && path.charAt(start + 1) == '.') return true;
+                start = i + 1;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.aroma;
+
+import fi.iki.elonen.NanoHTTPD.IHTTPSession;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+
+// Small request bodies (form posts, /api/exec commands) read into a reused buffer. NanoHTTPD's
+// parseBody sends anything over 1 KB through a temp file, so a delete of a few dozen selected
+// files would otherwise cost a file create, write, read and delete on flash.
+public final class PooledBody {
+    public static final int MAX_BYTES = 64 * 1024;
+    private static final ArrayBlockingQueue<byte[]> POOL = new ArrayBlockingQueue<>(4);
+
+    private PooledBody() {
+    }
+
+    // The body as UTF-8 text, or null when it has no Content-Length or is larger than MAX_BYTES
+    // and has to go through parseBody instead. Nothing is consumed in that case.
+    public static String read(IHTTPSession session) throws IOException {
+        String lengthHeader = session.getHeaders().get("content-length");
+        if (lengthHeader == null) return null;
+        int length;
+        try {
+            length = Integer.parseInt(lengthHeader.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (length < 0 || length > MAX_BYTES) return null;
+
+        byte[] buffer = POOL.poll();
+        if (buffer == null) buffer = new byte[MAX_BYTES];
+        try {
+            InputStream in = session.getInputStream();
+            int read = 0;
+            while (read < length) {
+                int n = in.read(buffer, read, length - read);
+                if (n < 0) throw new IOException("Request body ended early");
+                read += n;
+            }
+            return new String(buffer, 0, length, StandardCharsets.UTF_8);
+        } finally {
+            POOL.offer(buffer);
+        }
+    }
+}
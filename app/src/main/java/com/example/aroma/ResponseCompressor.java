@@ -0,0 +1,148 @@
+package com.example.aroma;
+
+import android.util.Log;
+
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoHTTPD.Response;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class ResponseCompressor {
+    private static final String TAG = "AROMA";
+    public static final int DEFAULT_LEVEL = 6;
+    public static final int DEFAULT_MIN_SIZE = 1024;
+
+    private final int level;
+    private final int minSize;
+
+    public ResponseCompressor(int level, int minSize) {
+        this.level = Math.max(Deflater.BEST_SPEED, Math.min(Deflater.BEST_COMPRESSION, level));
+        this.minSize = minSize;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    // Whatever FileTypes marks compressible; anything already entropy-coded (JPEG, video,
+    // archives, PDFs) or unregistered is left alone.
+    public static boolean isCompressible(String mimeType) {
+        if (mimeType == null) return false;
+        // event streams must reach the client as each event is flushed
+        if (mimeType.regionMatches(true, 0, "text/event-stream", 0, 17)) return false;
+        return FileTypes.forMimeType(mimeType).compressible;
+    }
+
+    // Picks gzip or deflate from Accept-Encoding honouring q-values; null means identity.
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) return null;
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.trim().split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.US);
+            double q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzip = q;
+            } else if (coding.equals("deflate")) {
+                deflate = q;
+            } else if (coding.equals("*")) {
+                any = q;
+            }
+        }
+        if (gzip < 0) gzip = any;
+        if (deflate < 0) deflate = any;
+        if (gzip > 0 && gzip >= deflate) return "gzip";
+        if (deflate > 0) return "deflate";
+        return null;
+    }
+
+    public Response apply(NanoHTTPD.IHTTPSession session, Response response) {
+        if (response == null || response.getStatus() != Response.Status.OK) return response;
+        if (response.getHeader("content-encoding") != null) return response;
+        if (!isCompressible(response.getMimeType())) return response;
+        response.addHeader("Vary", "Accept-Encoding");
+        // A Repr-Digest, sent up front or as a trailer, is taken over the file's own bytes, so
+        // the body must go out as they are for the digest to describe what the client gets.
+        if (response.getHeader("repr-digest") != null || response.getHeader("trailer") != null) return response;
+
+        String encoding = negotiate(session.getHeaders().get("accept-encoding"));
+        if (encoding == null) return response;
+
+        if (response instanceof StreamingResponse) {
+            StreamingResponse streaming = (StreamingResponse) response;
+            long length = streaming.getContentLength();
+            if (length >= 0 && length < minSize) return response;
+            streaming.setContentEncoding(encoding, level);
+            return response;
+        }
+
+        // Plain NanoHTTPD responses are built from in-memory strings; compress them in one go.
+        if (!(response.getData() instanceof ByteArrayInputStream)) return response;
+        ByteArrayInputStream data = (ByteArrayInputStream) response.getData();
+        if (data.available() < minSize) return response;
+        try {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.available() / 3);
+            try (OutputStream out = wrap(compressed, encoding, level)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = data.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            response.setData(new ByteArrayInputStream(compressed.toByteArray()));
+            // NanoHTTPD keeps the original length privately, so let it frame the body itself
+            response.setChunkedTransfer(true);
+            response.addHeader("Content-Encoding", encoding);
+            weakenETag(response);
+        } catch (IOException e) {
+            Log.e(TAG, "Compression failed: " + e.getMessage());
+        }
+        return response;
+    }
+
+    // A compressed body is not byte-identical to the file, so its validator must not be strong.
+    static void weakenETag(Response response) {
+        String etag = response.getHeader("etag");
+        if (etag != null && !etag.startsWith("W/")) {
+            response.addHeader("ETag", "W/" + etag);
+        }
+    }
+
+    // Sync-flushing, so flush() pushes out everything compressed so far: a page head flushed
+    // before slow work really reaches the client instead of waiting in the deflater.
+    static DeflaterOutputStream wrap(OutputStream out, String encoding, int level) throws IOException {
+        if ("gzip".equals(encoding)) {
+            return new GZIPOutputStream(out, 8192, true) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+        return new DeflaterOutputStream(out, new Deflater(level), 8192, true) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                def.end();
+            }
+        };
+    }
+}
@@ -122,6 +122,8 @@ public class ServerService extends Service {
 
         try {
             server = new WebServer(currentPort, rootDir, this, username, password);
+            server.setCompressionLevel(credentialsManager.getCompressionLevel());
+            server.setStorageReserve(credentialsManager.getStorageReserveMb() * 1024L * 1024);
             if (eventListener != null) {
                 server.setEventListener(eventListener);
             }
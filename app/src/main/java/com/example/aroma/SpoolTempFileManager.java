@@ -0,0 +1,110 @@
+package com.example.aroma;
+
+import android.util.Log;
+
+import fi.iki.elonen.NanoHTTPD;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// Where NanoHTTPD spools request bodies it cannot keep in memory. NanoHTTPD opens every temp
+// file by name, so this cannot hand out memory buffers; small bodies are read by PooledBody
+// before parseBody is ever called. Uploads stream to their targets and never come through
+// here, so nothing spooled is moved into the served root and the spool lives in the app's
+// private cache, out of sight of other apps and USB browsing. It only exists while a request
+// is using it.
+public class SpoolTempFileManager implements NanoHTTPD.TempFileManager {
+    private static final String TAG = "AROMA";
+    public static final String DIR_NAME = "spool";
+
+    private final File dir;
+    private final List<SpoolFile> files = new ArrayList<>();
+
+    public SpoolTempFileManager(File dir) {
+        this.dir = dir;
+    }
+
+    public static NanoHTTPD.TempFileManagerFactory factory(File dir) {
+        return () -> new SpoolTempFileManager(dir);
+    }
+
+    // Removes whatever a crashed or killed server left behind. Returns the number of files deleted.
+    public static int cleanOrphans(File dir) {
+        File[] orphans = dir.listFiles();
+        int deleted = 0;
+        if (orphans != null) {
+            for (File f : orphans) {
+                if (f.delete()) deleted++;
+            }
+        }
+        dir.delete();
+        if (deleted > 0) {
+            Log.d(TAG, "Removed " + deleted + " orphaned spool files");
+        }
+        return deleted;
+    }
+
+    @Override
+    public NanoHTTPD.TempFile createTempFile(String filenameHint) throws Exception {
+        File file;
+        try {
+            dir.mkdirs();
+            file = File.createTempFile("body-", ".tmp", dir);
+        } catch (IOException e) {
+            // another request's clear() may have removed the empty directory in between
+            dir.mkdirs();
+            file = File.createTempFile("body-", ".tmp", dir);
+        }
+        SpoolFile spool = new SpoolFile(file);
+        files.add(spool);
+        return spool;
+    }
+
+    @Override
+    public void clear() {
+        for (SpoolFile file : files) {
+            file.delete();
+        }
+        files.clear();
+        // fails while other requests still have files in it, which is fine
+        dir.delete();
+    }
+
+    private static final class SpoolFile implements NanoHTTPD.TempFile {
+        private final File file;
+        private OutputStream stream;
+
+        SpoolFile(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public OutputStream open() throws Exception {
+            stream = new FileOutputStream(file);
+            return stream;
+        }
+
+        @Override
+        public void delete() {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException ignored) {
+                }
+                stream = null;
+            }
+            if (file.exists() && !file.delete()) {
+                Log.w(TAG, "Cannot delete spool file " + file.getName());
+            }
+        }
+
+        @Override
+        public String getName() {
+            return file.getAbsolutePath();
+        }
+    }
+}
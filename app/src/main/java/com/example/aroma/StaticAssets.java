@@ -0,0 +1,124 @@
+package com.example.aroma;
+
+import android.content.Context;
+import android.util.Log;
+
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoHTTPD.Response;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The web UI's stylesheets and scripts, loaded once from assets/web and served under
+// content-hashed names so browsers can cache them forever.
+public class StaticAssets {
+    private static final String TAG = "AROMA";
+    public static final String PREFIX = "/static/";
+    private static final String ASSET_DIR = "web/";
+    private static final String[] NAMES = {
+            "listing.css", "listing.js", "terminal.css", "terminal.js", "preview.css", "preview.js"
+    };
+
+    private static class Asset {
+        final byte[] body;
+        final String mimeType;
+        final String etag;
+
+        Asset(byte[] body, String mimeType, String etag) {
+            this.body = body;
+            this.mimeType = mimeType;
+            this.etag = etag;
+        }
+    }
+
+    private final Map<String, Asset> byPath = new HashMap<>();
+    private final Map<String, String> urls = new HashMap<>();
+    private final Map<String, Integer> sizes = new HashMap<>();
+    private final AtomicLong bytesNotInlined = new AtomicLong();
+
+    public StaticAssets(Context context) {
+        for (String name : NAMES) {
+            try (InputStream in = context.getAssets().open(ASSET_DIR + name)) {
+                byte[] body = readFully(in);
+                String hash = sha256Hex(body).substring(0, 12);
+                int dot = name.lastIndexOf('.');
+                String url = PREFIX + name.substring(0, dot) + "." + hash + name.substring(dot);
+                String mimeType = name.endsWith(".css") ? "text/css" : "application/javascript";
+                byPath.put(url, new Asset(body, mimeType, "\"" + hash + "\""));
+                urls.put(name, url);
+                sizes.put(name, body.length);
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot load web asset " + name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public String url(String name) {
+        String url = urls.get(name);
+        return url != null ? url : PREFIX + name;
+    }
+
+    // What a page referencing these assets would have carried inline before; recorded per page view.
+    public long recordReferenced(String... names) {
+        long saved = 0;
+        for (String name : names) {
+            Integer size = sizes.get(name);
+            if (size != null) saved += size;
+        }
+        bytesNotInlined.addAndGet(saved);
+        return saved;
+    }
+
+    public long getBytesNotInlined() {
+        return bytesNotInlined.get();
+    }
+
+    public Response serve(NanoHTTPD.IHTTPSession session, String uri) {
+        Asset asset = byPath.get(uri);
+        if (asset == null) {
+            return NanoHTTPD.newFixedLengthResponse(Response.Status.NOT_FOUND, "text/plain", "Not found");
+        }
+        String ifNoneMatch = session.getHeaders().get("if-none-match");
+        Response response;
+        if (ifNoneMatch != null && ifNoneMatch.contains(asset.etag)) {
+            response = CacheValidators.notModified(asset.etag, 0);
+        } else {
+            response = NanoHTTPD.newFixedLengthResponse(Response.Status.OK, asset.mimeType,
+                    new ByteArrayInputStream(asset.body), asset.body.length);
+            response.addHeader("ETag", asset.etag);
+        }
+        // The URL changes whenever the content does; private because it sits behind Basic auth
+        response.addHeader("Cache-Control", "private, max-age=31536000, immutable");
+        return response;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    static String sha256Hex(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
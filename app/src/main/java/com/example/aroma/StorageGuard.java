@@ -0,0 +1,102 @@
+package com.example.aroma;
+
+import android.os.StatFs;
+import android.util.Log;
+
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoHTTPD.Response;
+
+import java.io.File;
+
+// Checks free space before an upload body is read, so an upload that cannot fit fails with 507
+// straight away instead of after the whole transfer. Space promised to uploads still being
+// written is counted as used, so concurrent uploads cannot each pass the check and together
+// overrun it. A reserve is always left for the rest of the device.
+public class StorageGuard {
+    private static final String TAG = "AROMA";
+    public static final long DEFAULT_RESERVE_BYTES = 256L * 1024 * 1024;
+
+    // NanoHTTPD's Status has no 507
+    public static final Response.IStatus INSUFFICIENT_STORAGE = new Response.IStatus() {
+        @Override
+        public String getDescription() {
+            return "507 Insufficient Storage";
+        }
+
+        @Override
+        public int getRequestStatus() {
+            return 507;
+        }
+    };
+
+    public final class Reservation implements AutoCloseable {
+        private long bytes;
+
+        Reservation(long bytes) {
+            this.bytes = bytes;
+        }
+
+        // Hands back space as it is written: the bytes now on disk show up in the free space.
+        public void consumed(long written) {
+            release(this, written);
+        }
+
+        @Override
+        public void close() {
+            release(this, Long.MAX_VALUE);
+        }
+    }
+
+    // Everything under the root is on the volume the root is on
+    private final File rootDir;
+    private volatile long reserveBytes = DEFAULT_RESERVE_BYTES;
+    private long reservedBytes;
+
+    public StorageGuard(File rootDir) {
+        this.rootDir = rootDir;
+    }
+
+    public void setReserveBytes(long reserveBytes) {
+        this.reserveBytes = Math.max(0, reserveBytes);
+    }
+
+    // Bytes an upload may still use: free space minus the reserve and what is promised already.
+    public synchronized long availableBytes() {
+        return Math.max(0, freeBytes() - reserveBytes - reservedBytes);
+    }
+
+    // Holds bytes of space until the reservation is closed, or returns null when they are not
+    // there. A body of unknown length (-1) is let through with nothing held.
+    public synchronized Reservation reserve(long bytes) {
+        if (bytes <= 0) return new Reservation(0);
+        if (bytes > availableBytes()) {
+            Log.w(TAG, "Refusing upload of " + bytes + " bytes, " + availableBytes() + " available");
+            return null;
+        }
+        reservedBytes += bytes;
+        return new Reservation(bytes);
+    }
+
+    public Response insufficient(long bytes) {
+        Response response = NanoHTTPD.newFixedLengthResponse(INSUFFICIENT_STORAGE, "application/json",
+                "{\"error\":\"Not enough free space on the device\",\"needed\":" + bytes + ",\"available\":" + availableBytes() + "}");
+        // the body was not read
+        response.addHeader("Connection", "close");
+        return response;
+    }
+
+    private synchronized void release(Reservation reservation, long bytes) {
+        long released = Math.min(Math.max(0, bytes), reservation.bytes);
+        reservation.bytes -= released;
+        reservedBytes -= released;
+    }
+
+    private long freeBytes() {
+        try {
+            return new StatFs(rootDir.getPath()).getAvailableBytes();
+        } catch (IllegalArgumentException e) {
+            // root not mounted or gone; let the write itself fail
+            return Long.MAX_VALUE / 2;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.example.aroma;
+
+import android.util.Log;
+
+import fi.iki.elonen.NanoHTTPD;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// NanoHTTPD's Response always streams its InputStream, even for HEAD, and prints Content-Length
+// twice when the header is set by hand. Subclasses write their own body and get a correct
+// header block: a fixed Content-Length when the length is known, chunked encoding otherwise.
+public abstract class StreamingResponse extends NanoHTTPD.Response {
+    private static final String TAG = "AROMA";
+    private static final ThreadLocal<SocketChannel> CLIENT_CHANNEL = new ThreadLocal<>();
+
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private final long contentLength;
+    private boolean keepAlive = true;
+    private SocketChannel directChannel;
+    private String contentEncoding;
+    private int compressionLevel;
+    private String trailerName;
+
+    protected StreamingResponse(IStatus status, String mimeType, long contentLength) {
+        super(status, mimeType, null, contentLength);
+        this.contentLength = contentLength;
+    }
+
+    protected abstract void writeBody(OutputStream out) throws IOException;
+
+    // NanoHTTPD runs each connection on its own thread, so the socket being served can be
+    // published per thread and picked up by send() without changing NanoHTTPD's signatures.
+    static void bindClientChannel(SocketChannel channel) {
+        if (channel != null) {
+            CLIENT_CHANNEL.set(channel);
+        } else {
+            CLIENT_CHANNEL.remove();
+        }
+    }
+
+    // Answers "Expect: 100-continue" so clients such as curl send the body right away instead of
+    // waiting about a second for a go-ahead NanoHTTPD never gives.
+    static void sendContinue(NanoHTTPD.IHTTPSession session) {
+        SocketChannel channel = CLIENT_CHANNEL.get();
+        if (channel == null || !"100-continue".equalsIgnoreCase(session.getHeaders().get("expect"))) return;
+        try {
+            ByteBuffer interim = ByteBuffer.wrap("HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            while (interim.hasRemaining()) {
+                channel.write(interim);
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "Cannot send 100 Continue: " + e.getMessage());
+        }
+    }
+
+    // The client's socket channel while writeBody() may write to it directly, i.e. the body is
+    // neither chunked nor otherwise transformed. Null when only the OutputStream can be used.
+    protected SocketChannel directChannel() {
+        return directChannel;
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    // Compresses the body on the fly while it is written; the length is then unknown, so the
+    // response switches to chunked transfer.
+    public void setContentEncoding(String encoding, int level) {
+        this.contentEncoding = encoding;
+        this.compressionLevel = level;
+        addHeader("Content-Encoding", encoding);
+        ResponseCompressor.weakenETag(this);
+    }
+
+    // Announces a header sent after the body, whose value trailer() supplies once the body is
+    // written. Trailers need chunked framing, so the response switches to it.
+    public void declareTrailer(String name) {
+        this.trailerName = name;
+        addHeader("Trailer", name);
+    }
+
+    // The declared trailer's value, or null to leave it out.
+    protected String trailer() {
+        return null;
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        super.addHeader(name, value);
+        headers.put(name, value);
+    }
+
+    @Override
+    public void setKeepAlive(boolean useKeepAlive) {
+        super.setKeepAlive(useKeepAlive);
+        this.keepAlive = useKeepAlive;
+    }
+
+    @Override
+    protected void send(OutputStream outputStream) {
+        boolean head = getRequestMethod() == NanoHTTPD.Method.HEAD;
+        boolean bodyless = getStatus() == Status.NOT_MODIFIED;
+        boolean chunked = contentLength < 0 || contentEncoding != null || trailerName != null;
+        StringBuilder sb = new StringBuilder(512);
+        sb.append("HTTP/1.1 ").append(getStatus().getDescription()).append(" \r\n");
+        if (getMimeType() != null) {
+            appendHeader(sb, "Content-Type", getMimeType());
+        }
+        if (getHeader("date") == null) {
+            appendHeader(sb, "Date", HttpDate.format(System.currentTimeMillis()));
+        }
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            appendHeader(sb, entry.getKey(), entry.getValue());
+        }
+        if (getHeader("connection") == null) {
+            appendHeader(sb, "Connection", keepAlive ? "keep-alive" : "close");
+        }
+        if (bodyless) {
+            // 304 carries neither a body nor framing headers
+        } else if (!chunked) {
+            appendHeader(sb, "Content-Length", String.valueOf(contentLength));
+        } else if (!head) {
+            appendHeader(sb, "Transfer-Encoding", "chunked");
+        }
+        sb.append("\r\n");
+        try {
+            outputStream.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            if (!head && !bodyless) {
+                if (chunked) {
+                    OutputStream body = new ChunkedOutputStream(outputStream);
+                    if (contentEncoding != null) {
+                        body = ResponseCompressor.wrap(body, contentEncoding, compressionLevel);
+                    }
+                    writeBody(body);
+                    // finishes compression and writes the last chunk; the socket stays open
+                    body.close();
+                    String trailer = trailerName != null ? trailer() : null;
+                    if (trailer != null) {
+                        outputStream.write((trailerName + ": " + trailer + "\r\n").getBytes(StandardCharsets.UTF_8));
+                    }
+                    outputStream.write('\r');
+                    outputStream.write('\n');
+                } else {
+                    directChannel = CLIENT_CHANNEL.get();
+                    writeBody(outputStream);
+                }
+            }
+            outputStream.flush();
+        } catch (IOException e) {
+            Log.d(TAG, "Response aborted: " + e.getMessage());
+        } finally {
+            directChannel = null;
+        }
+    }
+
+    private static void appendHeader(StringBuilder sb, String name, String value) {
+        sb.append(name).append(": ").append(value).append("\r\n");
+    }
+
+    static class ChunkedOutputStream extends FilterOutputStream {
+        private boolean finished;
+
+        ChunkedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+            out.write((Integer.toHexString(len) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(b, off, len);
+            out.write('\r');
+            out.write('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (finished) return;
+            finished = true;
+            // the trailer section and the closing CRLF follow in send()
+            out.write("0\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+}
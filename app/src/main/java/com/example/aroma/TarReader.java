@@ -0,0 +1,237 @@
+package com.example.aroma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+// Pull parser for a tar stream (ustar, with GNU long names and pax path/size records), so an
+// archive of many small files can be unpacked while it is still arriving. Never reads past
+// the length it is given, and reads the whole archive out to that length once it ends.
+public final class TarReader {
+    private static final int BLOCK = 512;
+    private static final int MAX_NAME_BYTES = 64 * 1024;
+
+    public static final char FILE = '0';
+    public static final char DIRECTORY = '5';
+
+    public static final class Entry {
+        public final String name;
+        public final char type;
+        public final long size;
+        public final long modified;
+
+        Entry(String name, char type, long size, long modified) {
+            this.name = name;
+            this.type = type;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    private final InputStream in;
+    private final byte[] header = new byte[BLOCK];
+    private final byte[] buffer = new byte[64 * 1024];
+    // -1 when the stream ends by itself, e.g. a chunked body
+    private long remaining;
+    private long entryRemaining;
+    private int padding;
+    private boolean finished;
+
+    public TarReader(InputStream in, long length) {
+        this.in = in;
+        this.remaining = length;
+    }
+
+    // Moves to the next entry, skipping whatever is left of the current one. Null at the end.
+    public Entry next() throws IOException {
+        if (finished) return null;
+        skipRest();
+        String longName = null;
+        long paxSize = -1;
+        while (true) {
+            if (!readBlock(header)) {
+                // a missing end-of-archive marker is tolerated, a cut-off header is not
+                finished = true;
+                return null;
+            }
+            if (isZeroBlock(header)) {
+                finished = true;
+                drain();
+                return null;
+            }
+            if (!checksumMatches(header)) throw new IOException("Corrupt tar header");
+            char type = (char) (header[156] == 0 ? FILE : header[156]);
+            long size = number(header, 124, 12);
+            if (size < 0) throw new IOException("Corrupt tar entry size");
+
+            if (type == 'L' || type == 'x' || type == 'g') {
+                if (size > MAX_NAME_BYTES) throw new IOException("Tar extension header too large");
+                byte[] data = readData((int) size);
+                if (type == 'L') {
+                    longName = cString(data, 0, data.length);
+                } else if (type == 'x') {
+                    String path = paxValue(data, "path");
+                    if (path != null) longName = path;
+                    String paxSizeValue = paxValue(data, "size");
+                    if (paxSizeValue != null) paxSize = parseLong(paxSizeValue);
+                }
+                continue;
+            }
+
+            if (paxSize >= 0) size = paxSize;
+            String name = longName;
+            if (name == null) {
+                name = cString(header, 0, 100);
+                // ustar splits long names into prefix and name
+                if (header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a' && header[261] == 'r' && header[345] != 0) {
+                    name = cString(header, 345, 155) + "/" + name;
+                }
+            }
+            if (type == '1' || type == '2' || type == '3' || type == '4' || type == '6') {
+                // links and devices carry no data
+                size = 0;
+            }
+            entryRemaining = size;
+            padding = (int) ((BLOCK - size % BLOCK) % BLOCK);
+            if (name.endsWith("/") && type == FILE) type = DIRECTORY;
+            return new Entry(name, type, size, number(header, 136, 12) * 1000);
+        }
+    }
+
+    // Reads the current entry's data. Returns -1 at its end.
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (entryRemaining == 0) return -1;
+        int n = readRaw(b, off, (int) Math.min(len, entryRemaining));
+        if (n < 0) throw new IOException("Tar entry cut off");
+        entryRemaining -= n;
+        return n;
+    }
+
+    // Copies the current entry to out and returns its size.
+    public long transferTo(OutputStream out) throws IOException {
+        long total = 0;
+        int n;
+        while ((n = read(buffer, 0, buffer.length)) > 0) {
+            out.write(buffer, 0, n);
+            total += n;
+        }
+        return total;
+    }
+
+    private void skipRest() throws IOException {
+        while (entryRemaining > 0) {
+            read(buffer, 0, buffer.length);
+        }
+        while (padding > 0) {
+            int n = readRaw(buffer, 0, padding);
+            if (n < 0) throw new IOException("Tar entry cut off");
+            padding -= n;
+        }
+    }
+
+    private byte[] readData(int size) throws IOException {
+        entryRemaining = size;
+        padding = (BLOCK - size % BLOCK) % BLOCK;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        transferTo(out);
+        skipRest();
+        return out.toByteArray();
+    }
+
+    // False at a clean end of stream before the block.
+    private boolean readBlock(byte[] block) throws IOException {
+        int read = 0;
+        while (read < BLOCK) {
+            int n = readRaw(block, read, BLOCK - read);
+            if (n < 0) {
+                if (read == 0) return false;
+                throw new IOException("Tar header cut off");
+            }
+            read += n;
+        }
+        return true;
+    }
+
+    private int readRaw(byte[] b, int off, int len) throws IOException {
+        if (remaining == 0) return -1;
+        if (remaining > 0) len = (int) Math.min(len, remaining);
+        int n = in.read(b, off, len);
+        if (n > 0 && remaining > 0) remaining -= n;
+        return n;
+    }
+
+    // The rest of the body (the second zero block and any record padding)
+    private void drain() throws IOException {
+        while (readRaw(buffer, 0, buffer.length) >= 0) {
+        }
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) return false;
+        }
+        return true;
+    }
+
+    private static boolean checksumMatches(byte[] block) {
+        long sum = 0;
+        for (int i = 0; i < BLOCK; i++) {
+            sum += (i >= 148 && i < 156) ? ' ' : block[i] & 0xff;
+        }
+        return sum == number(block, 148, 8);
+    }
+
+    // Octal, or GNU base-256 for sizes past 8 GB
+    private static long number(byte[] block, int off, int len) {
+        if ((block[off] & 0x80) != 0) {
+            long value = block[off] & 0x7f;
+            for (int i = 1; i < len; i++) {
+                value = (value << 8) | (block[off + i] & 0xff);
+            }
+            return value;
+        }
+        long value = 0;
+        for (int i = off; i < off + len; i++) {
+            byte b = block[i];
+            if (b == 0) break;
+            if (b == ' ') {
+                if (value != 0) break;
+                continue;
+            }
+            if (b < '0' || b > '7') return -1;
+            value = value * 8 + (b - '0');
+        }
+        return value;
+    }
+
+    private static String cString(byte[] bytes, int off, int len) {
+        int end = off;
+        while (end < off + len && bytes[end] != 0) end++;
+        return new String(bytes, off, end - off, StandardCharsets.UTF_8);
+    }
+
+    // Records are "<length> <key>=<value>\n"
+    private static String paxValue(byte[] data, String key) {
+        int pos = 0;
+        while (pos < data.length) {
+            int space = pos;
+            while (space < data.length && data[space] != ' ') space++;
+            long length = parseLong(new String(data, pos, space - pos, StandardCharsets.US_ASCII));
+            if (length <= 0 || pos + length > data.length) return null;
+            String record = new String(data, space + 1, (int) (pos + length - space - 2), StandardCharsets.UTF_8);
+            if (record.startsWith(key + "=")) return record.substring(key.length() + 1);
+            pos += (int) length;
+        }
+        return null;
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
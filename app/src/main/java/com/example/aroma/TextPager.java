@@ -0,0 +1,172 @@
+package com.example.aroma;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+// Reads one window of a text file at a time, so the first screen of a multi-gigabyte log costs
+// a single 64 KB read. Pages start after a line break and end on one whenever the window
+// contains any, and are decoded with the file's charset (BOM, then UTF-8, then Latin-1).
+public final class TextPager {
+    public static final int PAGE_BYTES = 64 * 1024;
+    private static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+    private static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+
+    public static final class Page {
+        public final String text;
+        public final long start;
+        public final long end;
+        public final long fileSize;
+        public final Charset charset;
+        private final long firstOffset;
+
+        Page(String text, long start, long end, long fileSize, Charset charset, long firstOffset) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+            this.fileSize = fileSize;
+            this.charset = charset;
+            this.firstOffset = firstOffset;
+        }
+
+        public boolean hasPrevious() {
+            return start > firstOffset;
+        }
+
+        public boolean hasNext() {
+            return end < fileSize;
+        }
+
+        // Where to ask for the page before this one; reading from there realigns to a line start
+        public long previousOffset() {
+            return Math.max(0, start - PAGE_BYTES);
+        }
+    }
+
+    private TextPager() {
+    }
+
+    // charset may be null to detect it from the start of the file.
+    public static Page read(File file, long offset, Charset charset) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+
+            // A whole page is sampled only when the charset has to be guessed; otherwise the BOM is enough
+            ByteBuffer head = ByteBuffer.allocate((int) Math.min(size, charset == null ? PAGE_BYTES : 4));
+            readFully(channel, head, 0);
+            if (charset == null) {
+                charset = detect(head);
+            }
+            int unit = UTF_16BE.equals(charset) || UTF_16LE.equals(charset) ? 2 : 1;
+            long bom = bomLength(charset, head);
+
+            long start = Math.max(bom, Math.min(offset, size));
+            start -= (start - bom) % unit;
+            ByteBuffer window;
+            if (start == 0 && head.limit() == Math.min(size, PAGE_BYTES)) {
+                // the sample already is the first page
+                window = head;
+            } else {
+                window = ByteBuffer.allocate((int) Math.min(size - start, PAGE_BYTES));
+                readFully(channel, window, start);
+            }
+
+            // Start after the first line break unless we are at the top of the file
+            int from = 0;
+            if (start > bom) {
+                int newline = indexOfNewline(window, 0, charset, unit);
+                if (newline >= 0) from = newline + unit;
+            }
+            // End on the last line break in the window, unless this is the end of the file
+            int to = window.limit();
+            if (start + window.limit() < size) {
+                int newline = lastIndexOfNewline(window, from, charset, unit);
+                if (newline >= from) to = newline + unit;
+            }
+
+            window.position(from).limit(to);
+            CharsetDecoder decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            CharBuffer chars = CharBuffer.allocate(to - from + 1);
+            // Not end of input: a multi-byte character cut by the window edge stays unread
+            decoder.decode(window, chars, start + to >= size);
+            chars.flip();
+            long end = start + window.position();
+            return new Page(chars.toString(), start + from, end, size, charset, bom);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) break;
+        }
+        buffer.flip();
+    }
+
+    private static Charset detect(ByteBuffer head) {
+        if (startsWith(head, 0xEF, 0xBB, 0xBF)) return StandardCharsets.UTF_8;
+        if (startsWith(head, 0xFE, 0xFF)) return UTF_16BE;
+        if (startsWith(head, 0xFF, 0xFE)) return UTF_16LE;
+        try {
+            CharsetDecoder strict = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT);
+            // A sequence cut at the end of the sample is not an error, so leave the last 3 bytes out
+            ByteBuffer sample = head.duplicate();
+            if (sample.limit() == PAGE_BYTES) sample.limit(PAGE_BYTES - 3);
+            strict.decode(sample);
+            return StandardCharsets.UTF_8;
+        } catch (CharacterCodingException e) {
+            return StandardCharsets.ISO_8859_1;
+        }
+    }
+
+    private static long bomLength(Charset charset, ByteBuffer head) {
+        if (StandardCharsets.UTF_8.equals(charset) && startsWith(head, 0xEF, 0xBB, 0xBF)) return 3;
+        if (UTF_16BE.equals(charset) && startsWith(head, 0xFE, 0xFF)) return 2;
+        if (UTF_16LE.equals(charset) && startsWith(head, 0xFF, 0xFE)) return 2;
+        return 0;
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int... bytes) {
+        if (buffer.limit() < bytes.length) return false;
+        for (int i = 0; i < bytes.length; i++) {
+            if ((buffer.get(i) & 0xff) != bytes[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean isNewline(ByteBuffer buffer, int i, Charset charset, int unit) {
+        if (unit == 1) return buffer.get(i) == '\n';
+        return UTF_16BE.equals(charset)
+                ? buffer.get(i) == 0 && buffer.get(i + 1) == '\n'
+                : buffer.get(i) == '\n' && buffer.get(i + 1) == 0;
+    }
+
+    private static int indexOfNewline(ByteBuffer buffer, int from, Charset charset, int unit) {
+        for (int i = from; i + unit <= buffer.limit(); i += unit) {
+            if (isNewline(buffer, i, charset, unit)) return i;
+        }
+        return -1;
+    }
+
+    private static int lastIndexOfNewline(ByteBuffer buffer, int from, Charset charset, int unit) {
+        int last = buffer.limit() - unit;
+        last -= (last - from) % unit;
+        for (int i = last; i >= from; i -= unit) {
+            if (isNewline(buffer, i, charset, unit)) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,269 @@
+package com.example.aroma;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.media.ThumbnailUtils;
+import android.os.Build;
+import android.util.Log;
+import android.util.Size;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Downscaled previews for images (and videos on API 29+), generated on a small worker pool and
+// kept in an LRU disk cache. Entries are keyed on the source path, its mtime and the requested
+// size, so an edited file simply misses and its old thumbnail ages out.
+public class ThumbnailService {
+    private static final String TAG = "AROMA";
+    public static final int[] SIZES = {128, 256, 512};
+    public static final long DEFAULT_MAX_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final int WORKERS = 2;
+    private static final int MAX_QUEUED = 32;
+    private static final long WAIT_SECONDS = 30;
+    private static final int QUALITY = 80;
+
+    // Thrown when the worker queue is full; the caller should ask the client to retry later.
+    public static class BusyException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        BusyException() {
+            super("Thumbnail queue is full");
+        }
+    }
+
+    private final File cacheDir;
+    private final long maxCacheBytes;
+    private final AtomicLong cacheBytes = new AtomicLong();
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentHashMap<String, Future<File>> inFlight = new ConcurrentHashMap<>();
+
+    public ThumbnailService(File cacheDir, long maxCacheBytes) {
+        this.cacheDir = cacheDir;
+        this.maxCacheBytes = maxCacheBytes;
+        this.executor = new ThreadPoolExecutor(WORKERS, WORKERS, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_QUEUED), r -> {
+                    Thread t = new Thread(r, "aroma-thumbnail");
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            Log.e(TAG, "Cannot create thumbnail cache " + cacheDir.getAbsolutePath());
+        }
+        File[] cached = cacheDir.listFiles();
+        if (cached != null) {
+            for (File f : cached) {
+                if (f.getName().endsWith(".tmp")) {
+                    f.delete();
+                } else {
+                    cacheBytes.addAndGet(f.length());
+                }
+            }
+        }
+    }
+
+    // Whatever FileTypes previews as an image or video, except SVG: BitmapFactory cannot draw
+    // vectors, and the browser scales those itself.
+    public static boolean canThumbnail(String name) {
+        FileTypes.Type type = FileTypes.forName(name);
+        if (type.preview == FileTypes.PreviewKind.IMAGE) return !type.mimeType.equals("image/svg+xml");
+        return type.preview == FileTypes.PreviewKind.VIDEO && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+    }
+
+    public static boolean isValidSize(int size) {
+        for (int s : SIZES) {
+            if (s == size) return true;
+        }
+        return false;
+    }
+
+    public static String mimeType() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R ? "image/webp" : "image/jpeg";
+    }
+
+    // The cached thumbnail for source at the given edge length, generating it if needed.
+    // Blocks the request thread until a worker has produced it.
+    public File get(File source, int size) throws IOException {
+        String key = StaticAssets.sha256Hex((source.getAbsolutePath() + "\n" + source.lastModified() + "\n" + size)
+                .getBytes(StandardCharsets.UTF_8)).substring(0, 32);
+        File cached = new File(cacheDir, key + (mimeType().equals("image/webp") ? ".webp" : ".jpg"));
+        if (cached.isFile()) {
+            // mtime doubles as the LRU access time
+            cached.setLastModified(System.currentTimeMillis());
+            return cached;
+        }
+        FutureTask<File> task = new FutureTask<>(() -> generate(source, size, cached));
+        Future<File> existing = inFlight.putIfAbsent(key, task);
+        Future<File> pending = existing != null ? existing : task;
+        if (existing == null) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                inFlight.remove(key);
+                throw new BusyException();
+            }
+        }
+        try {
+            return pending.get(WAIT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (TimeoutException e) {
+            throw new IOException("Thumbnail generation timed out");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } finally {
+            if (existing == null) inFlight.remove(key);
+        }
+    }
+
+    public long getCacheBytes() {
+        return cacheBytes.get();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private File generate(File source, int size, File target) throws IOException {
+        long start = System.currentTimeMillis();
+        Bitmap bitmap = FileTypes.forName(source.getName()).preview == FileTypes.PreviewKind.IMAGE ? decodeImage(source, size) : decodeVideo(source, size);
+        if (bitmap == null) {
+            throw new IOException("Cannot decode " + source.getName());
+        }
+        File temp = new File(cacheDir, target.getName() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            Bitmap.CompressFormat format = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                    ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.JPEG;
+            if (!bitmap.compress(format, QUALITY, out)) {
+                throw new IOException("Cannot encode thumbnail");
+            }
+        } finally {
+            bitmap.recycle();
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Cannot store thumbnail");
+        }
+        cacheBytes.addAndGet(target.length());
+        Log.d(TAG, "Thumbnail " + source.getName() + " @" + size + ": " + target.length() + " bytes in "
+                + (System.currentTimeMillis() - start) + " ms");
+        trimCache();
+        return target;
+    }
+
+    private static Bitmap decodeImage(File source, int size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        // Largest power of two that still leaves the short edge at least the requested size
+        int sample = 1;
+        while (Math.min(options.outWidth, options.outHeight) / (sample * 2) >= size) {
+            sample *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sample;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap decoded = BitmapFactory.decodeFile(source.getPath(), options);
+        if (decoded == null) return null;
+        return scale(decoded, size, exifRotation(source));
+    }
+
+    private static Bitmap decodeVideo(File source, int size) throws IOException {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) return null;
+        return ThumbnailUtils.createVideoThumbnail(source, new Size(size, size), null);
+    }
+
+    // Fits the bitmap inside size x size and applies the camera's EXIF rotation.
+    private static Bitmap scale(Bitmap bitmap, int size, int rotation) {
+        float factor = Math.min(1f, (float) size / Math.max(bitmap.getWidth(), bitmap.getHeight()));
+        if (factor == 1f && rotation == 0) return bitmap;
+        Matrix matrix = new Matrix();
+        matrix.postScale(factor, factor);
+        matrix.postRotate(rotation);
+        Bitmap scaled = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (scaled != bitmap) bitmap.recycle();
+        return scaled;
+    }
+
+    private static int exifRotation(File source) {
+        String ext = FileTypes.extension(source.getName());
+        if (!ext.equals("jpg") && !ext.equals("jpeg")) return 0;
+        try {
+            int orientation = new ExifInterface(source.getPath())
+                    .getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            switch (orientation) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                    return 270;
+                default:
+                    return 0;
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // Evicts least recently used thumbnails until the cache is back under its budget.
+    private synchronized void trimCache() {
+        if (cacheBytes.get() <= maxCacheBytes) return;
+        File[] files = cacheDir.listFiles();
+        if (files == null) return;
+        List<CachedFile> entries = new ArrayList<>(files.length);
+        long total = 0;
+        for (File f : files) {
+            if (f.getName().endsWith(".tmp")) continue;
+            CachedFile entry = new CachedFile(f);
+            entries.add(entry);
+            total += entry.length;
+        }
+        Collections.sort(entries, (a, b) -> Long.compare(a.lastUsed, b.lastUsed));
+        int evicted = 0;
+        // stop at 90% so the next few inserts do not trigger another scan
+        for (CachedFile entry : entries) {
+            if (total <= maxCacheBytes * 9 / 10) break;
+            if (entry.file.delete()) {
+                total -= entry.length;
+                evicted++;
+            }
+        }
+        cacheBytes.set(total);
+        Log.d(TAG, "Thumbnail cache trimmed: " + evicted + " evicted, " + total + " bytes kept");
+    }
+
+    private static final class CachedFile {
+        final File file;
+        final long length;
+        final long lastUsed;
+
+        CachedFile(File file) {
+            this.file = file;
+            this.length = file.length();
+            this.lastUsed = file.lastModified();
+        }
+    }
+}
@@ -0,0 +1,642 @@
+package com.example.aroma;
+
+import android.util.Log;
+
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoHTTPD.IHTTPSession;
+import fi.iki.elonen.NanoHTTPD.Method;
+import fi.iki.elonen.NanoHTTPD.Response;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Checksum;
+
+// Resumable uploads in chunks that may arrive in any order and over several connections:
+//   POST   /api/upload?path=&size=&key=&overwrite=1  open (or reopen) a session
+//   PUT    /api/upload/<id>?offset=N                 write one chunk at its offset
+//   HEAD   /api/upload/<id>                          Upload-Received: ranges already stored
+//   GET    /api/upload/<id>                          the same as JSON
+//   POST   /api/upload/<id>                          finish: move the file into place, with its digest;
+//                                                    repeating it gives the same answer
+//   DELETE /api/upload/<id>                          abandon
+// Sessions live on disk inside the served root, so a restart or a dropped link loses nothing
+// and the finished file is renamed, not copied, to its destination. The id is derived from
+// path, size and the client's key, so opening the same file again finds its session.
+public class UploadApi {
+    private static final String TAG = "AROMA";
+    public static final String DIR_NAME = ".aroma-uploads";
+    public static final String PREFIX = "/api/upload";
+    public static final int CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int MAX_CHUNK_SIZE = 64 * 1024 * 1024;
+    private static final long EXPIRY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final int MAX_FINISHED = 64;
+
+    public interface Listener {
+        void onUploadFinished(File target, IHTTPSession session);
+    }
+
+    private final File rootDir;
+    private final File sessionDir;
+    private final UploadThrottle throttle;
+    private final StorageGuard storage;
+    private final HashIndex index;
+    private final Listener listener;
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    // id -> {path, JSON, Repr-Digest} of recently finished sessions, so a finish whose answer
+    // was lost on the way gets the same answer again instead of a 404
+    private final Map<String, String[]> finished = new LinkedHashMap<String, String[]>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+            return size() > MAX_FINISHED;
+        }
+    };
+    private final SecureRandom random = new SecureRandom();
+
+    public UploadApi(File rootDir, UploadThrottle throttle, StorageGuard storage, HashIndex index, Listener listener) {
+        this.rootDir = rootDir;
+        this.sessionDir = new File(rootDir, DIR_NAME);
+        DirectoryScanner.hide(sessionDir);
+        this.throttle = throttle;
+        this.storage = storage;
+        this.index = index;
+        this.listener = listener;
+        loadSessions();
+    }
+
+    public Response serve(IHTTPSession session) {
+        String uri = session.getUri();
+        Method method = session.getMethod();
+        if (uri.equals(PREFIX) || uri.equals(PREFIX + "/")) {
+            return method == Method.POST ? open(session) : error(Response.Status.METHOD_NOT_ALLOWED, "Use POST to open an upload");
+        }
+        String id = uri.substring(PREFIX.length() + 1);
+        Session upload = sessions.get(id);
+        if (upload == null) {
+            String[] result = finishedResult(id);
+            if (result != null && method == Method.POST) return finishedResponse(result);
+            return error(Response.Status.NOT_FOUND, "No such upload");
+        }
+        switch (method) {
+            case PUT:
+                return writeChunk(session, upload);
+            case HEAD:
+            case GET:
+                return status(upload, Response.Status.OK);
+            case POST:
+                return finish(session, upload);
+            case DELETE:
+                discard(upload);
+                return NanoHTTPD.newFixedLengthResponse(Response.Status.NO_CONTENT, "application/json", "");
+            default:
+                return error(Response.Status.METHOD_NOT_ALLOWED, "Method not allowed");
+        }
+    }
+
+    private Response open(IHTTPSession session) {
+        Map<String, List<String>> params = session.getParameters();
+        String path = param(params, "path");
+        long size = parseLong(param(params, "size"));
+        String key = param(params, "key");
+        boolean overwrite = "1".equals(param(params, "overwrite")) || "true".equals(param(params, "overwrite"));
+        if (path == null || size < 0) {
+            return error(Response.Status.BAD_REQUEST, "path and size are required");
+        }
+        File target = resolve(path);
+        if (target == null) {
+            return error(Response.Status.BAD_REQUEST, "Invalid path");
+        }
+        if (target.exists() && (!overwrite || target.isDirectory())) {
+            return error(Response.Status.CONFLICT, "A file or folder with that name already exists");
+        }
+
+        String id = key != null
+                ? StaticAssets.sha256Hex((path + "\n" + size + "\n" + key).getBytes(StandardCharsets.UTF_8)).substring(0, 32)
+                : randomId();
+        Session existing = sessions.get(id);
+        if (existing != null) {
+            return status(existing, Response.Status.OK);
+        }
+        expireSessions();
+        // Space for the whole file is held while the session lives, so sessions opened side by
+        // side cannot each pass this check and then run out halfway through.
+        StorageGuard.Reservation space = storage.reserve(size);
+        if (space == null) {
+            return storage.insufficient(size);
+        }
+        if (!sessionDir.isDirectory() && !sessionDir.mkdirs()) {
+            space.close();
+            return error(Response.Status.INTERNAL_ERROR, "Cannot create upload directory");
+        }
+        Session created = new Session(sessionDir, id, path, size, overwrite);
+        created.space = space;
+        try {
+            new FileOutputStream(created.dataFile()).close();
+            created.save();
+        } catch (IOException e) {
+            created.delete();
+            return error(Response.Status.INTERNAL_ERROR, "Cannot create upload: " + e.getMessage());
+        }
+        Session raced = sessions.putIfAbsent(id, created);
+        if (raced != null) space.close();
+        Log.d(TAG, "Upload session " + id + " opened for " + path + " (" + size + " bytes)");
+        return status(raced != null ? raced : created, Response.Status.CREATED);
+    }
+
+    private Response writeChunk(IHTTPSession session, Session upload) {
+        long offset = parseLong(param(session.getParameters(), "offset"));
+        String lengthHeader = session.getHeaders().get("content-length");
+        long length = lengthHeader != null ? parseLong(lengthHeader.trim()) : -1;
+        if (length < 0) {
+            Response response = error(Response.Status.LENGTH_REQUIRED, "Content-Length required");
+            response.addHeader("Connection", "close");
+            return response;
+        }
+        if (offset < 0 || length > MAX_CHUNK_SIZE || offset + length > upload.size) {
+            Response response = error(Response.Status.RANGE_NOT_SATISFIABLE, "Chunk outside the file or too large");
+            // the body was not read
+            response.addHeader("Connection", "close");
+            return response;
+        }
+
+        // only a session resumed after a restart without room for all of it reserves per chunk
+        StorageGuard.Reservation space = upload.space == null ? storage.reserve(length) : null;
+        if (upload.space == null && space == null) {
+            return storage.insufficient(length);
+        }
+        UploadThrottle.Ticket ticket = throttle.tryAcquire(length);
+        if (ticket == null) {
+            if (space != null) space.close();
+            return throttle.busy();
+        }
+        StreamingResponse.sendContinue(session);
+        String contentDigest = session.getHeaders().get("content-digest");
+        ContentDigest digest = ContentDigest.forUpload(session);
+        PieceCrcs pieces = new PieceCrcs(offset, upload.crcCuts(offset, offset + length));
+        long written = 0;
+        IOException failure = null;
+        boolean mismatch = false;
+        try (space; ticket;
+             RandomAccessFile raf = new RandomAccessFile(upload.dataFile(), "rw")) {
+            FileChannel channel = raf.getChannel();
+            InputStream in = session.getInputStream();
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            try {
+                while (written < length) {
+                    int read = in.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), length - written));
+                    if (read < 0) throw new IOException("Connection closed after " + written + " of " + length + " bytes");
+                    buffer.clear().limit(read);
+                    long start = System.nanoTime();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer, offset + written + buffer.position());
+                    }
+                    ticket.wrote(read, System.nanoTime() - start);
+                    digest.update(buffer.array(), 0, read);
+                    pieces.update(buffer.array(), read);
+                    written += read;
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            // Whatever arrived is kept, so a chunk cut off by a bad link only resends its tail.
+            // Not when the client sent a Content-Digest, though: a part of the chunk cannot be checked.
+            mismatch = failure == null && !digest.matches(contentDigest);
+            if (written > 0 && !mismatch && (failure == null || contentDigest == null)) {
+                channel.force(false);
+                long added = upload.add(offset, offset + written);
+                if (upload.space != null) upload.space.consumed(added);
+                for (long[] piece : pieces.finish()) {
+                    upload.addCrc(piece[0], piece[1], piece[2]);
+                }
+                upload.save();
+            }
+        } catch (IOException e) {
+            if (failure == null) failure = e;
+        }
+        if (failure != null) {
+            Log.w(TAG, "Upload " + upload.id + ": chunk at " + offset + " failed: " + failure.getMessage());
+            Response response = error(Response.Status.BAD_REQUEST, "Chunk at " + offset + " failed: " + failure.getMessage());
+            response.addHeader("Connection", "close");
+            return response;
+        }
+        if (mismatch) {
+            Log.w(TAG, "Upload " + upload.id + ": chunk at " + offset + " does not match its Content-Digest");
+            Response response = error(Response.Status.BAD_REQUEST, "Content-Digest does not match the received chunk");
+            response.addHeader("Upload-Chunk-Digest", digest.header());
+            return response;
+        }
+        Response response = status(upload, Response.Status.OK);
+        // the digest of this chunk's body, for clients that check instead of sending Content-Digest
+        response.addHeader("Upload-Chunk-Digest", digest.header());
+        return response;
+    }
+
+    private Response finish(IHTTPSession session, Session upload) {
+        synchronized (upload) {
+            if (!sessions.containsKey(upload.id)) {
+                // a retry that waited for the first attempt to finish
+                String[] result = finishedResult(upload.id);
+                return result != null ? finishedResponse(result) : error(Response.Status.NOT_FOUND, "No such upload");
+            }
+            if (upload.received() < upload.size) {
+                return status(upload, Response.Status.CONFLICT);
+            }
+            File target = resolve(upload.path);
+            if (target == null) {
+                return error(Response.Status.BAD_REQUEST, "Invalid path");
+            }
+            if (target.exists() && (!upload.overwrite || target.isDirectory())) {
+                return error(Response.Status.CONFLICT, "A file or folder with that name already exists");
+            }
+            File parent = target.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                return error(Response.Status.INTERNAL_ERROR, "Cannot create directory");
+            }
+            // The file goes into place first: anything slow after that cannot make a retry
+            // start over.
+            try {
+                PartFiles.moveIntoPlace(upload.dataFile(), target);
+            } catch (IOException e) {
+                // the session and its data are untouched, so finishing can simply be retried
+                Log.w(TAG, "Upload " + upload.id + ": cannot move into place: " + e);
+                return error(Response.Status.INTERNAL_ERROR, "Cannot move upload into place: " + e.getMessage());
+            }
+            // The CRC32C comes from the chunks' own, taken as they streamed in. The file is only
+            // read again for a SHA-256 the client asked for, or when the pieces leave a gap.
+            boolean sha256 = ContentDigest.wantsSha256(session);
+            long crc = upload.crc32c();
+            ContentDigest digest = crc >= 0 ? ContentDigest.withCrc32c(crc, sha256) : new ContentDigest(sha256);
+            if (crc < 0 || sha256) {
+                long start = System.currentTimeMillis();
+                try {
+                    digest.update(target);
+                    Log.d(TAG, "Upload " + upload.id + ": read back for its digest in " + (System.currentTimeMillis() - start) + " ms"
+                            + (crc < 0 ? ", chunk CRCs incomplete" : ""));
+                } catch (IOException e) {
+                    // the file is in place all the same; it is only reported without the digest
+                    Log.w(TAG, "Upload " + upload.id + ": cannot read back for its digest: " + e);
+                    digest = crc >= 0 ? ContentDigest.withCrc32c(crc, false) : null;
+                }
+            }
+            String[] result = {upload.path,
+                    "{\"path\":" + Json.quote(upload.path) + ",\"size\":" + target.length() + (digest != null ? digest.jsonFields() : "") + "}",
+                    digest != null ? digest.header() : null};
+            synchronized (finished) {
+                finished.put(upload.id, result);
+            }
+            sessions.remove(upload.id);
+            upload.delete();
+            // only succeeds once no other session is left
+            sessionDir.delete();
+            Log.d(TAG, "Upload session " + upload.id + " finished: " + upload.path);
+            if (digest != null && digest.sha256Hex() != null) {
+                index.record(target, digest.sha256Hex());
+            }
+            listener.onUploadFinished(target, session);
+            return finishedResponse(result);
+        }
+    }
+
+    private String[] finishedResult(String id) {
+        synchronized (finished) {
+            return finished.get(id);
+        }
+    }
+
+    private static Response finishedResponse(String[] result) {
+        Response response = NanoHTTPD.newFixedLengthResponse(Response.Status.CREATED, "application/json", result[1]);
+        // describes the file now stored at Content-Location, not this JSON
+        response.addHeader("Content-Location", result[0]);
+        if (result[2] != null) response.addHeader("Repr-Digest", result[2]);
+        return response;
+    }
+
+    // CRC32Cs of the pieces a chunk splits into at the edges of pieces already recorded, so each
+    // piece either matches a recorded one exactly or covers bytes that have none yet.
+    private static final class PieceCrcs {
+        private final long[] cuts;
+        private final List<long[]> pieces = new ArrayList<>();
+        private final Checksum crc = ContentDigest.newCrc32c();
+        private long start;
+        private long position;
+        private int next;
+
+        PieceCrcs(long offset, long[] cuts) {
+            this.cuts = cuts;
+            this.start = offset;
+            this.position = offset;
+        }
+
+        void update(byte[] b, int len) {
+            int done = 0;
+            while (done < len) {
+                long cut = next < cuts.length ? cuts[next] : Long.MAX_VALUE;
+                int n = (int) Math.min(len - done, cut - position);
+                crc.update(b, done, n);
+                done += n;
+                position += n;
+                if (position == cut) {
+                    close();
+                    next++;
+                }
+            }
+        }
+
+        // The pieces so far, including a cut-off tail.
+        List<long[]> finish() {
+            close();
+            return pieces;
+        }
+
+        private void close() {
+            if (position > start) pieces.add(new long[]{start, position, crc.getValue()});
+            crc.reset();
+            start = position;
+        }
+    }
+
+    private void discard(Session upload) {
+        sessions.remove(upload.id);
+        upload.delete();
+        sessionDir.delete();
+        Log.d(TAG, "Upload session " + upload.id + " discarded");
+    }
+
+    private Response status(Session upload, Response.IStatus status) {
+        Response response = NanoHTTPD.newFixedLengthResponse(status, "application/json", upload.toJson());
+        response.addHeader("Upload-Length", String.valueOf(upload.size));
+        response.addHeader("Upload-Received", upload.rangesHeader());
+        response.addHeader("Cache-Control", "no-store");
+        return response;
+    }
+
+    private void loadSessions() {
+        File[] files = sessionDir.listFiles();
+        if (files == null) return;
+        long now = System.currentTimeMillis();
+        for (File f : files) {
+            String name = f.getName();
+            if (!name.endsWith(".properties")) {
+                // data without metadata is unusable
+                if (name.endsWith(".data") && !new File(sessionDir, name.replace(".data", ".properties")).exists()) {
+                    f.delete();
+                }
+                continue;
+            }
+            Session upload = Session.load(sessionDir, f);
+            if (upload == null || now - f.lastModified() > EXPIRY_MILLIS) {
+                if (upload != null) upload.delete();
+                else f.delete();
+                continue;
+            }
+            upload.space = storage.reserve(upload.size - upload.received());
+            if (upload.space == null) {
+                Log.w(TAG, "Upload " + upload.id + " resumed without room for the rest, its chunks reserve their own");
+            }
+            sessions.put(upload.id, upload);
+        }
+        Log.d(TAG, sessions.size() + " upload sessions resumed");
+    }
+
+    private void expireSessions() {
+        long now = System.currentTimeMillis();
+        for (Session upload : sessions.values()) {
+            if (now - upload.metaFile().lastModified() > EXPIRY_MILLIS) {
+                discard(upload);
+            }
+        }
+    }
+
+    private File resolve(String path) {
+        return resolve(rootDir, path);
+    }
+
+    // A file path under rootDir, or null when path is empty, a folder or escapes the root.
+    static File resolve(File rootDir, String path) {
+        if (PathSegments.climbs(path) || path.contains("\\")) return null;
+        String relative = path.startsWith("/") ? path.substring(1) : path;
+        if (relative.isEmpty() || relative.endsWith("/")) return null;
+        File file = new File(rootDir, relative);
+        try {
+            String root = rootDir.getCanonicalPath();
+            if (!file.getCanonicalPath().startsWith(root + File.separator)) return null;
+        } catch (IOException e) {
+            return null;
+        }
+        return file;
+    }
+
+    private String randomId() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        StringBuilder sb = new StringBuilder(32);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static String param(Map<String, List<String>> params, String name) {
+        List<String> values = params.get(name);
+        if (values == null || values.isEmpty() || values.get(0).isEmpty()) return null;
+        return values.get(0);
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Response error(Response.IStatus status, String message) {
+        return NanoHTTPD.newFixedLengthResponse(status, "application/json", "{\"error\":" + Json.quote(message) + "}");
+    }
+
+    // One upload in progress: its data file plus a properties file recording what is stored.
+    static final class Session {
+        final String id;
+        final String path;
+        final long size;
+        final boolean overwrite;
+        private final File dir;
+        // sorted, non-overlapping, non-adjacent [start, end) pairs
+        private final List<long[]> ranges = new ArrayList<>();
+        // start -> {end, CRC32C} of pieces as they were received, never overlapping
+        private final TreeMap<Long, long[]> crcs = new TreeMap<>();
+        // space still to be written, held until the session is finished or dropped
+        volatile StorageGuard.Reservation space;
+
+        Session(File dir, String id, String path, long size, boolean overwrite) {
+            this.dir = dir;
+            this.id = id;
+            this.path = path;
+            this.size = size;
+            this.overwrite = overwrite;
+        }
+
+        static Session load(File dir, File metaFile) {
+            Properties props = new Properties();
+            try (InputStream in = new FileInputStream(metaFile)) {
+                props.load(in);
+                String id = metaFile.getName().substring(0, metaFile.getName().length() - ".properties".length());
+                Session upload = new Session(dir, id, props.getProperty("path"),
+                        Long.parseLong(props.getProperty("size")), Boolean.parseBoolean(props.getProperty("overwrite")));
+                if (upload.path == null || !upload.dataFile().isFile()) return null;
+                String stored = props.getProperty("ranges", "");
+                for (String range : stored.split(",")) {
+                    if (range.isEmpty()) continue;
+                    int dash = range.indexOf('-');
+                    upload.add(Long.parseLong(range.substring(0, dash)), Long.parseLong(range.substring(dash + 1)));
+                }
+                for (String piece : props.getProperty("crc32c", "").split(",")) {
+                    if (piece.isEmpty()) continue;
+                    String[] fields = piece.split("-");
+                    upload.addCrc(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2], 16));
+                }
+                return upload;
+            } catch (IOException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        File dataFile() {
+            return new File(dir, id + ".data");
+        }
+
+        File metaFile() {
+            return new File(dir, id + ".properties");
+        }
+
+        // Returns how many of the bytes were not stored before.
+        synchronized long add(long start, long end) {
+            long before = received();
+            int i = 0;
+            while (i < ranges.size() && ranges.get(i)[1] < start) i++;
+            while (i < ranges.size() && ranges.get(i)[0] <= end) {
+                long[] r = ranges.remove(i);
+                start = Math.min(start, r[0]);
+                end = Math.max(end, r[1]);
+            }
+            ranges.add(i, new long[]{start, end});
+            return received() - before;
+        }
+
+        synchronized long received() {
+            long total = 0;
+            for (long[] r : ranges) {
+                total += r[1] - r[0];
+            }
+            return total;
+        }
+
+        // Edges of recorded pieces strictly inside [start, end), in order.
+        synchronized long[] crcCuts(long start, long end) {
+            List<Long> cuts = new ArrayList<>();
+            Map.Entry<Long, long[]> first = crcs.floorEntry(start);
+            if (first != null && first.getValue()[0] > start && first.getValue()[0] < end) cuts.add(first.getValue()[0]);
+            for (Map.Entry<Long, long[]> piece : crcs.subMap(start, false, end, false).entrySet()) {
+                cuts.add(piece.getKey());
+                if (piece.getValue()[0] < end) cuts.add(piece.getValue()[0]);
+            }
+            long[] result = new long[cuts.size()];
+            for (int i = 0; i < result.length; i++) result[i] = cuts.get(i);
+            return result;
+        }
+
+        // Pieces overlapping one already recorded are the same bytes again and are dropped.
+        synchronized void addCrc(long start, long end, long crc) {
+            if (start >= end) return;
+            Map.Entry<Long, long[]> before = crcs.floorEntry(start);
+            if (before != null && before.getValue()[0] > start) return;
+            if (!crcs.subMap(start, true, end, false).isEmpty()) return;
+            crcs.put(start, new long[]{end, crc});
+        }
+
+        // The whole file's CRC32C from its pieces, or -1 when they leave a gap.
+        synchronized long crc32c() {
+            long crc = 0;
+            long position = 0;
+            for (Map.Entry<Long, long[]> piece : crcs.entrySet()) {
+                if (piece.getKey() != position) return -1;
+                long end = piece.getValue()[0];
+                crc = ContentDigest.combineCrc32c(crc, piece.getValue()[1], end - position);
+                position = end;
+            }
+            return position == size ? crc : -1;
+        }
+
+        // As in a Range header: inclusive ends
+        synchronized String rangesHeader() {
+            StringBuilder sb = new StringBuilder();
+            for (long[] r : ranges) {
+                if (sb.length() > 0) sb.append(", ");
+                sb.append(r[0]).append('-').append(r[1] - 1);
+            }
+            return sb.toString();
+        }
+
+        synchronized String toJson() {
+            StringBuilder sb = new StringBuilder(128);
+            sb.append("{\"id\":\"").append(id).append("\",\"path\":").append(Json.quote(path))
+                    .append(",\"size\":").append(size).append(",\"chunkSize\":").append(CHUNK_SIZE)
+                    .append(",\"receivedBytes\":").append(received()).append(",\"received\":[");
+            for (int i = 0; i < ranges.size(); i++) {
+                if (i > 0) sb.append(',');
+                sb.append('[').append(ranges.get(i)[0]).append(',').append(ranges.get(i)[1]).append(']');
+            }
+            return sb.append("]}").toString();
+        }
+
+        // Written to a temp file and renamed, so a crash never leaves half a record
+        synchronized void save() throws IOException {
+            Properties props = new Properties();
+            props.setProperty("path", path);
+            props.setProperty("size", String.valueOf(size));
+            props.setProperty("overwrite", String.valueOf(overwrite));
+            StringBuilder stored = new StringBuilder();
+            for (long[] r : ranges) {
+                if (stored.length() > 0) stored.append(',');
+                stored.append(r[0]).append('-').append(r[1]);
+            }
+            props.setProperty("ranges", stored.toString());
+            StringBuilder pieces = new StringBuilder();
+            for (Map.Entry<Long, long[]> piece : crcs.entrySet()) {
+                if (pieces.length() > 0) pieces.append(',');
+                pieces.append(piece.getKey()).append('-').append(piece.getValue()[0]).append('-').append(Long.toHexString(piece.getValue()[1]));
+            }
+            props.setProperty("crc32c", pieces.toString());
+            File temp = new File(dir, id + ".properties.tmp");
+            try (OutputStream out = new FileOutputStream(temp)) {
+                props.store(out, null);
+            }
+            if (!temp.renameTo(metaFile())) {
+                temp.delete();
+                throw new IOException("Cannot record upload progress");
+            }
+        }
+
+        void delete() {
+            if (space != null) space.close();
+            dataFile().delete();
+            metaFile().delete();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.aroma;
+
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoHTTPD.Response;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Admission control for request bodies written to storage. Every upload request holds a ticket
+// while it writes; when all slots are taken the next one is answered 503 with Retry-After
+// before its body is read. The number of slots follows the storage: each ticket reports how
+// long its writes take per byte, and when that grows against the best seen recently the disk is
+// queueing and the limit shrinks; while it stays near the best the limit creeps up again
+// (a gradient limiter, as used for RPC concurrency limits).
+public class UploadThrottle {
+    public static final int MIN_LIMIT = 2;
+    public static final int MAX_LIMIT = 16;
+    public static final int INITIAL_LIMIT = 4;
+    // Write timings are taken over at least this many bytes, so tiny writes do not add noise
+    private static final long SAMPLE_BYTES = 1024 * 1024;
+    // The baseline is forgotten now and then, in case it came from a burst into the page cache
+    private static final int BASELINE_SAMPLES = 500;
+
+    private int inFlight;
+    private long inFlightBytes;
+    private double limit = INITIAL_LIMIT;
+    private double bestNanosPerByte;
+    private double recentNanosPerByte;
+    private int samples;
+    // aggregate write rate, decayed over a few seconds
+    private double bytesPerSecond;
+    private long rateWindowStart = System.nanoTime();
+    private long rateWindowBytes;
+
+    public final class Ticket implements AutoCloseable {
+        private final long declaredBytes;
+        private long sampleBytes;
+        private long sampleNanos;
+        private boolean closed;
+
+        Ticket(long declaredBytes) {
+            this.declaredBytes = declaredBytes;
+        }
+
+        // Counts one write of bytes that took nanos.
+        public void wrote(long bytes, long nanos) {
+            sampleBytes += bytes;
+            sampleNanos += nanos;
+            if (sampleBytes >= SAMPLE_BYTES) flush();
+        }
+
+        // Wraps a stream so that its writes are timed.
+        public OutputStream meter(OutputStream out) {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    long start = System.nanoTime();
+                    out.write(b, off, len);
+                    wrote(len, System.nanoTime() - start);
+                }
+            };
+        }
+
+        private void flush() {
+            sample(sampleBytes, sampleNanos);
+            sampleBytes = 0;
+            sampleNanos = 0;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            if (sampleBytes > 0) flush();
+            release(this);
+        }
+    }
+
+    // A ticket for a body of declaredBytes (-1 if unknown), or null when all slots are taken.
+    public synchronized Ticket tryAcquire(long declaredBytes) {
+        if (inFlight >= (int) limit) return null;
+        inFlight++;
+        if (declaredBytes > 0) inFlightBytes += declaredBytes;
+        return new Ticket(declaredBytes);
+    }
+
+    // 503 with a Retry-After long enough for the bodies in flight to be written.
+    public Response busy() {
+        int retryAfter = retryAfterSeconds();
+        Response response = NanoHTTPD.newFixedLengthResponse(Response.Status.SERVICE_UNAVAILABLE, "application/json",
+                "{\"error\":\"Storage busy, retry later\",\"retryAfter\":" + retryAfter + "}");
+        response.addHeader("Retry-After", String.valueOf(retryAfter));
+        // the body was not read
+        response.addHeader("Connection", "close");
+        return response;
+    }
+
+    // Appends the throttle's members of a JSON object, so callers can add their own around them.
+    public synchronized void appendJsonFields(StringBuilder sb) {
+        int slots = (int) limit;
+        sb.append("\"limit\":").append(slots).append(",\"inFlight\":").append(inFlight)
+                .append(",\"available\":").append(Math.max(0, slots - inFlight))
+                .append(",\"inFlightBytes\":").append(inFlightBytes)
+                .append(",\"writeBytesPerSecond\":").append(Math.round(currentRate()))
+                .append(",\"retryAfter\":").append(inFlight >= slots ? retryAfterSeconds() : 0);
+    }
+
+    private synchronized int retryAfterSeconds() {
+        double rate = currentRate();
+        if (rate <= 0 || inFlight == 0) return 2;
+        // roughly when the first of the current uploads is done
+        double seconds = inFlightBytes / (double) inFlight / rate;
+        return (int) Math.max(1, Math.min(30, Math.ceil(seconds)));
+    }
+
+    private synchronized void release(Ticket ticket) {
+        inFlight--;
+        if (ticket.declaredBytes > 0) inFlightBytes -= ticket.declaredBytes;
+    }
+
+    private synchronized void sample(long bytes, long nanos) {
+        double nanosPerByte = Math.max(nanos, 1) / (double) bytes;
+        recentNanosPerByte = recentNanosPerByte == 0 ? nanosPerByte : recentNanosPerByte * 0.8 + nanosPerByte * 0.2;
+        if (++samples >= BASELINE_SAMPLES || bestNanosPerByte == 0) {
+            samples = 0;
+            bestNanosPerByte = recentNanosPerByte;
+        }
+        bestNanosPerByte = Math.min(bestNanosPerByte, recentNanosPerByte);
+
+        double gradient = Math.max(0.5, Math.min(1.0, bestNanosPerByte / recentNanosPerByte));
+        double target = limit * gradient + Math.sqrt(limit);
+        // only grow while the slots are actually used
+        if (target > limit && inFlight < (int) limit) target = limit;
+        limit = Math.max(MIN_LIMIT, Math.min(MAX_LIMIT, limit * 0.8 + target * 0.2));
+
+        rateWindowBytes += bytes;
+        long now = System.nanoTime();
+        double elapsed = (now - rateWindowStart) / 1e9;
+        if (elapsed >= 1) {
+            double rate = rateWindowBytes / elapsed;
+            bytesPerSecond = bytesPerSecond == 0 ? rate : bytesPerSecond * 0.5 + rate * 0.5;
+            rateWindowStart = now;
+            rateWindowBytes = 0;
+        }
+    }
+
+    private double currentRate() {
+        // nothing written for a while: the old rate says little about the storage now
+        return System.nanoTime() - rateWindowStart > 30_000_000_000L ? 0 : bytesPerSecond;
+    }
+}
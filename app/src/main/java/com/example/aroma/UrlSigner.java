@@ -0,0 +1,80 @@
+package com.example.aroma;
+
+import fi.iki.elonen.NanoHTTPD;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+// Short-lived capability URLs for a single file, so pages can reference content through the
+// normal streaming path without relying on the browser resending Basic credentials for
+// subresources. The key is random per server instance; restarting revokes every URL.
+public class UrlSigner {
+    public static final long DEFAULT_TTL_SECONDS = 10 * 60;
+
+    private final SecretKeySpec key;
+    private final long ttlSeconds;
+
+    public UrlSigner(long ttlSeconds) {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        this.key = new SecretKeySpec(secret, "HmacSHA256");
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    // uri is the decoded request path, e.g. "/DCIM/Camera/IMG_0001.jpg"
+    public String sign(String uri) {
+        long expires = System.currentTimeMillis() / 1000 + ttlSeconds;
+        return encodePath(uri) + "?exp=" + expires + "&sig=" + mac(uri, expires);
+    }
+
+    public boolean verify(NanoHTTPD.IHTTPSession session) {
+        Map<String, List<String>> params = session.getParameters();
+        List<String> exp = params.get("exp");
+        List<String> sig = params.get("sig");
+        if (exp == null || sig == null || exp.isEmpty() || sig.isEmpty()) return false;
+        long expires;
+        try {
+            expires = Long.parseLong(exp.get(0));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (expires < System.currentTimeMillis() / 1000) return false;
+        byte[] expected = mac(session.getUri(), expires).getBytes(StandardCharsets.US_ASCII);
+        return MessageDigest.isEqual(expected, sig.get(0).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private String mac(String uri, long expires) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            byte[] digest = mac.doFinal((uri + "\n" + expires).getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String encodePath(String uri) {
+        String[] segments = uri.split("/", -1);
+        StringBuilder sb = new StringBuilder(uri.length() + 16);
+        try {
+            for (int i = 0; i < segments.length; i++) {
+                if (i > 0) sb.append('/');
+                sb.append(URLEncoder.encode(segments[i], "UTF-8").replace("+", "%20"));
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+}
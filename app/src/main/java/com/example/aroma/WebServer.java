@@ -1,22 +1,26 @@
 package com.example.aroma;
 
 import android.content.Context;
-import android.media.MediaScannerConnection;
 import android.util.Log;
 
 import fi.iki.elonen.NanoHTTPD;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class WebServer extends NanoHTTPD {
     private final File rootDir;
@@ -24,6 +28,24 @@ public class WebServer extends NanoHTTPD {
     private final String username;
     private final String password;
     private ServerEventListener eventListener;
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final StaticAssets staticAssets;
+    private final ListingApi listingApi;
+    private final ThumbnailService thumbnails;
+    private final UploadApi uploadApi;
+    private final UploadThrottle uploadThrottle = new UploadThrottle();
+    private final StorageGuard storageGuard;
+    private final HashIndex hashIndex;
+    private final MediaScanQueue mediaScans;
+    private final DedupApi dedupApi;
+    private final UrlSigner urlSigner = new UrlSigner(UrlSigner.DEFAULT_TTL_SECONDS);
+    private final DirectoryCache directoryCache = new DirectoryCache(DirectoryCache.DEFAULT_MAX_DIRECTORIES, DirectoryCache.DEFAULT_MAX_ENTRIES);
+    private final HtmlTemplate listingPage;
+    private final HtmlTemplate previewPage;
+    private final HtmlTemplate errorPage;
+    private final HtmlTemplate resultPage;
+    private final HtmlTemplate uploadPage;
+    private ResponseCompressor compressor = new ResponseCompressor(ResponseCompressor.DEFAULT_LEVEL, ResponseCompressor.DEFAULT_MIN_SIZE);
 
     public WebServer(int port, File wwwRoot, Context ctx, String username, String password) {
         super(port);
@@ -31,6 +53,75 @@ public class WebServer extends NanoHTTPD {
         this.context = ctx;
         this.username = username;
         this.password = password;
+        this.staticAssets = new StaticAssets(ctx);
+        this.listingApi = new ListingApi(wwwRoot, directoryCache);
+        this.storageGuard = new StorageGuard(wwwRoot);
+        this.hashIndex = new HashIndex(wwwRoot, new File(ctx.getFilesDir(), "hash-index.tsv"));
+        this.uploadApi = new UploadApi(wwwRoot, uploadThrottle, storageGuard, hashIndex, this::onUploadFinished);
+        this.mediaScans = new MediaScanQueue(ctx);
+        this.dedupApi = new DedupApi(wwwRoot, hashIndex, storageGuard, this::onUploadFinished);
+        hashIndex.start();
+        this.thumbnails = new ThumbnailService(new File(ctx.getCacheDir(), "thumbs"), ThumbnailService.DEFAULT_MAX_CACHE_BYTES);
+        this.listingPage = HtmlTemplate.load(ctx, "web/listing.html");
+        this.previewPage = HtmlTemplate.load(ctx, "web/preview.html");
+        this.errorPage = HtmlTemplate.load(ctx, "web/error.html");
+        this.resultPage = HtmlTemplate.load(ctx, "web/result.html");
+        this.uploadPage = HtmlTemplate.load(ctx, "web/upload.html");
+        // Only form posts and /api/exec bodies over PooledBody.MAX_BYTES still get spooled
+        File spoolDir = new File(ctx.getCacheDir(), SpoolTempFileManager.DIR_NAME);
+        SpoolTempFileManager.cleanOrphans(spoolDir);
+        setTempFileManagerFactory(SpoolTempFileManager.factory(spoolDir));
+        // Channel-backed sockets let file bodies go out with FileChannel.transferTo (sendfile)
+        setServerSocketFactory(() -> ServerSocketChannel.open().socket());
+    }
+
+    @Override
+    protected ClientHandler createClientHandler(Socket finalAccept, InputStream inputStream) {
+        return new ClientHandler(inputStream, finalAccept) {
+            @Override
+            public void run() {
+                StreamingResponse.bindClientChannel(finalAccept.getChannel());
+                try {
+                    super.run();
+                } finally {
+                    StreamingResponse.bindClientChannel(null);
+                }
+            }
+        };
+    }
+
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    public int getPendingMediaScans() {
+        return mediaScans.pending();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        thumbnails.shutdown();
+        hashIndex.stop();
+        mediaScans.shutdown();
+    }
+
+    public DirectoryCache getDirectoryCache() {
+        return directoryCache;
+    }
+
+    public void setStorageReserve(long bytes) {
+        storageGuard.setReserveBytes(bytes);
+    }
+
+    public void setCompressionLevel(int level) {
+        this.compressor = new ResponseCompressor(level, ResponseCompressor.DEFAULT_MIN_SIZE);
+    }
+
+    // Compression is negotiated by ResponseCompressor instead of NanoHTTPD's fixed-level gzip
+    @Override
+    protected boolean useGzipWhenAccepted(Response r) {
+        return false;
     }
 
     public void setEventListener(ServerEventListener listener) {
@@ -47,6 +138,17 @@ public class WebServer extends NanoHTTPD {
 
     @Override
     public Response serve(IHTTPSession session) {
+        return compressor.apply(session, route(session));
+    }
+
+    private Response route(IHTTPSession session) {
+        // Signed URLs stand in for credentials, but only for fetching that one file
+        if ((session.getMethod() == Method.GET || session.getMethod() == Method.HEAD) && urlSigner.verify(session)) {
+            File signedFile = new File(rootDir, session.getUri().substring(1));
+            if (signedFile.isFile()) {
+                return serveFile(signedFile, session);
+            }
+        }
         String auth = session.getHeaders().get("authorization");
         if (auth == null || !auth.toLowerCase().startsWith("basic")) {
             Response response = newFixedLengthResponse(Response.Status.UNAUTHORIZED, "text/plain", "Unauthorized");
@@ -70,12 +172,43 @@ public class WebServer extends NanoHTTPD {
             currentDir = new File(rootDir, uri.substring(1));
         }
 
+        if (uri.startsWith(StaticAssets.PREFIX) && (method == Method.GET || method == Method.HEAD)) {
+            return staticAssets.serve(session, uri);
+        }
+
+        if (uri.startsWith("/thumb/") && (method == Method.GET || method == Method.HEAD)) {
+            return serveThumbnail(session, new File(rootDir, uri.substring("/thumb/".length())));
+        }
+
         if (uri.equals("/terminal")) {
             if (method == Method.GET) {
                 return serveTerminal();
             }
         }
         
+        if (uri.equals("/api/list") && method == Method.GET) {
+            return listingApi.serve(session);
+        }
+
+        if (uri.equals(UploadApi.PREFIX) || uri.startsWith(UploadApi.PREFIX + "/")) {
+            return uploadApi.serve(session);
+        }
+
+        if (uri.equals("/api/capacity") && method == Method.GET) {
+            StringBuilder json = new StringBuilder(192).append('{');
+            uploadThrottle.appendJsonFields(json);
+            // the scanner backlog is load the uploads caused, so it is reported alongside
+            json.append(",\"mediaScanPending\":").append(mediaScans.pending())
+                    .append(",\"freeBytes\":").append(storageGuard.availableBytes()).append('}');
+            Response response = newFixedLengthResponse(Response.Status.OK, "application/json", json.toString());
+            response.addHeader("Cache-Control", "no-store");
+            return response;
+        }
+
+        if (uri.equals(DedupApi.PATH)) {
+            return dedupApi.serve(session);
+        }
+
         if (uri.equals("/api/exec")) {
             if (method == Method.POST) {
                 return handleExec(session);
@@ -89,6 +222,10 @@ public class WebServer extends NanoHTTPD {
             return handleGet(session, currentDir, uri);
         } else if (method == Method.POST) {
             return handlePost(session, currentDir, uri);
+        } else if (method == Method.PUT) {
+            return handlePut(session, currentDir, uri);
+        } else if (method == Method.HEAD && currentDir.isFile() && !session.getParameters().containsKey("preview")) {
+            return serveFile(currentDir, session);
         }
         return newFixedLengthResponse(Response.Status.METHOD_NOT_ALLOWED, "text/plain", "Method not allowed");
     }
@@ -98,328 +235,142 @@ public class WebServer extends NanoHTTPD {
             return newFixedLengthResponse(Response.Status.NOT_FOUND, "text/plain", "Not found");
         }
         if (file.isDirectory()) {
-            return serveDirectoryListing(file, uri, session);
+            if (session.getParameters().containsKey("zip")) {
+                return serveZip(file, null);
+            }
+            // A cached listing is validated before anything is sent. Otherwise the page head goes
+            // out first and the directory is read while the rest of the page streams; that
+            // response has no ETag yet, the next one is served from the cache with one.
+            DirectorySnapshot snapshot = directoryCache.peek(file);
+            if (snapshot == null) {
+                Response response = serveDirectoryListing(file, null, uri, session);
+                response.addHeader("Last-Modified", HttpDate.format(file.lastModified()));
+                response.addHeader("Cache-Control", "no-cache");
+                return response;
+            }
+            String etag = CacheValidators.directoryETag(snapshot);
+            long lastModified = snapshot.getModified();
+            if (CacheValidators.isNotModified(session, etag, lastModified)) {
+                return CacheValidators.notModified(etag, lastModified);
+            }
+            Response response = serveDirectoryListing(file, snapshot, uri, session);
+            response.addHeader("ETag", etag);
+            response.addHeader("Last-Modified", HttpDate.format(lastModified));
+            response.addHeader("Cache-Control", "no-cache");
+            return response;
         } else {
             return serveFile(file, session);
         }
     }
 
-    private Response serveDirectoryListing(File dir, String uri, IHTTPSession session) {
-        StringBuilder html = new StringBuilder();
-        html.append("<!DOCTYPE html><html><head><meta charset='UTF-8'><meta name='viewport' content='width=device-width,initial-scale=1'>");
-        html.append("<style>");
-        html.append(":root{--bg:#f5f5f5;--text:#333;--heading:#111;--panel:#fff;--panel-border:1px solid #ddd;--input-bg:#fff;--input-border:#ccc;--hover:#f0f0f0;--item-border:#eee;--meta:#888;--link:#0066cc;--empty:#999;--modal-bg:rgba(0,0,0,0.5);--code-bg:#e8e8e8}");
-        html.append("[data-theme='dark']{--bg:#1a1a2e;--text:#eee;--heading:#fff;--panel:#16213e;--panel-border:none;--input-bg:#1a1a2e;--input-border:#333;--hover:#1f2b4d;--item-border:#252a40;--meta:#666;--link:#4da6ff;--empty:#666;--modal-bg:rgba(0,0,0,0.8);--code-bg:#0d0d1a}");
-        html.append("*{box-sizing:border-box}");
-        html.append("body{font-family:system-ui,sans-serif;background:var(--bg);color:var(--text);margin:0;padding:20px}");
-        html.append("h1{color:var(--heading);margin:0 0 5px 0;font-size:1.5em}");
-        html.append(".path{color:var(--meta);font-size:0.9em;margin-bottom:20px}");
-        html.append(".path a{color:var(--link);text-decoration:none}");
-        html.append(".container{display:grid;grid-template-columns:1fr 280px;gap:20px}");
-        html.append("@media(max-width:768px){.container{grid-template-columns:1fr}.sidebar{order:-1}}");
-        html.append(".panel{background:var(--panel);border:var(--panel-border);border-radius:12px;padding:20px;margin-bottom:15px}");
-        html.append(".panel h2{margin:0 0 15px 0;font-size:1.1em;color:#4da6ff;border-bottom:1px solid var(--input-border);padding-bottom:10px}");
-        html.append(".file-list{background:var(--panel);border:var(--panel-border);border-radius:12px;overflow:hidden}");
-        html.append(".file-item{display:flex;align-items:center;padding:12px 15px;border-bottom:1px solid var(--item-border);cursor:context-menu}");
-        html.append(".file-item:last-child{border-bottom:none}");
-        html.append(".file-item:hover{background:var(--hover)}");
-        html.append(".file-item.selected{background:var(--hover)}");
-        html.append(".file-item input[type=checkbox]{width:18px;height:18px;margin-right:12px;accent-color:#4da6ff}");
-        html.append(".file-icon{font-size:1.3em;margin-right:10px}");
-        html.append(".file-info{flex:1;min-width:0}");
-        html.append(".file-name{color:var(--heading);text-decoration:none;font-weight:500;display:block;overflow:hidden;text-overflow:ellipsis;white-space:nowrap}");
-        html.append(".file-name:hover{color:#4da6ff}");
-        html.append(".file-meta{color:var(--meta);font-size:0.8em;margin-top:2px}");
-        html.append(".file-actions{display:flex;gap:8px}");
-        html.append(".btn{padding:6px 12px;border-radius:6px;text-decoration:none;font-size:0.8em;border:none;cursor:pointer;display:inline-block}");
-        html.append(".btn-primary{background:#4da6ff;color:#fff}");
-        html.append(".btn-success{background:#28a745;color:#fff}");
-        html.append(".btn-secondary{background:#555;color:#fff}");
-        html.append(".btn-danger{background:#dc3545;color:#fff}");
-        html.append(".btn:hover{opacity:0.85}");
-        html.append("input[type=text],input[type=file]{width:100%;padding:10px;border:1px solid var(--input-border);border-radius:6px;background:var(--input-bg);color:var(--text);margin-bottom:10px}");
-        html.append("input[type=text]::placeholder{color:var(--meta)}");
-        html.append(".form-group{margin-bottom:15px}");
-        html.append(".form-group:last-child{margin-bottom:0}");
-        html.append(".empty{color:var(--empty);text-align:center;padding:40px}");
-        html.append(".actions-bar{background:var(--panel);border:var(--panel-border);border-radius:12px;padding:15px;margin-top:15px;display:flex;gap:10px;flex-wrap:wrap}");
-        html.append(".header{display:flex;justify-content:space-between;align-items:center;margin-bottom:10px;gap:10px;flex-wrap:wrap}");
-        html.append(".header h1{margin:0}");
-        html.append(".header-buttons{display:flex;gap:8px;align-items:center}");
-        html.append(".header-btn{background:var(--panel);color:#4da6ff;border:1px solid #4da6ff;padding:8px 16px;border-radius:6px;cursor:pointer;font-size:0.9em;text-decoration:none}");
-        html.append(".header-btn:hover{background:#4da6ff;color:#fff}");
-        html.append(".theme-toggle{background:var(--panel);border:1px solid var(--input-border);padding:6px 12px;border-radius:6px;cursor:pointer;font-size:1.1em}");
-        html.append(".modal{display:none;position:fixed;top:0;left:0;width:100%;height:100%;background:var(--modal-bg);z-index:1000;justify-content:center;align-items:center}");
-        html.append(".modal.show{display:flex}");
-        html.append(".modal-content{background:var(--panel);border-radius:12px;padding:30px;max-width:600px;width:90%;max-height:80vh;overflow-y:auto}");
-        html.append(".modal-content h2{color:#4da6ff;margin-top:0}");
-        html.append(".modal-content h3{color:var(--heading);margin-top:20px;margin-bottom:10px}");
-        html.append(".modal-content p,.modal-content li{color:var(--text);line-height:1.6}");
-        html.append(".modal-content ul{padding-left:20px}");
-        html.append(".modal-content code{background:var(--code-bg);padding:2px 6px;border-radius:4px;color:#4da6ff}");
-        html.append(".close-btn{float:right;background:none;border:none;color:var(--meta);font-size:24px;cursor:pointer}");
-        html.append(".close-btn:hover{color:var(--heading)}");
-        html.append(".context-menu{position:fixed;background:var(--panel);border:var(--panel-border);border-radius:8px;box-shadow:0 4px 20px rgba(0,0,0,0.3);z-index:2000;min-width:180px;padding:6px 0;display:none}");
-        html.append(".context-menu.show{display:block}");
-        html.append(".context-menu-item{padding:10px 16px;cursor:pointer;display:flex;align-items:center;gap:10px;color:var(--text);font-size:0.9em}");
-        html.append(".context-menu-item:hover{background:var(--hover)}");
-        html.append(".context-menu-item.danger{color:#dc3545}");
-        html.append(".context-menu-divider{height:1px;background:var(--item-border);margin:6px 0}");
-        html.append("</style></head><body>");
-        
-        html.append("<div class='header'>");
-        html.append("<h1>AROMA File Manager</h1>");
-        html.append("<div class='header-buttons'>");
-        html.append("<button class='theme-toggle' onclick='toggleTheme()' title='Toggle theme'>&#9788;</button>");
-        html.append("<a href='/terminal' class='header-btn' style='background:#28a745;border-color:#28a745;color:#fff'>Terminal</a>");
-        html.append("<a href='#' class='header-btn' onclick='showModal(\"createFolderModal\");return false;'>+ New Folder</a>");
-        html.append("<a href='#' class='header-btn' onclick='showModal(\"aboutModal\");return false;'>Help</a>");
-        html.append("</div>");
-        html.append("</div>");
-        html.append("<div class='path'>");
-        if (uri.equals("/")) {
-            html.append("/ (Root)");
-        } else {
-            html.append("<a href='/'>Root</a>");
-            String[] parts = uri.substring(1).split("/");
-            StringBuilder pathBuilder = new StringBuilder();
-            for (int i = 0; i < parts.length; i++) {
-                pathBuilder.append("/").append(parts[i]);
-                if (i < parts.length - 1) {
-                    html.append(" / <a href='").append(pathBuilder).append("/'>").append(parts[i]).append("</a>");
-                } else {
-                    html.append(" / ").append(parts[i]);
-                }
+    // selected == null archives the folder itself; otherwise just the named entries inside it
+    private Response serveZip(File dir, List<String> selected) {
+        List<String> names = selected;
+        String archiveName = (dir.equals(rootDir) ? "root" : dir.getName()) + ".zip";
+        if (names == null && dir.equals(rootDir)) {
+            // the root's own name (e.g. "0") would only add a meaningless top-level folder
+            DirectorySnapshot snapshot = directoryCache.get(dir);
+            if (snapshot == null) {
+                return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, "text/plain", "Cannot read directory");
             }
+            names = new ArrayList<>();
+            for (DirectoryScanner.Entry entry : snapshot.getEntries()) {
+                names.add(entry.name);
+            }
+        } else if (names == null) {
+            names = new ArrayList<>();
+            names.add(dir.getName());
+            dir = dir.getParentFile();
         }
-        html.append("</div>");
-        
-        html.append("<div class='container'>");
-        
-        html.append("<div class='main'>");
-        html.append("<form method='post' id='fileForm'>");
-        html.append("<input type='hidden' name='action' value='delete'>");
-        html.append("<div class='file-list'>");
-
-        File[] files = dir.listFiles();
-        Log.d("AROMA", "Listing directory: " + dir.getAbsolutePath() + ", exists: " + dir.exists() + ", canRead: " + dir.canRead() + ", files: " + (files != null ? files.length : "null"));
-        if (files != null && files.length > 0) {
-            java.util.Arrays.sort(files, (a, b) -> {
-                if (a.isDirectory() && !b.isDirectory()) return -1;
-                if (!a.isDirectory() && b.isDirectory()) return 1;
-                return a.getName().compareToIgnoreCase(b.getName());
-            });
-            for (File f : files) {
-                String name = f.getName();
-                String link = uri + (uri.endsWith("/") ? "" : "/") + name;
-                String escapedName = escapeHtml(name).replace("'", "\\'");
-                html.append("<div class='file-item' oncontextmenu='showContextMenu(event,\"").append(escapedName).append("\",").append(f.isDirectory()).append(",\"").append(link).append("\")' data-name='").append(escapeHtml(name)).append("' data-size='").append(f.isDirectory() ? 0 : f.length()).append("' data-modified='").append(f.lastModified()).append("'>");
-                html.append("<input type='checkbox' name='selected' value='").append(escapeHtml(name)).append("'>");
-                if (f.isDirectory()) {
-                    html.append("<span class='file-icon'>&#128193;</span>");
-                    html.append("<div class='file-info'>");
-                    html.append("<a class='file-name' href='").append(link).append("/'>").append(escapeHtml(name)).append("</a>");
-                    html.append("<div class='file-meta'>Folder</div>");
-                    html.append("</div>");
-                } else {
-                    String lowerName = name.toLowerCase();
-                    boolean canPreview = lowerName.endsWith(".jpg") || lowerName.endsWith(".jpeg") || 
-                        lowerName.endsWith(".png") || lowerName.endsWith(".gif") || lowerName.endsWith(".webp") ||
-                        lowerName.endsWith(".mp4") || lowerName.endsWith(".webm") || lowerName.endsWith(".mov") ||
-                        lowerName.endsWith(".mp3") || lowerName.endsWith(".wav") || lowerName.endsWith(".ogg") ||
-                        lowerName.endsWith(".pdf") || lowerName.endsWith(".txt") || lowerName.endsWith(".json") ||
-                        lowerName.endsWith(".xml") || lowerName.endsWith(".html") || lowerName.endsWith(".css") ||
-                        lowerName.endsWith(".js") || lowerName.endsWith(".md") || lowerName.endsWith(".log");
-                    html.append("<span class='file-icon'>&#128196;</span>");
-                    html.append("<div class='file-info'>");
-                    html.append("<a class='file-name' href='").append(link).append("'>").append(escapeHtml(name)).append("</a>");
-                    html.append("<div class='file-meta'>").append(formatFileSize(f.length())).append("</div>");
-                    html.append("</div>");
-                    html.append("<div class='file-actions'>");
-                    if (canPreview) {
-                        html.append("<a class='btn btn-primary' href='").append(link).append("?preview' target='_blank'>Preview</a>");
-                    }
-                    html.append("<a class='btn btn-success' href='").append(link).append("?download'>Download</a>");
-                    html.append("</div>");
-                }
-                html.append("</div>");
+        for (String name : names) {
+            if (name.isEmpty() || name.contains("/") || name.contains("\\") || name.equals("..")) {
+                return newFixedLengthResponse(Response.Status.BAD_REQUEST, "text/plain", "Invalid name: " + name);
             }
-        } else {
-            if (files == null) {
-                html.append("<div class='empty'>Cannot read directory: ").append(escapeHtml(dir.getAbsolutePath())).append("</div>");
+        }
+        return new ZipResponse(dir, names, archiveName, compressor.getLevel());
+    }
+
+    private Response serveDirectoryListing(File dir, DirectorySnapshot snapshot, String uri, IHTTPSession session) {
+        long notInlined = staticAssets.recordReferenced("listing.css", "listing.js");
+        Log.d("AROMA", "Listing " + uri + ": " + notInlined + " bytes of CSS/JS left to the browser cache, directory cache "
+                + directoryCache.getHits() + " hits / " + directoryCache.getMisses() + " misses");
+        return listingPage
+                .with("css", staticAssets.url("listing.css"))
+                .with("js", staticAssets.url("listing.js"))
+                .with("breadcrumbs", out -> writeBreadcrumbs(out, uri))
+                .with("entries", out -> writeEntries(out, dir, snapshot, uri))
+                .respond(Response.Status.OK);
+    }
+
+    private void writeBreadcrumbs(HtmlWriter out, String uri) throws IOException {
+        if (uri.equals("/")) {
+            out.raw("/ (Root)");
+            return;
+        }
+        out.raw("<a href='/'>Root</a>");
+        String[] parts = uri.substring(1).split("/");
+        StringBuilder pathBuilder = new StringBuilder();
+        for (int i = 0; i < parts.length; i++) {
+            pathBuilder.append("/").append(parts[i]);
+            if (i < parts.length - 1) {
+                out.raw(" / <a href='").text(pathBuilder.toString()).raw("/'>").text(parts[i]).raw("</a>");
             } else {
-                html.append("<div class='empty'>This folder is empty. Right-click to create a folder.</div>");
+                out.raw(" / ").text(parts[i]);
             }
         }
+    }
 
-        html.append("</div>");
-        html.append("<div class='actions-bar'>");
-        html.append("<button type='submit' class='btn btn-danger'>Delete Selected</button>");
-        html.append("<button type='button' class='btn btn-secondary' onclick='selectAll()'>Select All</button>");
-        html.append("<button type='button' class='btn btn-secondary' onclick='selectNone()'>Select None</button>");
-        html.append("</div>");
-        html.append("</form>");
-        html.append("</div>");
-        
-        html.append("<div class='sidebar'>");
-        
-        html.append("<div class='panel'>");
-        html.append("<h2>Upload</h2>");
-        html.append("<div class='form-group'>");
-        html.append("<input type='file' name='uploadedFile' multiple id='fileInput' style='display:none'>");
-        html.append("<input type='file' name='uploadedFile' webkitdirectory id='folderInput' style='display:none'>");
-        html.append("<div style='display:flex;gap:8px;flex-wrap:wrap'>");
-        html.append("<button type='button' class='btn btn-secondary' onclick='document.getElementById(\"fileInput\").click()'>Select Files</button>");
-        html.append("<button type='button' class='btn btn-secondary' onclick='document.getElementById(\"folderInput\").click()'>Select Folder</button>");
-        html.append("</div>");
-        html.append("<div id='selectedFiles' style='margin-top:10px;font-size:0.85em;color:var(--meta)'></div>");
-        html.append("</div>");
-        html.append("<div id='uploadProgress' style='display:none;margin-bottom:10px'>");
-        html.append("<div style='background:var(--input-border);border-radius:4px;height:20px;overflow:hidden;position:relative'>");
-        html.append("<div id='progressBar' style='background:linear-gradient(90deg,#4da6ff,#00d4ff);height:100%;width:0%;transition:width 0.15s ease-out'></div>");
-        html.append("<div id='progressPercent' style='position:absolute;top:0;left:0;right:0;text-align:center;line-height:20px;font-size:11px;color:#fff;font-weight:600;text-shadow:0 1px 2px rgba(0,0,0,0.5)'>0%</div>");
-        html.append("</div>");
-        html.append("<div id='progressText' style='font-size:0.8em;color:var(--meta);margin-top:8px'>0 / 0 files</div>");
-        html.append("<div id='progressSpeed' style='font-size:0.75em;color:var(--meta);margin-top:4px'></div>");
-        html.append("</div>");
-        html.append("<label style='display:flex;align-items:center;gap:8px;font-size:0.85em;color:var(--meta);margin-bottom:10px;cursor:pointer'>");
-        html.append("<input type='checkbox' id='overwriteCheck' style='width:16px;height:16px;accent-color:#4da6ff'>");
-        html.append("Overwrite existing files");
-        html.append("</label>");
-        html.append("<button type='button' class='btn btn-primary' id='uploadBtn' disabled onclick='startUpload()'>Upload</button>");
-        html.append("</div>");
-        
-        html.append("<div class='panel' id='fileInfoPanel' style='display:none'>");
-        html.append("<h2>File Info</h2>");
-        html.append("<div id='fileInfoContent' style='font-size:0.85em;color:var(--meta);line-height:1.6'></div>");
-        html.append("</div>");
-        
-        html.append("<div class='panel'>");
-        html.append("<h2>Tips</h2>");
-        html.append("<p style='font-size:0.85em;color:var(--meta);line-height:1.5;margin:0'>");
-        html.append("Right-click on files/folders for more options: rename, delete, download, copy path, and more.");
-        html.append("</p>");
-        html.append("</div>");
-        
-        html.append("</div>");
-        html.append("</div>");
-        
-        // Context Menu
-        html.append("<div id='contextMenu' class='context-menu'>");
-        html.append("<div class='context-menu-item' onclick='openItem()'><span>&#128194;</span> Open</div>");
-        html.append("<div class='context-menu-item' onclick='downloadItem()'><span>&#11015;</span> Download</div>");
-        html.append("<div class='context-menu-item' onclick='previewItem()'><span>&#128065;</span> Preview</div>");
-        html.append("<div class='context-menu-divider'></div>");
-        html.append("<div class='context-menu-item' onclick='showRenameModal()'><span>&#9998;</span> Rename</div>");
-        html.append("<div class='context-menu-item' onclick='copyPath()'><span>&#128203;</span> Copy Path</div>");
-        html.append("<div class='context-menu-divider'></div>");
-        html.append("<div class='context-menu-item' onclick='createFolderFromMenu()'><span>&#128193;</span> New Folder</div>");
-        html.append("<div class='context-menu-item danger' onclick='deleteItem()'><span>&#128465;</span> Delete</div>");
-        html.append("</div>");
-        
-        // Create Folder Modal
-        html.append("<div id='createFolderModal' class='modal' onclick='if(event.target===this)hideModal(\"createFolderModal\")'>");
-        html.append("<div class='modal-content' style='max-width:400px'>");
-        html.append("<button class='close-btn' onclick='hideModal(\"createFolderModal\")'>&times;</button>");
-        html.append("<h2>Create New Folder</h2>");
-        html.append("<form method='post'>");
-        html.append("<input type='hidden' name='action' value='create_folder'>");
-        html.append("<div class='form-group'>");
-        html.append("<input type='text' name='folder_name' id='newFolderName' placeholder='Folder name' autofocus>");
-        html.append("</div>");
-        html.append("<button type='submit' class='btn btn-primary'>Create Folder</button>");
-        html.append("</form>");
-        html.append("</div></div>");
-        
-        // Rename Modal
-        html.append("<div id='renameModal' class='modal' onclick='if(event.target===this)hideModal(\"renameModal\")'>");
-        html.append("<div class='modal-content' style='max-width:400px'>");
-        html.append("<button class='close-btn' onclick='hideModal(\"renameModal\")'>&times;</button>");
-        html.append("<h2>Rename</h2>");
-        html.append("<form method='post'>");
-        html.append("<input type='hidden' name='action' value='rename'>");
-        html.append("<input type='hidden' name='selected' id='renameOldName'>");
-        html.append("<div class='form-group'>");
-        html.append("<label style='color:var(--meta);font-size:0.9em'>Current name:</label>");
-        html.append("<div id='renameCurrentDisplay' style='padding:8px 0;font-weight:500'></div>");
-        html.append("</div>");
-        html.append("<div class='form-group'>");
-        html.append("<input type='text' name='new_name' id='renameNewName' placeholder='New name'>");
-        html.append("</div>");
-        html.append("<button type='submit' class='btn btn-primary'>Rename</button>");
-        html.append("</form>");
-        html.append("</div></div>");
-        
-        // About Modal
-        html.append("<div id='aboutModal' class='modal' onclick='if(event.target===this)hideModal(\"aboutModal\")'>");
-        html.append("<div class='modal-content'>");
-        html.append("<button class='close-btn' onclick='hideModal(\"aboutModal\")'>&times;</button>");
-        html.append("<h2>AROMA File Manager</h2>");
-        html.append("<p>Version 0.0.3 - Android Remote Online Management App</p>");
-        
-        html.append("<h3>Quick Start</h3>");
-        html.append("<ul>");
-        html.append("<li><strong>Upload:</strong> Use the Upload panel on the right</li>");
-        html.append("<li><strong>Download:</strong> Click Download button or right-click &gt; Download</li>");
-        html.append("<li><strong>Delete:</strong> Check files and click Delete Selected, or right-click &gt; Delete</li>");
-        html.append("<li><strong>Create Folder:</strong> Click '+ New Folder' or right-click in empty area</li>");
-        html.append("<li><strong>Rename:</strong> Right-click on any file or folder &gt; Rename</li>");
-        html.append("<li><strong>Navigate:</strong> Click folder names or use breadcrumbs</li>");
-        html.append("</ul>");
-        
-        html.append("<h3>Keyboard Shortcuts</h3>");
-        html.append("<ul>");
-        html.append("<li><code>Ctrl+A</code> - Select all files</li>");
-        html.append("<li><code>Escape</code> - Close dialogs</li>");
-        html.append("</ul>");
-        
-        html.append("<h3>About</h3>");
-        html.append("<p>AROMA is an Android app that turns your device into a file server.</p>");
-        
-        html.append("</div></div>");
-        
-        // JavaScript
-        html.append("<script>");
-        html.append("let currentItem={name:'',isDir:false,link:''};");
-        html.append("let isEmptyAreaClick=false;");
-        html.append("const fileData={};");
-        html.append("function initTheme(){let t=localStorage.getItem('aroma-theme')||'light';document.body.setAttribute('data-theme',t)}");
-        html.append("function toggleTheme(){let t=document.body.getAttribute('data-theme')==='dark'?'light':'dark';document.body.setAttribute('data-theme',t);localStorage.setItem('aroma-theme',t)}");
-        html.append("function showModal(id){document.getElementById(id).classList.add('show')}");
-        html.append("function hideModal(id){document.getElementById(id).classList.remove('show')}");
-        html.append("function showContextMenu(e,name,isDir,link){e.preventDefault();e.stopPropagation();currentItem={name,isDir,link};isEmptyAreaClick=false;let m=document.getElementById('contextMenu');m.style.left=e.pageX+'px';m.style.top=e.pageY+'px';m.classList.add('show');updateContextMenuItems(false)}");
-        html.append("function showEmptyContextMenu(e){e.preventDefault();isEmptyAreaClick=true;currentItem={name:'',isDir:false,link:''};let m=document.getElementById('contextMenu');m.style.left=e.pageX+'px';m.style.top=e.pageY+'px';m.classList.add('show');updateContextMenuItems(true)}");
-        html.append("function updateContextMenuItems(emptyArea){let items=document.querySelectorAll('.context-menu-item');items.forEach(item=>{let t=item.textContent.trim();if(emptyArea){item.style.display=(t.includes('New Folder'))?'flex':'none'}else{item.style.display='flex'}})}");
-        html.append("document.addEventListener('click',()=>document.getElementById('contextMenu').classList.remove('show'));");
-        html.append("document.addEventListener('keydown',e=>{if(e.key==='Escape'){document.querySelectorAll('.modal.show').forEach(m=>m.classList.remove('show'));document.getElementById('contextMenu').classList.remove('show')}if(e.ctrlKey&&e.key==='a'){e.preventDefault();selectAll()}});");
-        html.append("function openItem(){window.location.href=currentItem.link+(currentItem.isDir?'/':'')}");
-        html.append("function downloadItem(){if(!currentItem.isDir)window.location.href=currentItem.link+'?download'}");
-        html.append("function previewItem(){if(!currentItem.isDir)window.open(currentItem.link+'?preview','_blank')}");
-        html.append("function showRenameModal(){document.getElementById('renameOldName').value=currentItem.name;document.getElementById('renameCurrentDisplay').textContent=currentItem.name;document.getElementById('renameNewName').value=currentItem.name;showModal('renameModal');document.getElementById('renameNewName').select()}");
-        html.append("function copyPath(){navigator.clipboard.writeText(window.location.origin+currentItem.link).then(()=>alert('Path copied!'))}");
-        html.append("function deleteItem(){if(confirm('Delete \"'+currentItem.name+'\"?')){let f=document.createElement('form');f.method='post';f.innerHTML='<input name=\"action\" value=\"delete\"><input name=\"selected\" value=\"'+currentItem.name+'\">';document.body.appendChild(f);f.submit()}}");
-        html.append("function createFolderFromMenu(){showModal('createFolderModal');document.getElementById('newFolderName').focus()}");
-        html.append("function selectAll(){document.querySelectorAll('input[name=selected]').forEach(c=>{c.checked=true});updateFileInfoPanel()}");
-        html.append("function selectNone(){document.querySelectorAll('input[name=selected]').forEach(c=>{c.checked=false});updateFileInfoPanel()}");
-        html.append("function updateFileInfoPanel(){let checked=document.querySelectorAll('input[name=selected]:checked');let panel=document.getElementById('fileInfoPanel');let content=document.getElementById('fileInfoContent');if(checked.length===0){panel.style.display='none';return}panel.style.display='block';if(checked.length===1){let name=checked[0].value;let item=checked[0].closest('.file-item');let meta=item.querySelector('.file-meta');let size=meta?meta.textContent:'';content.innerHTML='<strong>'+name+'</strong><br>'+size}else{let totalSize=0;checked.forEach(c=>{let d=fileData[c.value];if(d&&d.size)totalSize+=d.size});content.innerHTML=checked.length+' items selected<br>Total: '+formatSize(totalSize)}}");
-        html.append("function formatSize(b){if(b<=0)return'0 B';let u=['B','KB','MB','GB','TB'];let i=Math.floor(Math.log(b)/Math.log(1024));return(b/Math.pow(1024,i)).toFixed(1)+' '+u[i]}");
-        html.append("document.querySelectorAll('input[name=selected]').forEach(c=>c.addEventListener('change',updateFileInfoPanel));");
-        html.append("document.querySelectorAll('.file-item').forEach(item=>{let n=item.dataset.name;let s=parseInt(item.dataset.size)||0;let m=parseInt(item.dataset.modified)||0;fileData[n]={size:s,modified:m}});");
-        html.append("let activeInput=null;let uploadFiles=[];");
-        html.append("function updateFileStatus(){let fi=document.getElementById('fileInput');let fo=document.getElementById('folderInput');let sf=document.getElementById('selectedFiles');let btn=document.getElementById('uploadBtn');let allFiles=activeInput==='file'?Array.from(fi.files):(activeInput==='folder'?Array.from(fo.files):[]);uploadFiles=allFiles.filter(f=>{let n=(f.webkitRelativePath||f.name).split('/').pop();return!n.startsWith('.')&&n!=='Thumbs.db'&&n!=='desktop.ini'});let count=uploadFiles.length;if(count>0){let totalSize=uploadFiles.reduce((a,f)=>a+f.size,0);let names=uploadFiles.map(f=>f.webkitRelativePath||f.name);sf.innerHTML=count+' file(s) selected ('+formatSize(totalSize)+'):<br>'+names.slice(0,5).join(', ')+(names.length>5?' ...':'');btn.disabled=false}else{sf.textContent='';btn.disabled=true}}");
-        html.append("document.getElementById('fileInput').addEventListener('change',function(){activeInput='file';updateFileStatus()});");
-        html.append("document.getElementById('folderInput').addEventListener('change',function(){activeInput='folder';updateFileStatus()});");
-        html.append("const CONCURRENCY=4;");
-        html.append("async function startUpload(){if(uploadFiles.length===0)return;let btn=document.getElementById('uploadBtn');let prog=document.getElementById('uploadProgress');let bar=document.getElementById('progressBar');let pct=document.getElementById('progressPercent');let txt=document.getElementById('progressText');let spd=document.getElementById('progressSpeed');let overwrite=document.getElementById('overwriteCheck').checked;btn.disabled=true;btn.textContent='Uploading...';prog.style.display='block';let totalFiles=uploadFiles.length;let totalBytes=uploadFiles.reduce((a,f)=>a+f.size,0);let uploadedBytes=0;let uploadedFiles=0;let success=0;let skipped=0;let failed=[];let queue=[...uploadFiles];let startTime=Date.now();function updateProgress(){let p=totalBytes>0?(uploadedBytes/totalBytes*100):0;bar.style.width=p+'%';pct.textContent=Math.round(p)+'%';txt.textContent=uploadedFiles+' / '+totalFiles+' files ('+formatSize(uploadedBytes)+' / '+formatSize(totalBytes)+')';let elapsed=(Date.now()-startTime)/1000;let speed=elapsed>0?uploadedBytes/elapsed:0;spd.textContent='Speed: '+formatSize(speed)+'/s'}");
-        html.append("function uploadFile(file){return new Promise((resolve)=>{let fname=file.webkitRelativePath||file.name;let fd=new FormData();fd.append('uploadedFile',file,fname);fd.append('originalPath',fname);if(overwrite)fd.append('overwrite','true');let xhr=new XMLHttpRequest();xhr.upload.onprogress=function(e){if(e.lengthComputable){let prev=file._uploaded||0;file._uploaded=e.loaded;uploadedBytes+=e.loaded-prev;updateProgress()}};xhr.onload=function(){if(xhr.status>=200&&xhr.status<300){success++;resolve(true)}else{if(xhr.responseText.includes('exists')){skipped++;failed.push(fname+' (exists)')}else{failed.push(fname)}resolve(false)}};xhr.onerror=function(){failed.push(fname+' (error)');resolve(false)};xhr.open('POST',window.location.pathname);xhr.send(fd)})}");
-        html.append("async function worker(){while(queue.length>0){let file=queue.shift();if(!file)continue;await uploadFile(file);uploadedFiles++;updateProgress()}}");
-        html.append("let workers=[];for(let i=0;i<CONCURRENCY;i++)workers.push(worker());await Promise.all(workers);btn.textContent='Upload';btn.disabled=false;prog.style.display='none';bar.style.width='0%';let msg='Uploaded: '+success;if(skipped>0)msg+='\\nSkipped (exists): '+skipped;if(failed.length>skipped)msg+='\\nFailed: '+(failed.length-skipped);alert(msg);history.replaceState(null,'',window.location.pathname);let a=document.createElement('a');a.href=window.location.pathname;document.body.appendChild(a);a.click()}");
-        html.append("document.querySelector('.file-list').addEventListener('contextmenu',function(e){if(e.target===this||e.target.classList.contains('empty')){showEmptyContextMenu(e)}});");
-        html.append("initTheme();");
-        html.append("</script>");
-        
-        html.append("</body></html>");
-        return newFixedLengthResponse(Response.Status.OK, "text/html", html.toString());
+    // snapshot == null reads the directory now, after sending what was rendered so far.
+    private void writeEntries(HtmlWriter out, File dir, DirectorySnapshot snapshot, String uri) throws IOException {
+        if (snapshot == null) {
+            out.flush();
+            snapshot = directoryCache.get(dir);
+        }
+        if (snapshot == null) {
+            out.raw("<div class='empty'>Cannot read directory: ").text(dir.getAbsolutePath()).raw("</div>");
+            return;
+        }
+        if (snapshot.size() == 0) {
+            out.raw("<div class='empty'>This folder is empty. Right-click to create a folder.</div>");
+            return;
+        }
+        for (DirectoryScanner.Entry f : snapshot.getEntries()) {
+            String name = f.name;
+            String link = uri + (uri.endsWith("/") ? "" : "/") + name;
+            boolean isDir = f.directory;
+            out.raw("<div class='file-item' oncontextmenu='showContextMenu(event,\"").jsString(name).raw("\",").raw(isDir ? "true" : "false")
+                    .raw(",\"").jsString(link).raw("\")' data-name='").text(name).raw("' data-size='").number(f.size)
+                    .raw("' data-modified='").number(f.modified).raw("'");
+            if (!isDir && ThumbnailService.canThumbnail(name)) {
+                out.raw(" data-thumb='").text("/thumb" + link).raw("'");
+            }
+            out.raw(">");
+            out.raw("<input type='checkbox' name='selected' value='").text(name).raw("'>");
+            if (isDir) {
+                out.raw("<span class='file-icon'>").raw(FileTypes.ICON_FOLDER).raw("</span>");
+                out.raw("<div class='file-info'>");
+                out.raw("<a class='file-name' href='").text(link).raw("/'>").text(name).raw("</a>");
+                out.raw("<div class='file-meta'>Folder</div>");
+                out.raw("</div>");
+                out.raw("<div class='file-actions'>");
+                out.raw("<a class='btn btn-success' href='").text(link).raw("/?zip'>ZIP</a>");
+                out.raw("</div>");
+            } else {
+                FileTypes.Type type = FileTypes.forName(name);
+                out.raw("<span class='file-icon'>").raw(type.icon).raw("</span>");
+                out.raw("<div class='file-info'>");
+                out.raw("<a class='file-name' href='").text(link).raw("'>").text(name).raw("</a>");
+                out.raw("<div class='file-meta'>").raw(formatFileSize(f.size)).raw("</div>");
+                out.raw("</div>");
+                out.raw("<div class='file-actions'>");
+                if (type.preview != FileTypes.PreviewKind.NONE) {
+                    out.raw("<a class='btn btn-primary' href='").text(link).raw("?preview' target='_blank'>Preview</a>");
+                }
+                out.raw("<a class='btn btn-success' href='").text(link).raw("?download'>Download</a>");
+                out.raw("</div>");
+            }
+            out.raw("</div>");
+        }
     }
 
     private Response serveFile(File file, IHTTPSession session) {
@@ -427,132 +378,269 @@ public class WebServer extends NanoHTTPD {
             String uri = session.getUri();
             String queryString = session.getQueryParameterString();
             
-            if ("preview".equals(queryString)) {
-                String filename = file.getName().toLowerCase();
-                String previewStyle = "<!DOCTYPE html><html><head><meta charset='UTF-8'><meta name='viewport' content='width=device-width,initial-scale=1'><style>body{margin:0;padding:20px;background:#1a1a2e;color:#eee;font-family:system-ui,sans-serif}pre{background:#16213e;padding:20px;border-radius:8px;overflow-x:auto;white-space:pre-wrap;word-wrap:break-word;font-size:14px;line-height:1.5}.header{display:flex;justify-content:space-between;align-items:center;margin-bottom:20px;flex-wrap:wrap;gap:10px}h2{margin:0;color:#4da6ff}.back-btn{background:#4da6ff;color:#fff;padding:8px 16px;border-radius:6px;text-decoration:none;font-size:14px}.media-container{text-align:center;background:#16213e;border-radius:8px;padding:20px}img,video,audio{max-width:100%;height:auto;border-radius:4px}iframe{border:none;border-radius:4px}</style></head><body>";
-                String previewEnd = "</body></html>";
-                String backLink = "<a class='back-btn' href='javascript:history.back()'>Back</a>";
-                String downloadLink = "<a class='back-btn' href='" + uri + "?download' style='background:#28a745;margin-left:8px'>Download</a>";
-                String headerHtml = "<div class='header'><h2>" + escapeHtml(file.getName()) + "</h2><div>" + backLink + downloadLink + "</div></div>";
-                
-                // Images - embed as base64 to avoid auth issues with nested requests
-                if (filename.endsWith(".jpg") || filename.endsWith(".jpeg") || filename.endsWith(".png") || 
-                    filename.endsWith(".gif") || filename.endsWith(".webp") || filename.endsWith(".bmp") || 
-                    filename.endsWith(".ico") || filename.endsWith(".svg")) {
-                    try {
-                        String mimeType = getMimeTypeForFile(filename);
-                        String base64 = encodeFileToBase64(file);
-                        return newFixedLengthResponse(Response.Status.OK, "text/html", 
-                            previewStyle + headerHtml + "<div class='media-container'><img src='data:" + mimeType + ";base64," + base64 + "' alt='Preview'></div>" + previewEnd);
-                    } catch (Exception e) {
-                        return newFixedLengthResponse(Response.Status.OK, "text/html", 
-                            previewStyle + headerHtml + "<p>Error loading image: " + escapeHtml(e.getMessage()) + "</p>" + previewEnd);
-                    }
-                }
-                
-                // Videos
-                if (filename.endsWith(".mp4") || filename.endsWith(".webm") || filename.endsWith(".mov") || filename.endsWith(".m4v")) {
-                    return newFixedLengthResponse(Response.Status.OK, "text/html", 
-                        previewStyle + headerHtml + "<div class='media-container'><video controls autoplay style='max-height:80vh'><source src='" + uri + "'></video></div>" + previewEnd);
-                }
-                
-                // Audio
-                if (filename.endsWith(".mp3") || filename.endsWith(".wav") || filename.endsWith(".ogg") || 
-                    filename.endsWith(".m4a") || filename.endsWith(".flac") || filename.endsWith(".aac")) {
-                    return newFixedLengthResponse(Response.Status.OK, "text/html", 
-                        previewStyle + headerHtml + "<div class='media-container'><audio controls autoplay style='width:100%;max-width:500px'><source src='" + uri + "'></audio></div>" + previewEnd);
-                }
-                
-                // PDF
-                if (filename.endsWith(".pdf")) {
-                    return newFixedLengthResponse(Response.Status.OK, "text/html", 
-                        previewStyle + headerHtml + "<iframe src='" + uri + "' style='width:100%;height:80vh'></iframe>" + previewEnd);
-                }
-                
-                // Text-based files
-                if (filename.endsWith(".txt") || filename.endsWith(".json") || filename.endsWith(".xml") || 
-                    filename.endsWith(".html") || filename.endsWith(".htm") || filename.endsWith(".css") || 
-                    filename.endsWith(".js") || filename.endsWith(".md") || filename.endsWith(".log") || 
-                    filename.endsWith(".csv") || filename.endsWith(".py") || filename.endsWith(".java") || 
-                    filename.endsWith(".kt") || filename.endsWith(".c") || filename.endsWith(".cpp") || 
-                    filename.endsWith(".h") || filename.endsWith(".sh") || filename.endsWith(".yml") || 
-                    filename.endsWith(".yaml") || filename.endsWith(".ini") || filename.endsWith(".conf") || 
-                    filename.endsWith(".cfg") || filename.endsWith(".properties") || filename.endsWith(".sql") ||
-                    filename.endsWith(".ts") || filename.endsWith(".tsx") || filename.endsWith(".jsx") ||
-                    filename.endsWith(".rb") || filename.endsWith(".go") || filename.endsWith(".rs") ||
-                    filename.endsWith(".swift") || filename.endsWith(".gradle") || filename.endsWith(".toml")) {
-                    try {
-                        String content = readTextFile(file);
-                        if (content.length() > 500000) {
-                            content = content.substring(0, 500000) + "\n\n... [File truncated - too large to preview] ...";
+            if (session.getParameters().containsKey("follow") && isFollowable(file.getName())) {
+                return followFile(file, session);
+            }
+
+            if (session.getParameters().containsKey("preview")) {
+                HtmlTemplate.Page preview = previewPage
+                        .with("css", staticAssets.url("preview.css"))
+                        .with("js", staticAssets.url("preview.js"))
+                        .with("name", file.getName())
+                        .with("uri", uri);
+
+                switch (FileTypes.detect(file).preview) {
+                    case IMAGE:
+                        // A signed URL avoids auth issues with nested requests and streams the file
+                        String src = urlSigner.sign(uri);
+                        return preview.with("body", out -> out.raw("<div class='media-container'><img src='").text(src).raw("' alt='Preview'></div>"))
+                                .respond(Response.Status.OK);
+                    case VIDEO:
+                        return preview.with("body", out -> out.raw("<div class='media-container'><video controls autoplay style='max-height:80vh'><source src='").text(uri).raw("'></video></div>"))
+                                .respond(Response.Status.OK);
+                    case AUDIO:
+                        return preview.with("body", out -> out.raw("<div class='media-container'><audio controls autoplay style='width:100%;max-width:500px'><source src='").text(uri).raw("'></audio></div>"))
+                                .respond(Response.Status.OK);
+                    case PDF:
+                        return preview.with("body", out -> out.raw("<iframe src='").text(uri).raw("' style='width:100%;height:80vh'></iframe>"))
+                                .respond(Response.Status.OK);
+                    case TEXT:
+                        TextPager.Page page;
+                        try {
+                            page = TextPager.read(file, longParam(session, "offset", 0), charsetParam(session));
+                        } catch (IOException e) {
+                            return preview.with("body", out -> out.raw("<p>Error reading file: ").text(e.getMessage()).raw("</p>"))
+                                    .respond(Response.Status.OK);
                         }
-                        return newFixedLengthResponse(Response.Status.OK, "text/html", 
-                            previewStyle + headerHtml + "<pre>" + escapeHtml(content) + "</pre>" + previewEnd);
-                    } catch (Exception e) {
-                        return newFixedLengthResponse(Response.Status.OK, "text/html", 
-                            previewStyle + headerHtml + "<p>Error reading file: " + escapeHtml(e.getMessage()) + "</p>" + previewEnd);
-                    }
+                        boolean followable = isFollowable(file.getName());
+                        return preview.with("body", out -> writeTextPage(out, uri, page, followable)).respond(Response.Status.OK);
+                    default:
+                        break;
                 }
-                
+
                 // Unsupported type
-                return newFixedLengthResponse(Response.Status.OK, "text/html", 
-                    previewStyle + headerHtml + "<div class='media-container'><p style='color:#888'>Preview not available for this file type.</p><p><a href='" + uri + "?download' style='color:#4da6ff'>Download the file instead</a></p></div>" + previewEnd);
+                return preview.with("body", out -> out.raw("<div class='media-container'><p style='color:#888'>Preview not available for this file type.</p><p><a href='").text(uri).raw("?download' style='color:#4da6ff'>Download the file instead</a></p></div>"))
+                        .respond(Response.Status.OK);
             }
             
             if ("download".equals(queryString)) {
-                if (eventListener != null) {
-                    eventListener.onFileDownloaded(file.getName(), getClientIp(session));
+                Response response = serveFileContent(file, "application/octet-stream", session);
+                if (response instanceof FileResponse && session.getMethod() == Method.GET) {
+                    FileResponse download = (FileResponse) response;
+                    if (eventListener != null && download.includesStart()) {
+                        eventListener.onFileDownloaded(file.getName(), getClientIp(session));
+                    }
+                    String name = file.getName();
+                    download.setTransferListener((sent, millis, complete) -> {
+                        bytesServed.addAndGet(sent);
+                        Log.d("AROMA", "Download " + (complete ? "finished" : "aborted") + ": " + name + ", "
+                                + sent + " bytes in " + millis + " ms (" + (sent * 1000 / Math.max(1, millis) / (1024 * 1024)) + " MB/s)");
+                    });
                 }
-                FileInputStream fis = new FileInputStream(file);
-                Response response = newChunkedResponse(Response.Status.OK, "application/octet-stream", fis);
-                response.addHeader("Content-Disposition", "attachment; filename=\"" + file.getName() + "\"");
-                response.addHeader("Content-Length", String.valueOf(file.length()));
+                response.addHeader("Content-Disposition", FileResponse.attachmentDisposition(file.getName()));
                 return response;
             }
             
-            FileInputStream fis = new FileInputStream(file);
-            return newChunkedResponse(Response.Status.OK, getMimeTypeForFile(file.getName()), fis);
+            Response response = serveFileContent(file, FileTypes.detect(file).mimeType, session);
+            if (response instanceof FileResponse) {
+                ((FileResponse) response).setTransferListener((sent, millis, complete) -> bytesServed.addAndGet(sent));
+            }
+            return response;
         } catch (IOException e) {
             return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, "text/plain", e.toString());
         }
     }
+
+    private Response serveThumbnail(IHTTPSession session, File source) {
+        if (PathSegments.climbs(session.getUri()) || !source.isFile() || !ThumbnailService.canThumbnail(source.getName())) {
+            return newFixedLengthResponse(Response.Status.NOT_FOUND, "text/plain", "Not found");
+        }
+        int size;
+        try {
+            List<String> param = session.getParameters().get("s");
+            size = param != null ? Integer.parseInt(param.get(0)) : 256;
+        } catch (NumberFormatException e) {
+            size = -1;
+        }
+        if (!ThumbnailService.isValidSize(size)) {
+            return newFixedLengthResponse(Response.Status.BAD_REQUEST, "text/plain", "s must be 128, 256 or 512");
+        }
+        // Derived from the source, so revalidation never has to decode anything
+        String etag = "\"" + Long.toHexString(source.length()) + "-" + Long.toHexString(source.lastModified()) + "-" + size + "\"";
+        if (CacheValidators.isNotModified(session, etag, source.lastModified())) {
+            return CacheValidators.notModified(etag, source.lastModified());
+        }
+        try {
+            Response response = FileResponse.full(thumbnails.get(source, size), ThumbnailService.mimeType());
+            response.addHeader("ETag", etag);
+            response.addHeader("Last-Modified", HttpDate.format(source.lastModified()));
+            return response;
+        } catch (ThumbnailService.BusyException e) {
+            Response response = newFixedLengthResponse(Response.Status.SERVICE_UNAVAILABLE, "text/plain", e.getMessage());
+            response.addHeader("Retry-After", "1");
+            return response;
+        } catch (IOException e) {
+            Log.e("AROMA", "Thumbnail failed for " + source.getName() + ": " + e.getMessage());
+            return newFixedLengthResponse(Response.Status.UNSUPPORTED_MEDIA_TYPE, "text/plain", e.getMessage());
+        }
+    }
+
+    private Response serveFileContent(File file, String mimeType, IHTTPSession session) throws IOException {
+        long length = file.length();
+        String etag = CacheValidators.fileETag(file);
+        if (CacheValidators.isNotModified(session, etag, file.lastModified())) {
+            return CacheValidators.notModified(etag, file.lastModified());
+        }
+        String rangeHeader = session.getHeaders().get("range");
+        if (rangeHeader != null && ifRangeMatches(session, file)) {
+            List<ByteRange> ranges = ByteRange.parse(rangeHeader, length);
+            if (ranges != null && ranges.isEmpty()) {
+                Response response = newFixedLengthResponse(Response.Status.RANGE_NOT_SATISFIABLE, "text/plain", "Requested range not satisfiable");
+                response.addHeader("Content-Range", "bytes */" + length);
+                response.addHeader("Accept-Ranges", "bytes");
+                return response;
+            }
+            if (ranges != null) {
+                FileResponse response = FileResponse.partial(file, mimeType, ranges);
+                // Repr-Digest covers the whole file, so a part can only carry one known beforehand
+                String knownSha256 = ContentDigest.wantsSha256(session) ? hashIndex.hashOf(file) : null;
+                if (knownSha256 != null) {
+                    response.addHeader("Repr-Digest", ContentDigest.sha256Header(knownSha256));
+                }
+                return response;
+            }
+        }
+        FileResponse response = FileResponse.full(file, mimeType);
+        ContentDigest digest = ContentDigest.wanted(session);
+        if (digest != null) {
+            String knownSha256 = ContentDigest.wantsSha256(session) ? hashIndex.hashOf(file) : null;
+            if (knownSha256 != null) {
+                // indexed and unchanged: the file still goes out with sendfile
+                response.addHeader("Repr-Digest", ContentDigest.sha256Header(knownSha256));
+            } else if (session.getMethod() != Method.HEAD) {
+                response.sendDigestTrailer(digest);
+            }
+        }
+        return response;
+    }
+
+    // A Range is only honoured while the client's copy is still the current representation.
+    private boolean ifRangeMatches(IHTTPSession session, File file) {
+        String ifRange = session.getHeaders().get("if-range");
+        if (ifRange == null) return true;
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return CacheValidators.strongMatch(ifRange.trim(), CacheValidators.fileETag(file));
+        }
+        long date = HttpDate.parse(ifRange);
+        return date != -1 && HttpDate.sameSecond(date, file.lastModified());
+    }
     
-    private String escapeHtml(String text) {
-        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    private static boolean isFollowable(String name) {
+        String extension = FileTypes.extension(name);
+        return extension.equals("log") || extension.equals("txt");
+    }
+
+    private Response followFile(File file, IHTTPSession session) {
+        // An EventSource reconnecting after a drop resumes from the last offset it saw
+        String lastEventId = session.getHeaders().get("last-event-id");
+        long from = lastEventId != null ? parseLongOr(lastEventId, -1) : -1;
+        FollowResponse response = FollowResponse.open(file, from);
+        if (response == null) {
+            Response busy = newFixedLengthResponse(Response.Status.SERVICE_UNAVAILABLE, "text/plain", "Too many files are being followed");
+            busy.addHeader("Retry-After", "10");
+            return busy;
+        }
+        Log.d("AROMA", "Following " + file.getName() + " for " + getClientIp(session));
+        return response;
+    }
+
+    private static long parseLongOr(String value, long fallback) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
     }
 
-    private String encodeFileToBase64(File file) throws IOException {
-        FileInputStream fis = new FileInputStream(file);
-        byte[] bytes = new byte[(int) file.length()];
-        fis.read(bytes);
-        fis.close();
-        return Base64.getEncoder().encodeToString(bytes);
+    private void writeTextPage(HtmlWriter out, String uri, TextPager.Page page, boolean followable) throws IOException {
+        String base = uri + "?preview&charset=" + page.charset.name() + "&offset=";
+        out.raw("<div class='pager'>");
+        if (page.hasPrevious()) {
+            out.raw("<a class='back-btn' href='").text(base + 0).raw("'>&laquo; First</a>");
+            out.raw("<a class='back-btn' href='").text(base + page.previousOffset()).raw("'>&lsaquo; Previous</a>");
+        }
+        out.raw("<span>Bytes ").number(page.start).raw("&ndash;").number(page.end).raw(" of ").number(page.fileSize)
+                .raw(" (").text(page.charset.name()).raw(")</span>");
+        if (page.hasNext()) {
+            out.raw("<a class='back-btn' href='").text(base + page.end).raw("'>Next &rsaquo;</a>");
+            out.raw("<a class='back-btn' href='").text(base + Math.max(page.end, page.fileSize - TextPager.PAGE_BYTES)).raw("'>Last &raquo;</a>");
+        }
+        out.raw("<form method='get'><input type='hidden' name='preview' value=''><input type='hidden' name='charset' value='")
+                .text(page.charset.name()).raw("'><input type='number' name='offset' min='0' max='").number(page.fileSize)
+                .raw("' value='").number(page.start).raw("'><button class='back-btn' type='submit'>Jump</button></form>");
+        if (followable) {
+            out.raw("<button class='back-btn' id='followBtn' type='button' data-src='").text(uri + "?follow").raw("'>Follow</button>");
+        }
+        out.raw("</div>");
+        out.raw("<pre id='pageText'>").text(page.text).raw("</pre>");
+        if (followable) {
+            out.raw("<pre id='followOutput'></pre>");
+        }
+    }
+
+    private static long longParam(IHTTPSession session, String name, long fallback) {
+        List<String> values = session.getParameters().get(name);
+        if (values == null || values.isEmpty()) return fallback;
+        try {
+            return Math.max(0, Long.parseLong(values.get(0).trim()));
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
     }
 
-    private String readTextFile(File file) throws IOException {
-        StringBuilder content = new StringBuilder();
-        InputStream is = new FileInputStream(file);
-        int ch;
-        while ((ch = is.read()) != -1) {
-            content.append((char) ch);
+    private static Charset charsetParam(IHTTPSession session) {
+        List<String> values = session.getParameters().get("charset");
+        if (values == null || values.isEmpty()) return null;
+        try {
+            return Charset.forName(values.get(0));
+        } catch (IllegalArgumentException e) {
+            return null;
         }
-        is.close();
-        return content.toString();
     }
 
     private Response handlePost(IHTTPSession session, File currentDir, String uri) {
         Log.d("AROMA", "POST request received for URI: " + uri);
-        Map<String, String> files = new HashMap<>();
+        String contentType = session.getHeaders().get("content-type");
+        boolean tar = contentType != null && contentType.toLowerCase().startsWith("application/x-tar");
+        String boundary = MultipartReader.boundary(contentType);
+        if (tar || boundary != null) {
+            String lengthHeader = session.getHeaders().get("content-length");
+            long length = lengthHeader != null ? parseLongOr(lengthHeader, -1) : -1;
+            // the whole body counts against free space: files plus a little framing
+            StorageGuard.Reservation space = storageGuard.reserve(length);
+            if (space == null) {
+                return storageGuard.insufficient(length);
+            }
+            UploadThrottle.Ticket ticket = uploadThrottle.tryAcquire(length);
+            if (ticket == null) {
+                space.close();
+                return uploadThrottle.busy();
+            }
+            try {
+                return tar ? handleTarUpload(session, currentDir, ticket) : handleUpload(session, currentDir, uri, boundary, ticket);
+            } finally {
+                ticket.close();
+                space.close();
+            }
+        }
+        Map<String, List<String>> params;
         try {
-            session.parseBody(files);
-            Log.d("AROMA", "Parsed body files: " + files.size());
+            params = readFormParameters(session);
         } catch (Exception e) {
             Log.e("AROMA", "Parse body failed: " + e.getMessage());
             return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, "text/plain", e.toString());
         }
 
-        Map<String, List<String>> params = session.getParameters();
-
         if (params.containsKey("action") && "delete".equals(params.get("action").get(0))) {
             List<String> selected = params.get("selected");
             if (selected == null || selected.isEmpty()) {
@@ -585,6 +673,7 @@ public class WebServer extends NanoHTTPD {
                     failCount++;
                 }
             }
+            directoryCache.invalidate(currentDir);
             if (failCount == 0) {
                 return redirectResponse(uri);
             }
@@ -592,6 +681,14 @@ public class WebServer extends NanoHTTPD {
             return buildResultResponse(title, "Deleted: " + successCount + ", Failed: " + failCount, results.toString(), uri, false);
         }
 
+        if (params.containsKey("action") && "zip".equals(params.get("action").get(0))) {
+            List<String> selected = params.get("selected");
+            if (selected == null || selected.isEmpty()) {
+                return buildErrorResponse("Download Failed", "No files selected for download.", uri);
+            }
+            return serveZip(currentDir, selected);
+        }
+
         if (params.containsKey("action") && "create_folder".equals(params.get("action").get(0))) {
             List<String> folderNames = params.get("folder_name");
             if (folderNames == null || folderNames.isEmpty() || folderNames.get(0).trim().isEmpty()) {
@@ -606,6 +703,7 @@ public class WebServer extends NanoHTTPD {
                 return buildErrorResponse("Create Folder Failed", "A file or folder named '" + folderName + "' already exists.", uri);
             }
             if (newFolder.mkdir()) {
+                directoryCache.invalidate(currentDir);
                 if (eventListener != null) {
                     eventListener.onFolderCreated(folderName, getClientIp(session));
                 }
@@ -638,179 +736,440 @@ public class WebServer extends NanoHTTPD {
                 return buildErrorResponse("Rename Failed", "A file or folder named '" + newName + "' already exists.", uri);
             }
             if (toRename.renameTo(destination)) {
+                directoryCache.invalidate(currentDir);
                 return redirectResponse(uri);
             } else {
                 return buildErrorResponse("Rename Failed", "Could not rename '" + selected + "'. File may be in use or permission denied.", uri);
             }
         }
 
-        // Handle upload (supports multiple files and folder uploads)
+        return newFixedLengthResponse(Response.Status.BAD_REQUEST, "text/plain", "Invalid POST request");
+    }
+
+    // PUT /<path> for scripts: the body (Content-Length or chunked) goes straight into
+    // a ".<name>.<random>.part" beside the target, which is then renamed over it; concurrent PUTs
+    // to one path each get their own part file. If-None-Match: * refuses to replace an existing
+    // file. Missing parent folders are created.
+    private Response handlePut(IHTTPSession session, File target, String uri) {
+        Map<String, String> headers = session.getHeaders();
+        boolean chunked = "chunked".equalsIgnoreCase(headers.get("transfer-encoding"));
+        String lengthHeader = headers.get("content-length");
+        long length = lengthHeader != null ? parseLongOr(lengthHeader.trim(), -1) : -1;
+        Response refused = null;
+        if (!chunked && length < 0) {
+            refused = newFixedLengthResponse(Response.Status.LENGTH_REQUIRED, "application/json", "{\"error\":\"Content-Length or chunked encoding required\"}");
+        } else if (PathSegments.climbs(uri) || uri.endsWith("/") || target.equals(rootDir)) {
+            refused = newFixedLengthResponse(Response.Status.BAD_REQUEST, "application/json", "{\"error\":\"Invalid path\"}");
+        } else if (target.isDirectory()) {
+            refused = newFixedLengthResponse(Response.Status.CONFLICT, "application/json", "{\"error\":\"A folder with that name exists\"}");
+        } else if ("*".equals(headers.get("if-none-match")) && target.exists()) {
+            refused = newFixedLengthResponse(Response.Status.PRECONDITION_FAILED, "application/json", "{\"error\":\"File exists\"}");
+        }
+        File parent = target.getParentFile();
+        if (refused == null && !parent.isDirectory() && !parent.mkdirs()) {
+            refused = newFixedLengthResponse(Response.Status.INTERNAL_ERROR, "application/json", "{\"error\":\"Cannot create folder\"}");
+        }
+        if (refused != null) {
+            // the body was never read
+            refused.addHeader("Connection", "close");
+            return refused;
+        }
+
+        // a chunked body has no length to check in advance
+        StorageGuard.Reservation space = storageGuard.reserve(length);
+        if (space == null) {
+            return storageGuard.insufficient(length);
+        }
+        UploadThrottle.Ticket ticket = uploadThrottle.tryAcquire(length);
+        if (ticket == null) {
+            space.close();
+            return uploadThrottle.busy();
+        }
+        File partFile;
+        try {
+            partFile = PartFiles.create(target);
+        } catch (IOException e) {
+            space.close();
+            ticket.close();
+            Log.e("AROMA", "PUT " + uri + ": cannot create part file: " + e.getMessage());
+            Response response = newFixedLengthResponse(Response.Status.INTERNAL_ERROR, "application/json", "{\"error\":" + Json.quote("Cannot create file: " + e.getMessage()) + "}");
+            response.addHeader("Connection", "close");
+            return response;
+        }
+        StreamingResponse.sendContinue(session);
+        boolean existed = target.exists();
+        long start = System.currentTimeMillis();
+        long received = 0;
+        ContentDigest digest = ContentDigest.forUpload(session);
+        InputStream in = chunked ? new ChunkedInputStream(session.getInputStream()) : session.getInputStream();
+        try (space; ticket;
+             OutputStream out = ticket.meter(new FileOutputStream(partFile))) {
+            byte[] buffer = new byte[64 * 1024];
+            while (chunked || received < length) {
+                int read = in.read(buffer, 0, chunked ? buffer.length : (int) Math.min(buffer.length, length - received));
+                if (read < 0) {
+                    if (chunked) break;
+                    throw new IOException("Body ended after " + received + " of " + length + " bytes");
+                }
+                out.write(buffer, 0, read);
+                digest.update(buffer, 0, read);
+                received += read;
+            }
+        } catch (IOException e) {
+            partFile.delete();
+            Log.e("AROMA", "PUT " + uri + " failed: " + e.getMessage());
+            Response response = newFixedLengthResponse(Response.Status.BAD_REQUEST, "application/json", "{\"error\":" + Json.quote("Upload failed: " + e.getMessage()) + "}");
+            response.addHeader("Connection", "close");
+            return response;
+        }
+        // the body was checked against the client's Content-Digest before anything is replaced
+        if (!digest.matches(headers.get("content-digest"))) {
+            partFile.delete();
+            Log.e("AROMA", "PUT " + uri + ": digest mismatch, received " + digest.header());
+            return newFixedLengthResponse(Response.Status.BAD_REQUEST, "application/json",
+                    "{\"error\":\"Content-Digest does not match the received body\"" + digest.jsonFields() + "}");
+        }
+        try {
+            PartFiles.moveIntoPlace(partFile, target);
+        } catch (IOException e) {
+            partFile.delete();
+            Log.e("AROMA", "PUT " + uri + ": cannot move into place: " + e.getMessage());
+            return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, "application/json", "{\"error\":" + Json.quote("Cannot move file into place: " + e.getMessage()) + "}");
+        }
+        Log.d("AROMA", "PUT " + uri + ": " + received + " bytes in " + (System.currentTimeMillis() - start) + " ms");
+        if (digest.sha256Hex() != null) {
+            // saves the hash index a second read
+            hashIndex.record(target, digest.sha256Hex());
+        }
+        onUploadFinished(target, session);
+
+        long modified = target.lastModified();
+        Response response = newFixedLengthResponse(existed ? Response.Status.OK : Response.Status.CREATED, "application/json",
+                "{\"path\":" + Json.quote(uri) + ",\"size\":" + target.length() + ",\"mtime\":" + modified + digest.jsonFields() + "}");
+        response.addHeader("ETag", CacheValidators.fileETag(target));
+        response.addHeader("Last-Modified", HttpDate.format(modified));
+        // describes the file now stored at Content-Location, not this JSON
+        response.addHeader("Content-Location", uri);
+        response.addHeader("Repr-Digest", digest.header());
+        if (!existed) {
+            response.addHeader("Location", uri);
+        }
+        return response;
+    }
+
+    private void onUploadFinished(File target, IHTTPSession session) {
+        directoryCache.invalidate(target.getParentFile());
+        if (eventListener != null) {
+            eventListener.onFileUploaded(target.getName(), getClientIp(session));
+        }
+        mediaScans.enqueue(target);
+        hashIndex.submit(target);
+    }
+
+    // Query and form parameters. Small bodies are decoded from a pooled buffer; only large ones
+    // go through parseBody and its spool file.
+    private Map<String, List<String>> readFormParameters(IHTTPSession session) throws IOException, ResponseException {
+        String body = PooledBody.read(session);
+        if (body == null) {
+            session.parseBody(new HashMap<>());
+            return session.getParameters();
+        }
+        Map<String, List<String>> params = new HashMap<>(session.getParameters());
+        String contentType = session.getHeaders().get("content-type");
+        if (contentType == null || contentType.toLowerCase().startsWith("application/x-www-form-urlencoded")) {
+            for (Map.Entry<String, List<String>> entry : decodeParameters(body).entrySet()) {
+                List<String> values = params.get(entry.getKey());
+                if (values == null) {
+                    params.put(entry.getKey(), entry.getValue());
+                } else {
+                    values = new ArrayList<>(values);
+                    values.addAll(entry.getValue());
+                    params.put(entry.getKey(), values);
+                }
+            }
+        }
+        return params;
+    }
+
+    // Uploads (multiple files and folder uploads) are parsed while they arrive: each file part is
+    // checked against its target first, then written to its own ".<name>.<random>.part" beside it
+    // and renamed into place, so the data is written once, a half-received file never shows up
+    // under its name and two uploads of the same name never write to the same part file.
+    private Response handleUpload(IHTTPSession session, File currentDir, String uri, String boundary, UploadThrottle.Ticket ticket) {
+        String lengthHeader = session.getHeaders().get("content-length");
+        long contentLength = lengthHeader != null ? parseLongOr(lengthHeader.trim(), -1) : -1;
+        if (contentLength < 0) {
+            Response response = newFixedLengthResponse(Response.Status.LENGTH_REQUIRED, "text/plain", "Content-Length required");
+            response.addHeader("Connection", "close");
+            return response;
+        }
         List<String> uploadedFileNames = new ArrayList<>();
         List<String> failedFiles = new ArrayList<>();
+        // "name  crc32c ... sha-256 ..." per stored file, and the last file's digest and URL
+        List<String> digests = new ArrayList<>();
+        ContentDigest lastDigest = null;
+        String lastLocation = null;
         long totalSize = 0;
-        
-        // Check if overwrite mode is enabled
-        List<String> overwriteValues = params.get("overwrite");
-        boolean overwriteMode = overwriteValues != null && !overwriteValues.isEmpty() && "true".equals(overwriteValues.get(0));
-        
-        for (String key : files.keySet()) {
-            if (!key.startsWith("uploadedFile")) continue;
-            
-            String tempLocation = files.get(key);
-            List<String> paramValues = session.getParameters().get(key);
-            if (paramValues == null || paramValues.isEmpty()) continue;
-            
-            // Try to get the original path from the separate form field (better UTF-8 handling)
-            List<String> originalPathValues = session.getParameters().get("originalPath");
-            String originalName = (originalPathValues != null && !originalPathValues.isEmpty()) 
-                ? originalPathValues.get(0) 
-                : paramValues.get(0);
-            if (originalName == null || originalName.isEmpty()) continue;
-            
-            // Skip hidden/system files
-            String fileName = originalName.contains("/") ? originalName.substring(originalName.lastIndexOf("/") + 1) : originalName;
-            if (fileName.startsWith(".") || fileName.equals("Thumbs.db") || fileName.equals("desktop.ini")) {
-                Log.d("AROMA", "Skipping hidden/system file: " + originalName);
-                new File(tempLocation).delete();
-                continue;
-            }
-            
-            // Handle folder structure (webkitRelativePath includes folder/file.ext)
-            String targetPath = originalName.replace("\\", "/");
-            if (targetPath.contains("..") || targetPath.startsWith("/")) {
-                failedFiles.add(originalName + " (invalid path)");
-                continue;
-            }
-            
-            File tempFile = new File(tempLocation);
-            File targetFile = new File(currentDir, targetPath);
-            
-            // Create parent directories for folder uploads
-            File parentDir = targetFile.getParentFile();
-            if (parentDir != null && !parentDir.equals(currentDir)) {
-                if (!parentDir.exists() && !parentDir.mkdirs()) {
-                    Log.e("AROMA", "Cannot create directory for: " + originalName);
-                    failedFiles.add(originalName + " (cannot create directory)");
-                    tempFile.delete();
+        // The page sends these fields ahead of each file part, so they are known before its body
+        String originalPath = null;
+        boolean overwriteMode = false;
+
+        MultipartReader reader = new MultipartReader(session.getInputStream(), contentLength, boundary);
+        try {
+            MultipartReader.Part part;
+            while ((part = reader.next()) != null) {
+                if (!part.isFile()) {
+                    if ("originalPath".equals(part.name)) {
+                        originalPath = reader.readString(4096);
+                    } else if ("overwrite".equals(part.name)) {
+                        overwriteMode = "true".equals(reader.readString(16).trim());
+                    }
                     continue;
                 }
-            }
-            
-            if (targetFile.exists()) {
-                if (overwriteMode) {
-                    Log.d("AROMA", "Overwriting existing file: " + originalName);
-                    if (!targetFile.delete()) {
-                        Log.e("AROMA", "Cannot delete existing file for overwrite: " + originalName);
-                        failedFiles.add(originalName + " (cannot overwrite)");
-                        tempFile.delete();
+                if (part.name == null || !part.name.startsWith("uploadedFile")) continue;
+
+                // Prefer the separate form field (better UTF-8 handling) over the part's filename
+                String originalName = originalPath != null ? originalPath : part.filename;
+                originalPath = null;
+                if (originalName == null || originalName.isEmpty()) continue;
+
+                // Skip hidden/system files
+                String fileName = originalName.contains("/") ? originalName.substring(originalName.lastIndexOf("/") + 1) : originalName;
+                if (fileName.startsWith(".") || fileName.equals("Thumbs.db") || fileName.equals("desktop.ini")) {
+                    Log.d("AROMA", "Skipping hidden/system file: " + originalName);
+                    continue;
+                }
+
+                // Handle folder structure (webkitRelativePath includes folder/file.ext)
+                String targetPath = originalName.replace("\\", "/");
+                if (PathSegments.climbs(targetPath) || targetPath.startsWith("/")) {
+                    failedFiles.add(originalName + " (invalid path)");
+                    continue;
+                }
+                File targetFile = new File(currentDir, targetPath);
+
+                // Create parent directories for folder uploads
+                File parentDir = targetFile.getParentFile();
+                if (parentDir != null && !parentDir.equals(currentDir)) {
+                    if (!parentDir.exists() && !parentDir.mkdirs()) {
+                        Log.e("AROMA", "Cannot create directory for: " + originalName);
+                        failedFiles.add(originalName + " (cannot create directory)");
                         continue;
                     }
-                } else {
+                }
+
+                if (targetFile.exists() && !overwriteMode) {
                     Log.d("AROMA", "File already exists: " + originalName);
                     failedFiles.add(originalName + " (already exists)");
-                    tempFile.delete();
                     continue;
                 }
-            }
-            
-            // Verify temp file
-            if (!tempFile.exists() || !tempFile.canRead()) {
-                Log.e("AROMA", "Temp file issue for " + originalName + ": exists=" + tempFile.exists() + ", canRead=" + tempFile.canRead());
-                failedFiles.add(originalName + " (temp file error)");
-                continue;
-            }
-            
-            Log.d("AROMA", "Uploading: " + originalName + " -> " + targetFile.getAbsolutePath());
-            boolean success = false;
-            try (InputStream is = new FileInputStream(tempFile);
-                 OutputStream os = new FileOutputStream(targetFile)) {
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                while ((bytesRead = is.read(buffer)) != -1) {
-                    os.write(buffer, 0, bytesRead);
+
+                Log.d("AROMA", "Uploading: " + originalName + " -> " + targetFile.getAbsolutePath());
+                File partFile = PartFiles.create(targetFile);
+                long start = System.currentTimeMillis();
+                long size;
+                ContentDigest digest = ContentDigest.forUpload(session);
+                try (OutputStream os = digest.digesting(ticket.meter(new FileOutputStream(partFile)))) {
+                    size = reader.transferTo(os);
+                } catch (IOException e) {
+                    partFile.delete();
+                    throw e;
                 }
-                success = true;
-                totalSize += targetFile.length();
-                tempFile.delete();
-            } catch (Exception e) {
-                Log.e("AROMA", "Copy failed for " + originalName + ": " + e.getMessage());
-                failedFiles.add(originalName + " (" + e.getMessage() + ")");
-            }
-            
-            if (success) {
+                // rename replaces an existing file atomically, which is all overwriting needs
+                try {
+                    PartFiles.moveIntoPlace(partFile, targetFile);
+                } catch (IOException e) {
+                    Log.e("AROMA", "Cannot move upload into place: " + originalName + ": " + e.getMessage());
+                    partFile.delete();
+                    failedFiles.add(originalName + (targetFile.exists() ? " (cannot overwrite)" : " (write failed)"));
+                    continue;
+                }
+                Log.d("AROMA", "Upload finished: " + originalName + ", " + size + " bytes in "
+                        + (System.currentTimeMillis() - start) + " ms");
+                totalSize += size;
                 uploadedFileNames.add(originalName);
+                String sha256 = digest.sha256Hex();
+                digests.add(originalName + "  crc32c " + digest.crc32cHex() + (sha256 != null ? "  sha-256 " + sha256 : ""));
+                lastDigest = digest;
+                lastLocation = (uri.endsWith("/") ? uri : uri + "/") + targetPath;
                 if (eventListener != null) {
                     eventListener.onFileUploaded(originalName, getClientIp(session));
                 }
-                MediaScannerConnection.scanFile(context, new String[]{targetFile.getAbsolutePath()}, null, null);
-            } else if (!failedFiles.contains(originalName)) {
-                failedFiles.add(originalName + " (copy failed)");
+                mediaScans.enqueue(targetFile);
+                if (sha256 != null) {
+                    hashIndex.record(targetFile, sha256);
+                }
+                hashIndex.submit(targetFile);
+            }
+        } catch (IOException e) {
+            Log.e("AROMA", "Upload aborted: " + e.getMessage());
+            if (!uploadedFileNames.isEmpty()) {
+                directoryCache.invalidate(currentDir);
             }
+            // the rest of the body is still unread, so this connection cannot carry another request
+            Response response = newFixedLengthResponse(Response.Status.BAD_REQUEST, "text/plain", "Upload aborted: " + e.getMessage());
+            response.addHeader("Connection", "close");
+            return response;
         }
-        
+
+        if (!uploadedFileNames.isEmpty()) {
+            directoryCache.invalidate(currentDir);
+        }
+
         if (!uploadedFileNames.isEmpty() || !failedFiles.isEmpty()) {
             int successCount = uploadedFileNames.size();
             int failCount = failedFiles.size();
             
+            Response response;
             if (failCount == 0) {
                 String sizeStr = formatFileSize(totalSize);
                 String fileList = successCount <= 5 
                     ? String.join(", ", uploadedFileNames) 
                     : uploadedFileNames.subList(0, 5).toString().replace("[", "").replace("]", "") + " ...";
-                String successHtml = "<!DOCTYPE html><html><head><meta charset='UTF-8'>" +
-                        "<meta http-equiv='refresh' content='3;url=" + uri + "'>" +
-                        "<style>" +
-                        "body{font-family:system-ui,sans-serif;background:#d4edda;display:flex;justify-content:center;align-items:center;min-height:100vh;margin:0}" +
-                        ".card{background:#fff;border-radius:12px;padding:40px;box-shadow:0 4px 20px rgba(0,0,0,0.1);text-align:center;max-width:500px}" +
-                        ".icon{font-size:64px;margin-bottom:16px}" +
-                        ".title{color:#155724;font-size:24px;margin-bottom:8px}" +
-                        ".count{color:#333;font-size:18px;margin:8px 0}" +
-                        ".filename{color:#333;font-size:14px;word-break:break-all;background:#f8f9fa;padding:12px;border-radius:8px;margin:16px 0;max-height:150px;overflow-y:auto}" +
-                        ".size{color:#666;font-size:14px}" +
-                        ".redirect{color:#666;font-size:12px;margin-top:20px}" +
-                        "</style></head><body>" +
-                        "<div class='card'>" +
-                        "<div class='icon'>&#10004;</div>" +
-                        "<div class='title'>Upload Successful!</div>" +
-                        "<div class='count'>" + successCount + " file(s) uploaded</div>" +
-                        "<div class='filename'>" + escapeHtml(fileList) + "</div>" +
-                        "<div class='size'>Total size: " + sizeStr + "</div>" +
-                        "<div class='redirect'>Redirecting in 3 seconds...</div>" +
-                        "</div></body></html>";
-                return newFixedLengthResponse(Response.Status.OK, "text/html", successHtml);
+                response = uploadPage
+                        .with("count", String.valueOf(successCount))
+                        .with("files", fileList)
+                        .with("size", sizeStr)
+                        .with("digests", String.join("\n", digests))
+                        .with("back", uri)
+                        .respond(Response.Status.OK);
             } else {
                 String details = "Uploaded: " + successCount + "\nFailed: " + failCount + "\n\n" + String.join("\n", failedFiles);
-                return buildResultResponse("Upload Completed with Errors", 
+                if (!digests.isEmpty()) details += "\n\n" + String.join("\n", digests);
+                response = buildResultResponse("Upload Completed with Errors", 
                     successCount + " succeeded, " + failCount + " failed", details, uri, false);
             }
+            if (successCount == 1) {
+                // one header can only describe one file, stored at Content-Location
+                response.addHeader("Content-Location", lastLocation);
+                response.addHeader("Repr-Digest", lastDigest.header());
+            }
+            return response;
         }
 
-        return newFixedLengthResponse(Response.Status.BAD_REQUEST, "text/plain", "Invalid POST request");
+        return newFixedLengthResponse(Response.Status.BAD_REQUEST, "text/plain", "No files in upload");
     }
 
-    public static String getMimeTypeForFile(String filename) {
-        String name = filename.toLowerCase();
-        if (name.endsWith(".html") || name.endsWith(".htm")) return "text/html";
-        if (name.endsWith(".jpg") || name.endsWith(".jpeg")) return "image/jpeg";
-        if (name.endsWith(".png")) return "image/png";
-        if (name.endsWith(".gif")) return "image/gif";
-        if (name.endsWith(".webp")) return "image/webp";
-        if (name.endsWith(".bmp")) return "image/bmp";
-        if (name.endsWith(".ico")) return "image/x-icon";
-        if (name.endsWith(".svg")) return "image/svg+xml";
-        if (name.endsWith(".mp4")) return "video/mp4";
-        if (name.endsWith(".webm")) return "video/webm";
-        if (name.endsWith(".mov")) return "video/quicktime";
-        if (name.endsWith(".mp3")) return "audio/mpeg";
-        if (name.endsWith(".wav")) return "audio/wav";
-        if (name.endsWith(".ogg")) return "audio/ogg";
-        if (name.endsWith(".pdf")) return "application/pdf";
-        if (name.endsWith(".json")) return "application/json";
-        if (name.endsWith(".js")) return "application/javascript";
-        if (name.endsWith(".css")) return "text/css";
-        if (name.endsWith(".txt")) return "text/plain";
-        if (name.endsWith(".xml")) return "application/xml";
-        return "application/octet-stream";
+    // POST <folder>/ with Content-Type: application/x-tar (?overwrite=1 to replace files): the
+    // page packs small files of a folder upload into one archive, which is unpacked here while it
+    // arrives. One request per few thousand files instead of one each, and folders are created
+    // once rather than checked for every file. Answers with JSON counts.
+    private Response handleTarUpload(IHTTPSession session, File currentDir, UploadThrottle.Ticket ticket) {
+        Map<String, String> headers = session.getHeaders();
+        boolean chunked = "chunked".equalsIgnoreCase(headers.get("transfer-encoding"));
+        String lengthHeader = headers.get("content-length");
+        long contentLength = lengthHeader != null ? parseLongOr(lengthHeader, -1) : -1;
+        if (!chunked && contentLength < 0) {
+            Response response = newFixedLengthResponse(Response.Status.LENGTH_REQUIRED, "application/json", "{\"error\":\"Content-Length or chunked encoding required\"}");
+            response.addHeader("Connection", "close");
+            return response;
+        }
+        List<String> overwriteValues = session.getParameters().get("overwrite");
+        boolean overwrite = overwriteValues != null && !overwriteValues.isEmpty()
+                && ("1".equals(overwriteValues.get(0)) || "true".equals(overwriteValues.get(0)));
+
+        StreamingResponse.sendContinue(session);
+        InputStream in = chunked ? new ChunkedInputStream(session.getInputStream()) : session.getInputStream();
+        TarReader reader = new TarReader(in, chunked ? -1 : contentLength);
+        Set<File> folders = new HashSet<>();
+        folders.add(currentDir);
+        List<String> skipped = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        StringBuilder digests = new StringBuilder();
+        int files = 0;
+        long bytes = 0;
+        long start = System.currentTimeMillis();
+        try {
+            TarReader.Entry entry;
+            while ((entry = reader.next()) != null) {
+                String path = entry.name.startsWith("./") ? entry.name.substring(2) : entry.name;
+                if (path.endsWith("/")) path = path.substring(0, path.length() - 1);
+                if (path.isEmpty()) continue;
+                if (PathSegments.climbs(path) || path.startsWith("/") || path.contains("\\")) {
+                    failed.add(path + " (invalid path)");
+                    continue;
+                }
+                File target = new File(currentDir, path);
+                if (entry.type == TarReader.DIRECTORY) {
+                    if (folders.add(target) && !target.isDirectory() && !target.mkdirs()) {
+                        failed.add(path + " (cannot create directory)");
+                    }
+                    continue;
+                }
+                if (entry.type != TarReader.FILE) {
+                    // links and special files are not created through the web interface
+                    skipped.add(path);
+                    continue;
+                }
+                String fileName = target.getName();
+                if (fileName.startsWith(".") || fileName.equals("Thumbs.db") || fileName.equals("desktop.ini")) {
+                    continue;
+                }
+                File parent = target.getParentFile();
+                if (folders.add(parent) && !parent.isDirectory() && !parent.mkdirs()) {
+                    failed.add(path + " (cannot create directory)");
+                    continue;
+                }
+                if (target.exists() && (!overwrite || target.isDirectory())) {
+                    skipped.add(path);
+                    continue;
+                }
+                File partFile = PartFiles.create(target);
+                ContentDigest digest = ContentDigest.forUpload(session);
+                try (OutputStream out = digest.digesting(ticket.meter(new FileOutputStream(partFile)))) {
+                    bytes += reader.transferTo(out);
+                } catch (IOException e) {
+                    partFile.delete();
+                    throw e;
+                }
+                if (entry.modified > 0) {
+                    partFile.setLastModified(entry.modified);
+                }
+                try {
+                    PartFiles.moveIntoPlace(partFile, target);
+                } catch (IOException e) {
+                    Log.e("AROMA", "Cannot move archive entry into place: " + path + ": " + e.getMessage());
+                    partFile.delete();
+                    failed.add(path + " (write failed)");
+                    continue;
+                }
+                files++;
+                if (digests.length() > 0) digests.append(',');
+                digests.append("{\"path\":").append(Json.quote(path)).append(digest.jsonFields()).append('}');
+                mediaScans.enqueue(target);
+                if (digest.sha256Hex() != null) {
+                    hashIndex.record(target, digest.sha256Hex());
+                }
+                hashIndex.submit(target);
+            }
+        } catch (IOException e) {
+            Log.e("AROMA", "Archive upload aborted after " + files + " files: " + e.getMessage());
+            // also drops every cached subfolder
+            directoryCache.invalidate(currentDir);
+            Response response = newFixedLengthResponse(Response.Status.BAD_REQUEST, "application/json",
+                    "{\"error\":" + Json.quote("Upload aborted: " + e.getMessage()) + ",\"files\":" + files + "}");
+            response.addHeader("Connection", "close");
+            return response;
+        }
+        directoryCache.invalidate(currentDir);
+        Log.d("AROMA", "Archive upload: " + files + " files, " + bytes + " bytes in " + (System.currentTimeMillis() - start) + " ms");
+        if (files > 0 && eventListener != null) {
+            eventListener.onFileUploaded(files + " files into " + currentDir.getName() + "/", getClientIp(session));
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"files\":").append(files).append(",\"bytes\":").append(bytes).append(",\"skipped\":[");
+        for (int i = 0; i < skipped.size(); i++) {
+            if (i > 0) json.append(',');
+            json.append(Json.quote(skipped.get(i)));
+        }
+        json.append("],\"failed\":[");
+        for (int i = 0; i < failed.size(); i++) {
+            if (i > 0) json.append(',');
+            json.append(Json.quote(failed.get(i)));
+        }
+        json.append("],\"digests\":[").append(digests).append("]}");
+        return newFixedLengthResponse(Response.Status.OK, "application/json", json.toString());
     }
 
     private String formatFileSize(long size) {
@@ -835,49 +1194,26 @@ public class WebServer extends NanoHTTPD {
     }
 
     private Response buildErrorResponse(String title, String message, String backUri) {
-        String html = "<!DOCTYPE html><html><head><meta charset='UTF-8'><meta name='viewport' content='width=device-width,initial-scale=1'>" +
-                "<style>" +
-                "body{font-family:system-ui,sans-serif;background:#1a1a2e;display:flex;justify-content:center;align-items:center;min-height:100vh;margin:0;padding:20px;box-sizing:border-box}" +
-                ".card{background:#2d1b1b;border:1px solid #dc3545;border-radius:12px;padding:40px;text-align:center;max-width:500px;width:100%}" +
-                ".icon{font-size:48px;margin-bottom:16px}" +
-                ".title{color:#ff6b6b;font-size:20px;font-weight:bold;margin-bottom:12px}" +
-                ".message{color:#ccc;font-size:14px;margin-bottom:20px;line-height:1.5}" +
-                ".back a{color:#4da6ff;text-decoration:none;padding:10px 20px;border:1px solid #4da6ff;border-radius:6px;display:inline-block}" +
-                ".back a:hover{background:#4da6ff;color:#fff}" +
-                "</style></head><body>" +
-                "<div class='card'>" +
-                "<div class='icon'>&#9888;</div>" +
-                "<div class='title'>" + escapeHtml(title) + "</div>" +
-                "<div class='message'>" + escapeHtml(message) + "</div>" +
-                "<div class='back'><a href='" + backUri + "'>Go Back</a></div>" +
-                "</div></body></html>";
-        return newFixedLengthResponse(Response.Status.BAD_REQUEST, "text/html", html);
+        return errorPage
+                .with("title", title)
+                .with("message", message)
+                .with("back", backUri)
+                .respond(Response.Status.BAD_REQUEST);
     }
 
     private Response buildResultResponse(String title, String subtitle, String details, String backUri, boolean success) {
-        String bgColor = success ? "#1b2d1b" : "#2d2d1b";
-        String borderColor = success ? "#28a745" : "#ffc107";
-        String titleColor = success ? "#6bff6b" : "#ffc107";
-        String icon = success ? "&#10004;" : "&#9888;";
-        String html = "<!DOCTYPE html><html><head><meta charset='UTF-8'><meta name='viewport' content='width=device-width,initial-scale=1'>" +
-                "<meta http-equiv='refresh' content='3;url=" + backUri + "'>" +
-                "<style>" +
-                "body{font-family:system-ui,sans-serif;background:#1a1a2e;display:flex;justify-content:center;align-items:center;min-height:100vh;margin:0;padding:20px;box-sizing:border-box}" +
-                ".card{background:" + bgColor + ";border:1px solid " + borderColor + ";border-radius:12px;padding:40px;text-align:center;max-width:500px;width:100%}" +
-                ".icon{font-size:48px;margin-bottom:16px}" +
-                ".title{color:" + titleColor + ";font-size:20px;font-weight:bold;margin-bottom:8px}" +
-                ".subtitle{color:#ccc;font-size:14px;margin-bottom:12px}" +
-                ".details{color:#888;font-size:12px;background:#16213e;padding:12px;border-radius:6px;text-align:left;white-space:pre-wrap;word-break:break-all;max-height:200px;overflow-y:auto}" +
-                ".redirect{color:#666;font-size:11px;margin-top:16px}" +
-                "</style></head><body>" +
-                "<div class='card'>" +
-                "<div class='icon'>" + icon + "</div>" +
-                "<div class='title'>" + escapeHtml(title) + "</div>" +
-                "<div class='subtitle'>" + escapeHtml(subtitle) + "</div>" +
-                (details.isEmpty() ? "" : "<div class='details'>" + escapeHtml(details) + "</div>") +
-                "<div class='redirect'>Redirecting in 3 seconds...</div>" +
-                "</div></body></html>";
-        return newFixedLengthResponse(success ? Response.Status.OK : Response.Status.BAD_REQUEST, "text/html", html);
+        return resultPage
+                .with("bg", success ? "#1b2d1b" : "#2d2d1b")
+                .with("border", success ? "#28a745" : "#ffc107")
+                .with("titleColor", success ? "#6bff6b" : "#ffc107")
+                .with("icon", success ? "\u2714" : "\u26a0")
+                .with("title", title)
+                .with("subtitle", subtitle)
+                .with("details", out -> {
+                    if (!details.isEmpty()) out.raw("<div class='details'>").text(details).raw("</div>");
+                })
+                .with("back", backUri)
+                .respond(success ? Response.Status.OK : Response.Status.BAD_REQUEST);
     }
 
     private Response redirectResponse(String uri) {
@@ -890,46 +1226,24 @@ public class WebServer extends NanoHTTPD {
         StringBuilder html = new StringBuilder();
         html.append("<!DOCTYPE html><html><head><meta charset='UTF-8'><meta name='viewport' content='width=device-width,initial-scale=1'>");
         html.append("<title>AROMA Terminal</title>");
-        html.append("<style>");
-        html.append("*{box-sizing:border-box;margin:0;padding:0}");
-        html.append("body{font-family:'Courier New',monospace;background:#0d0d0d;color:#00ff00;min-height:100vh;display:flex;flex-direction:column}");
-        html.append(".header{background:#1a1a1a;padding:15px 20px;display:flex;justify-content:space-between;align-items:center;border-bottom:1px solid #333}");
-        html.append(".header h1{font-size:1.2em;color:#00ff00}");
-        html.append(".back-btn{background:#333;color:#00ff00;padding:8px 16px;border-radius:4px;text-decoration:none;font-size:0.9em;border:1px solid #00ff00}");
-        html.append(".back-btn:hover{background:#00ff00;color:#000}");
-        html.append(".terminal{flex:1;padding:20px;overflow-y:auto;font-size:14px;line-height:1.6}");
-        html.append(".output{white-space:pre-wrap;word-break:break-all}");
-        html.append(".output .cmd{color:#00ff00}");
-        html.append(".output .result{color:#ccc}");
-        html.append(".output .error{color:#ff6b6b}");
-        html.append(".output .info{color:#4da6ff}");
-        html.append(".input-area{background:#1a1a1a;padding:15px 20px;border-top:1px solid #333;display:flex;gap:10px}");
-        html.append(".prompt{color:#00ff00;flex-shrink:0}");
-        html.append("#cmdInput{flex:1;background:transparent;border:none;color:#00ff00;font-family:inherit;font-size:14px;outline:none}");
-        html.append(".btn{background:#00ff00;color:#000;padding:8px 16px;border:none;border-radius:4px;cursor:pointer;font-family:inherit}");
-        html.append(".btn:hover{background:#00cc00}");
-        html.append(".btn:disabled{background:#333;color:#666;cursor:not-allowed}");
-        html.append("</style></head><body>");
+        html.append("<link rel='stylesheet' href='").append(staticAssets.url("terminal.css")).append("'>");
+        html.append("</head><body>");
         html.append("<div class='header'><h1>AROMA Terminal</h1><a href='/' class='back-btn'>Back to Files</a></div>");
         html.append("<div class='terminal' id='terminal'><div class='output' id='output'><span class='info'>Welcome to AROMA Terminal</span>\n<span class='info'>Type commands to execute on the Android device.</span>\n<span class='info'>Type 'help' for available commands.</span>\n\n</div></div>");
         html.append("<div class='input-area'><span class='prompt'>$</span><input type='text' id='cmdInput' placeholder='Enter command...' autofocus><button class='btn' id='runBtn' onclick='runCommand()'>Run</button></div>");
-        html.append("<script>");
-        html.append("let history=[];let historyIndex=-1;");
-        html.append("const input=document.getElementById('cmdInput');const output=document.getElementById('output');const terminal=document.getElementById('terminal');const runBtn=document.getElementById('runBtn');");
-        html.append("input.addEventListener('keydown',function(e){if(e.key==='Enter'){runCommand()}else if(e.key==='ArrowUp'){e.preventDefault();if(historyIndex<history.length-1){historyIndex++;input.value=history[history.length-1-historyIndex]}}else if(e.key==='ArrowDown'){e.preventDefault();if(historyIndex>0){historyIndex--;input.value=history[history.length-1-historyIndex]}else{historyIndex=-1;input.value=''}}});");
-        html.append("async function runCommand(){let cmd=input.value.trim();if(!cmd)return;history.push(cmd);historyIndex=-1;input.value='';runBtn.disabled=true;output.innerHTML+='<span class=\"cmd\">$ '+escapeHtml(cmd)+'</span>\\n';if(cmd==='clear'){output.innerHTML='';runBtn.disabled=false;return}if(cmd==='help'){output.innerHTML+='<span class=\"info\">Available commands:\\n  ls, pwd, cd, cat, echo, whoami, id, df, free, ps, top -n 1, uname -a\\n  getprop (Android properties)\\n  pm list packages (list apps)\\n  dumpsys battery (battery info)\\n  clear - clear screen\\n  Any other shell command supported by the device</span>\\n\\n';runBtn.disabled=false;scrollToBottom();return}try{let res=await fetch('/api/exec',{method:'POST',headers:{'Content-Type':'application/json'},body:JSON.stringify({cmd:cmd})});let data=await res.json();if(data.stdout){output.innerHTML+='<span class=\"result\">'+escapeHtml(data.stdout)+'</span>'}if(data.stderr){output.innerHTML+='<span class=\"error\">'+escapeHtml(data.stderr)+'</span>'}if(data.error){output.innerHTML+='<span class=\"error\">Error: '+escapeHtml(data.error)+'</span>\\n'}}catch(e){output.innerHTML+='<span class=\"error\">Request failed: '+escapeHtml(e.message)+'</span>\\n'}output.innerHTML+='\\n';runBtn.disabled=false;scrollToBottom()}");
-        html.append("function scrollToBottom(){terminal.scrollTop=terminal.scrollHeight}");
-        html.append("function escapeHtml(t){return t.replace(/&/g,'&amp;').replace(/</g,'&lt;').replace(/>/g,'&gt;')}");
-        html.append("</script>");
+        html.append("<script src='").append(staticAssets.url("terminal.js")).append("'></script>");
         html.append("</body></html>");
         return newFixedLengthResponse(Response.Status.OK, "text/html", html.toString());
     }
 
     private Response handleExec(IHTTPSession session) {
         try {
-            Map<String, String> files = new HashMap<>();
-            session.parseBody(files);
-            String body = files.get("postData");
+            String body = PooledBody.read(session);
+            if (body == null) {
+                Map<String, String> files = new HashMap<>();
+                session.parseBody(files);
+                body = files.get("postData");
+            }
             if (body == null || body.isEmpty()) {
                 return jsonResponse("{\"error\":\"No command provided\"}");
             }
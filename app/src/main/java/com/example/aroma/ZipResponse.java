@@ -0,0 +1,83 @@
+package com.example.aroma;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+// A folder or a set of selected entries as a ZIP archive, produced while the tree is walked.
+// Nothing is staged on the device: memory is one read buffer, one deflater and the central
+// directory. Media and archives are STORED, everything else is DEFLATEd.
+public class ZipResponse extends StreamingResponse {
+    private static final String TAG = "AROMA";
+    private static final int MAX_DEPTH = 64;
+
+    private final File baseDir;
+    private final List<String> names;
+    private final int level;
+
+    // names are entries of baseDir; each becomes a top-level entry of the archive.
+    public ZipResponse(File baseDir, List<String> names, String archiveName, int level) {
+        super(Status.OK, "application/zip", -1);
+        this.baseDir = baseDir;
+        this.names = names;
+        this.level = level;
+        addHeader("Content-Disposition", FileResponse.attachmentDisposition(archiveName));
+    }
+
+    @Override
+    protected void writeBody(OutputStream out) throws IOException {
+        long start = System.currentTimeMillis();
+        BufferedOutputStream buffered = new BufferedOutputStream(out, 64 * 1024);
+        ZipStreamWriter zip = new ZipStreamWriter(buffered, level);
+        for (String name : names) {
+            File file = new File(baseDir, name);
+            if (file.isDirectory()) {
+                addDirectory(zip, file, name + "/", 0);
+            } else if (file.isFile()) {
+                addFile(zip, file, name);
+            }
+        }
+        zip.finish();
+        buffered.flush();
+        Log.d(TAG, "ZIP of " + baseDir.getName() + ": " + zip.getEntryCount() + " entries, " + zip.getBytesWritten()
+                + " bytes in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private void addDirectory(ZipStreamWriter zip, File dir, String path, int depth) throws IOException {
+        zip.addDirectory(path, dir.lastModified());
+        // symlinked directories are followed, so a loop has to end somewhere
+        if (depth >= MAX_DEPTH) return;
+        List<DirectoryScanner.Entry> entries;
+        try {
+            entries = DirectoryScanner.list(dir);
+        } catch (IOException e) {
+            Log.w(TAG, "Skipping unreadable folder " + path + ": " + e.getMessage());
+            return;
+        }
+        for (DirectoryScanner.Entry entry : entries) {
+            File child = new File(dir, entry.name);
+            if (entry.directory) {
+                addDirectory(zip, child, path + entry.name + "/", depth + 1);
+            } else {
+                addFile(zip, child, path + entry.name);
+            }
+        }
+    }
+
+    private static void addFile(ZipStreamWriter zip, File file, String path) throws IOException {
+        FileTypes.Type type = FileTypes.forName(file.getName());
+        // unknown extensions are worth a try; known media and archives are already compressed
+        boolean compress = file.length() > 0 && (type == FileTypes.UNKNOWN || type.compressible);
+        try {
+            zip.addFile(path, file, compress);
+        } catch (FileNotFoundException e) {
+            // gone or unreadable since the listing; nothing was written for it yet
+            Log.w(TAG, "Skipping " + path + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.aroma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Writes a ZIP archive straight to a stream, one pass per file. java.util.zip.ZipOutputStream
+// needs the CRC of a STORED entry before its data, which would mean reading every photo and
+// video twice; here each entry is followed by a data descriptor instead, so stored and deflated
+// entries alike are read exactly once. ZIP64 records are added only where a size, offset or the
+// entry count outgrows the classic format.
+public final class ZipStreamWriter {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int ZIP64_END = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int END = 0x06054b50;
+    // data descriptor follows, names are UTF-8
+    private static final int FLAGS = 0x0008 | 0x0800;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    // Files this close to 4 GB get ZIP64 sizes up front, since deflate can grow incompressible data
+    private static final long ZIP64_THRESHOLD = MAX_32 - (1 << 24);
+    // The central directory is the only per-entry state; past this the archive is abandoned
+    public static final int MAX_CENTRAL_DIRECTORY_BYTES = 32 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final OutputStream out;
+    private final ByteArrayOutputStream central = new ByteArrayOutputStream(64 * 1024);
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final byte[] deflated = new byte[BUFFER_SIZE];
+    private final byte[] scratch = new byte[64];
+    private final Calendar calendar = Calendar.getInstance();
+    private long offset;
+    private long entries;
+
+    public ZipStreamWriter(OutputStream out, int level) {
+        this.out = out;
+        this.deflater = new Deflater(level, true);
+    }
+
+    public long getEntryCount() {
+        return entries;
+    }
+
+    public long getBytesWritten() {
+        return offset;
+    }
+
+    // name must end with '/'
+    public void addDirectory(String name, long modified) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        long headerOffset = offset;
+        writeLocalHeader(nameBytes, STORED, modified, false);
+        writeDataDescriptor(0, 0, 0, false);
+        addCentralRecord(nameBytes, STORED, modified, 0, 0, 0, headerOffset, true);
+    }
+
+    public void addFile(String name, File file, boolean compress) throws IOException {
+        long modified = file.lastModified();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            long headerOffset = offset;
+            boolean zip64 = file.length() >= ZIP64_THRESHOLD;
+            int method = compress ? DEFLATED : STORED;
+            writeLocalHeader(nameBytes, method, modified, zip64);
+
+            crc.reset();
+            long size = 0;
+            long start = offset;
+            if (compress) deflater.reset();
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                size += read;
+                if (compress) {
+                    deflater.setInput(buffer, 0, read);
+                    while (!deflater.needsInput()) {
+                        drainDeflater();
+                    }
+                } else {
+                    write(buffer, 0, read);
+                }
+            }
+            if (compress) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    drainDeflater();
+                }
+            }
+            long compressedSize = offset - start;
+            // a file that grew past 4 GB while being read cannot be described by its header
+            if (!zip64 && (size > MAX_32 || compressedSize > MAX_32)) {
+                throw new IOException(name + " grew past 4 GB while being archived");
+            }
+            writeDataDescriptor(crc.getValue(), compressedSize, size, zip64);
+            addCentralRecord(nameBytes, method, modified, crc.getValue(), compressedSize, size, headerOffset, false);
+        }
+    }
+
+    // Writes the central directory; the underlying stream is left open.
+    public void finish() throws IOException {
+        long centralOffset = offset;
+        long centralSize = central.size();
+        central.writeTo(out);
+        offset += centralSize;
+        deflater.end();
+
+        boolean zip64 = entries >= 0xFFFF || centralOffset >= MAX_32 || centralSize >= MAX_32;
+        if (zip64) {
+            long endOffset = offset;
+            int n = 0;
+            n = putInt(scratch, n, ZIP64_END);
+            n = putLong(scratch, n, 44);
+            n = putShort(scratch, n, 0x0300 | 45);
+            n = putShort(scratch, n, 45);
+            n = putInt(scratch, n, 0);
+            n = putInt(scratch, n, 0);
+            n = putLong(scratch, n, entries);
+            n = putLong(scratch, n, entries);
+            n = putLong(scratch, n, centralSize);
+            n = putLong(scratch, n, centralOffset);
+            write(scratch, 0, n);
+
+            n = 0;
+            n = putInt(scratch, n, ZIP64_LOCATOR);
+            n = putInt(scratch, n, 0);
+            n = putLong(scratch, n, endOffset);
+            n = putInt(scratch, n, 1);
+            write(scratch, 0, n);
+        }
+        int n = 0;
+        n = putInt(scratch, n, END);
+        n = putShort(scratch, n, 0);
+        n = putShort(scratch, n, 0);
+        n = putShort(scratch, n, (int) Math.min(entries, 0xFFFF));
+        n = putShort(scratch, n, (int) Math.min(entries, 0xFFFF));
+        n = putInt(scratch, n, (int) Math.min(centralSize, MAX_32));
+        n = putInt(scratch, n, (int) Math.min(centralOffset, MAX_32));
+        n = putShort(scratch, n, 0);
+        write(scratch, 0, n);
+        out.flush();
+    }
+
+    private void drainDeflater() throws IOException {
+        int length = deflater.deflate(deflated, 0, deflated.length);
+        if (length > 0) write(deflated, 0, length);
+    }
+
+    private void writeLocalHeader(byte[] name, int method, long modified, boolean zip64) throws IOException {
+        int n = 0;
+        n = putInt(scratch, n, LOCAL_HEADER);
+        n = putShort(scratch, n, zip64 ? 45 : 20);
+        n = putShort(scratch, n, FLAGS);
+        n = putShort(scratch, n, method);
+        n = putInt(scratch, n, dosTime(modified));
+        // crc and sizes follow in the data descriptor
+        n = putInt(scratch, n, 0);
+        n = putInt(scratch, n, zip64 ? (int) MAX_32 : 0);
+        n = putInt(scratch, n, zip64 ? (int) MAX_32 : 0);
+        n = putShort(scratch, n, name.length);
+        n = putShort(scratch, n, zip64 ? 20 : 0);
+        write(scratch, 0, n);
+        write(name, 0, name.length);
+        if (zip64) {
+            n = 0;
+            n = putShort(scratch, n, 0x0001);
+            n = putShort(scratch, n, 16);
+            n = putLong(scratch, n, 0);
+            n = putLong(scratch, n, 0);
+            write(scratch, 0, n);
+        }
+    }
+
+    private void writeDataDescriptor(long crcValue, long compressedSize, long size, boolean zip64) throws IOException {
+        int n = 0;
+        n = putInt(scratch, n, DATA_DESCRIPTOR);
+        n = putInt(scratch, n, (int) crcValue);
+        if (zip64) {
+            n = putLong(scratch, n, compressedSize);
+            n = putLong(scratch, n, size);
+        } else {
+            n = putInt(scratch, n, (int) compressedSize);
+            n = putInt(scratch, n, (int) size);
+        }
+        write(scratch, 0, n);
+    }
+
+    private void addCentralRecord(byte[] name, int method, long modified, long crcValue, long compressedSize,
+                                  long size, long headerOffset, boolean directory) throws IOException {
+        boolean bigSize = size >= MAX_32;
+        boolean bigCompressed = compressedSize >= MAX_32;
+        boolean bigOffset = headerOffset >= MAX_32;
+        int extraLength = (bigSize ? 8 : 0) + (bigCompressed ? 8 : 0) + (bigOffset ? 8 : 0);
+        boolean zip64 = extraLength > 0;
+
+        byte[] record = new byte[46 + name.length + (zip64 ? 4 + extraLength : 0)];
+        int n = 0;
+        n = putInt(record, n, CENTRAL_HEADER);
+        n = putShort(record, n, 0x0300 | 45);
+        n = putShort(record, n, zip64 ? 45 : 20);
+        n = putShort(record, n, FLAGS);
+        n = putShort(record, n, method);
+        n = putInt(record, n, dosTime(modified));
+        n = putInt(record, n, (int) crcValue);
+        n = putInt(record, n, bigCompressed ? (int) MAX_32 : (int) compressedSize);
+        n = putInt(record, n, bigSize ? (int) MAX_32 : (int) size);
+        n = putShort(record, n, name.length);
+        n = putShort(record, n, zip64 ? 4 + extraLength : 0);
+        n = putShort(record, n, 0);
+        n = putShort(record, n, 0);
+        n = putShort(record, n, 0);
+        // unix permissions, plus the MS-DOS directory bit for directories
+        n = putInt(record, n, directory ? (040755 << 16) | 0x10 : 0100644 << 16);
+        n = putInt(record, n, bigOffset ? (int) MAX_32 : (int) headerOffset);
+        System.arraycopy(name, 0, record, n, name.length);
+        n += name.length;
+        if (zip64) {
+            n = putShort(record, n, 0x0001);
+            n = putShort(record, n, extraLength);
+            if (bigSize) n = putLong(record, n, size);
+            if (bigCompressed) n = putLong(record, n, compressedSize);
+            if (bigOffset) putLong(record, n, headerOffset);
+        }
+        if (central.size() + record.length > MAX_CENTRAL_DIRECTORY_BYTES) {
+            throw new IOException("Too many entries for one archive");
+        }
+        central.write(record);
+        entries++;
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        offset += len;
+    }
+
+    private int dosTime(long millis) {
+        calendar.setTimeInMillis(millis);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) return (1 << 21) | (1 << 16);
+        return (year - 1980) << 25
+                | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private static int putShort(byte[] b, int n, int v) {
+        b[n] = (byte) v;
+        b[n + 1] = (byte) (v >>> 8);
+        return n + 2;
+    }
+
+    private static int putInt(byte[] b, int n, int v) {
+        b[n] = (byte) v;
+        b[n + 1] = (byte) (v >>> 8);
+        b[n + 2] = (byte) (v >>> 16);
+        b[n + 3] = (byte) (v >>> 24);
+        return n + 4;
+    }
+
+    private static int putLong(byte[] b, int n, long v) {
+        n = putInt(b, n, (int) v);
+        return putInt(b, n, (int) (v >>> 32));
+    }
+}
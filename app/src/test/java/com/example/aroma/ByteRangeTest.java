@@ -0,0 +1,87 @@
+package com.example.aroma;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class ByteRangeTest {
+
+    @Test
+    public void absentOrForeignHeaderIsIgnored() {
+        assertNull(ByteRange.parse(null, 100));
+        assertNull(ByteRange.parse("items=0-10", 100));
+        assertNull(ByteRange.parse("bytes=abc", 100));
+        assertNull(ByteRange.parse("bytes=5", 100));
+        assertNull(ByteRange.parse("bytes=-", 100));
+        assertNull(ByteRange.parse("bytes=10-5", 100));
+    }
+
+    @Test
+    public void singleRange() {
+        List<ByteRange> ranges = ByteRange.parse("bytes=0-9", 100);
+        assertEquals(1, ranges.size());
+        assertRange(0, 9, ranges.get(0));
+        assertEquals(10, ranges.get(0).length());
+        assertEquals("bytes 0-9/100", ranges.get(0).contentRange(100));
+    }
+
+    @Test
+    public void unitIsCaseInsensitive() {
+        assertRange(0, 0, ByteRange.parse(" Bytes=0-0 ", 100).get(0));
+    }
+
+    @Test
+    public void openEndedAndOversizedRangesStopAtTheLastByte() {
+        assertRange(90, 99, ByteRange.parse("bytes=90-", 100).get(0));
+        assertRange(90, 99, ByteRange.parse("bytes=90-1000", 100).get(0));
+    }
+
+    @Test
+    public void suffixRange() {
+        assertRange(80, 99, ByteRange.parse("bytes=-20", 100).get(0));
+        // longer than the file: the whole file
+        assertRange(0, 99, ByteRange.parse("bytes=-500", 100).get(0));
+    }
+
+    @Test
+    public void unsatisfiableRangesGiveAnEmptyList() {
+        assertTrue(ByteRange.parse("bytes=100-200", 100).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-0", 100).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-10", 0).isEmpty());
+    }
+
+    @Test
+    public void unsatisfiablePartsAreDropped() {
+        List<ByteRange> ranges = ByteRange.parse("bytes=500-600, 0-4", 100);
+        assertEquals(1, ranges.size());
+        assertRange(0, 4, ranges.get(0));
+    }
+
+    @Test
+    public void overlappingAndAdjacentRangesAreCoalescedInOrder() {
+        List<ByteRange> ranges = ByteRange.parse("bytes=50-59,0-9,10-19,5-12,70-79", 100);
+        assertEquals(3, ranges.size());
+        assertRange(0, 19, ranges.get(0));
+        assertRange(50, 59, ranges.get(1));
+        assertRange(70, 79, ranges.get(2));
+    }
+
+    @Test
+    public void tooManyRangesAreIgnored() {
+        StringBuilder header = new StringBuilder("bytes=");
+        for (int i = 0; i < 33; i++) {
+            if (i > 0) header.append(',');
+            header.append(i * 2).append('-').append(i * 2);
+        }
+        assertNull(ByteRange.parse(header.toString(), 1000));
+    }
+
+    private static void assertRange(long start, long end, ByteRange range) {
+        assertEquals(start, range.start);
+        assertEquals(end, range.end);
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.aroma;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+public class CacheValidatorsTest {
+    private static final String ETAG = "\"a-1b\"";
+    private static final long MODIFIED = 1_700_000_000_500L;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void fileETagChangesWithSizeAndMtime() throws Exception {
+        File file = tmp.newFile("a.txt");
+        file.setLastModified(MODIFIED);
+        String before = CacheValidators.fileETag(file);
+        assertEquals("\"0-" + Long.toHexString(MODIFIED) + "\"", before);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(1);
+        }
+        file.setLastModified(MODIFIED);
+        assertFalse(before.equals(CacheValidators.fileETag(file)));
+    }
+
+    @Test
+    public void directoryETagIsWeak() throws Exception {
+        tmp.newFile("one");
+        DirectorySnapshot snapshot = DirectorySnapshot.read(tmp.getRoot());
+        assertTrue(CacheValidators.directoryETag(snapshot).startsWith("W/\""));
+    }
+
+    @Test
+    public void ifNoneMatchMatchesAnyListedTagWeakly() {
+        assertTrue(notModified("if-none-match", ETAG));
+        assertTrue(notModified("if-none-match", "\"x\", W/" + ETAG));
+        assertTrue(notModified("if-none-match", "*"));
+        assertFalse(notModified("if-none-match", "\"x\""));
+    }
+
+    @Test
+    public void ifNoneMatchWinsOverIfModifiedSince() {
+        assertFalse(CacheValidators.isNotModified(FakeSession.withHeaders("if-none-match", "\"x\"",
+                "if-modified-since", HttpDate.format(MODIFIED)), ETAG, MODIFIED));
+    }
+
+    @Test
+    public void ifModifiedSinceComparesWholeSeconds() {
+        assertTrue(notModified("if-modified-since", HttpDate.format(MODIFIED)));
+        assertTrue(notModified("if-modified-since", HttpDate.format(MODIFIED + 60_000)));
+        assertFalse(notModified("if-modified-since", HttpDate.format(MODIFIED - 1000)));
+        assertFalse(notModified("if-modified-since", "yesterday"));
+    }
+
+    @Test
+    public void noValidatorsMeansModified() {
+        assertFalse(CacheValidators.isNotModified(FakeSession.withHeaders(), ETAG, MODIFIED));
+    }
+
+    @Test
+    public void strongMatchRejectsWeakTags() {
+        assertTrue(CacheValidators.strongMatch(ETAG, ETAG));
+        assertFalse(CacheValidators.strongMatch("W/" + ETAG, ETAG));
+        assertFalse(CacheValidators.strongMatch(ETAG, "W/" + ETAG));
+        assertFalse(CacheValidators.strongMatch("\"other\"", ETAG));
+    }
+
+    private static boolean notModified(String header, String value) {
+        return CacheValidators.isNotModified(FakeSession.withHeaders(header, value), ETAG, MODIFIED);
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.aroma;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+public class ContentDigestTest {
+    private static final byte[] CHECK = "123456789".getBytes(StandardCharsets.US_ASCII);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void crc32cCheckValue() {
+        ContentDigest digest = new ContentDigest(false);
+        digest.update(CHECK, 0, CHECK.length);
+        assertEquals("e3069283", digest.crc32cHex());
+        assertEquals("crc32c=:4waSgw==:", digest.header());
+        assertNull(digest.sha256Hex());
+        assertEquals(",\"crc32c\":\"e3069283\"", digest.jsonFields());
+    }
+
+    @Test
+    public void softwareCrc32cMatchesTheJdk() {
+        byte[] data = new byte[100_000];
+        new Random(42).nextBytes(data);
+        ContentDigest.SoftwareCrc32c software = new ContentDigest.SoftwareCrc32c();
+        CRC32C jdk = new CRC32C();
+        // uneven pieces, and the single-byte path
+        int pos = 0;
+        for (int step = 1; pos < data.length - 1; step = step * 3 % 4093 + 1) {
+            int n = Math.min(step, data.length - 1 - pos);
+            software.update(data, pos, n);
+            jdk.update(data, pos, n);
+            pos += n;
+        }
+        software.update(data[pos]);
+        jdk.update(data[pos]);
+        assertEquals(jdk.getValue(), software.getValue());
+        software.reset();
+        assertEquals(new CRC32C().getValue(), software.getValue());
+    }
+
+    @Test
+    public void sha256WhenAskedFor() {
+        ContentDigest digest = new ContentDigest(true);
+        digest.update(CHECK, 0, CHECK.length);
+        String sha = "15e2b0d3c33891ebb0f1ef609ec419420c20e320ce94c65fbc8c3312448eb225";
+        assertEquals(sha, digest.sha256Hex());
+        assertEquals("crc32c=:4waSgw==:, sha-256=:FeKw08M4keuw8e9gnsQZQgwg4yDOlMZfvIwzEkSOsiU=:", digest.header());
+        assertEquals(",\"crc32c\":\"e3069283\",\"sha256\":\"" + sha + "\"", digest.jsonFields());
+        assertEquals("sha-256=:FeKw08M4keuw8e9gnsQZQgwg4yDOlMZfvIwzEkSOsiU=:", ContentDigest.sha256Header(sha));
+    }
+
+    @Test
+    public void matchesChecksOnlyWhatWasComputed() {
+        ContentDigest digest = new ContentDigest(false);
+        digest.update(CHECK, 0, CHECK.length);
+        assertTrue(digest.matches(null));
+        assertTrue(digest.matches("crc32c=:4waSgw==:"));
+        assertTrue(digest.matches("CRC32C=:4waSgw==:"));
+        assertFalse(digest.matches("crc32c=:AAAAAA==:"));
+        // not computed here, so not held against the body
+        assertTrue(digest.matches("sha-256=:AAAA:, crc32c=:4waSgw==:"));
+        assertTrue(digest.matches("md5=:AAAA:"));
+
+        ContentDigest both = new ContentDigest(true);
+        both.update(CHECK, 0, CHECK.length);
+        assertTrue(both.matches("sha-256=:FeKw08M4keuw8e9gnsQZQgwg4yDOlMZfvIwzEkSOsiU=:"));
+        assertFalse(both.matches("sha-256=:AAAA:, crc32c=:4waSgw==:"));
+    }
+
+    @Test
+    public void requestHeadersDecideOnSha256() {
+        assertNull(ContentDigest.wanted(FakeSession.withHeaders()));
+        assertFalse(ContentDigest.wantsSha256(FakeSession.withHeaders("Want-Repr-Digest", "crc32c=5")));
+        assertTrue(ContentDigest.wantsSha256(FakeSession.withHeaders("Want-Repr-Digest", "SHA-256=10, crc32c=1")));
+        assertNull(ContentDigest.forUpload(FakeSession.withHeaders()).sha256Hex());
+        assertEquals(64, ContentDigest.forUpload(FakeSession.withHeaders("Content-Digest", "sha-256=:x:")).sha256Hex().length());
+        assertEquals(64, ContentDigest.forUpload(FakeSession.withHeaders("Want-Content-Digest", "sha-256=1")).sha256Hex().length());
+    }
+
+    @Test
+    public void streamAndFileGiveTheSameDigest() throws Exception {
+        ContentDigest streamed = new ContentDigest(true);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        try (OutputStream out = streamed.digesting(sink)) {
+            out.write(CHECK[0]);
+            out.write(CHECK, 1, CHECK.length - 1);
+        }
+        assertEquals("123456789", sink.toString("US-ASCII"));
+        assertEquals("e3069283", streamed.crc32cHex());
+
+        File file = tmp.newFile("check.txt");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(CHECK);
+        }
+        ContentDigest read = new ContentDigest(true);
+        read.update(file);
+        assertEquals(streamed.header(), read.header());
+    }
+
+    @Test
+    public void crc32cOfPiecesCombines() {
+        byte[] data = new byte[5000];
+        new Random(3).nextBytes(data);
+        CRC32C whole = new CRC32C();
+        whole.update(data, 0, data.length);
+        for (int split : new int[]{0, 1, 7, 2500, 4999, 5000}) {
+            CRC32C a = new CRC32C();
+            a.update(data, 0, split);
+            CRC32C b = new CRC32C();
+            b.update(data, split, data.length - split);
+            assertEquals(whole.getValue(), ContentDigest.combineCrc32c(a.getValue(), b.getValue(), data.length - split));
+        }
+        ContentDigest known = ContentDigest.withCrc32c(whole.getValue(), false);
+        known.update(CHECK, 0, CHECK.length);
+        assertEquals(String.format("%08x", whole.getValue()), known.crc32cHex());
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.aroma;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+public class DirectoryCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final DirectoryCache cache = new DirectoryCache(DirectoryCache.DEFAULT_MAX_DIRECTORIES, DirectoryCache.DEFAULT_MAX_ENTRIES);
+
+    @Test
+    public void settledDirectoryIsReused() throws Exception {
+        File dir = settled(tmp.newFolder("a"));
+        DirectorySnapshot first = cache.get(dir);
+        assertSame(first, cache.get(dir));
+        assertSame(first, cache.peek(dir));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void justChangedDirectoryIsNotCached() throws Exception {
+        File dir = tmp.newFolder("b");
+        assertTrue(new File(dir, "new.txt").createNewFile());
+        assertNotNull(cache.get(dir));
+        // another change in the same second would leave the mtime as it is
+        assertNull(cache.peek(dir));
+        cache.get(dir);
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void invalidateDropsTheDirectoryAndItsSubfolders() throws Exception {
+        File dir = settled(tmp.newFolder("c"));
+        File sub = settled(tmp.newFolder("c", "sub"));
+        settled(dir);
+        File sibling = settled(tmp.newFolder("cc"));
+        cache.get(dir);
+        cache.get(sub);
+        cache.get(sibling);
+        cache.invalidate(dir);
+        assertNull(cache.peek(dir));
+        assertNull(cache.peek(sub));
+        assertNotNull(cache.peek(sibling));
+        assertEquals(1, cache.size());
+    }
+
+    private static File settled(File dir) {
+        assertTrue(dir.setLastModified(System.currentTimeMillis() - 60_000));
+        return dir;
+    }
+}
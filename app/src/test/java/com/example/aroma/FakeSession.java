@@ -0,0 +1,28 @@
+package com.example.aroma;
+
+import fi.iki.elonen.NanoHTTPD.IHTTPSession;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// An IHTTPSession that only answers getHeaders(), for code that reads request headers.
+final class FakeSession {
+
+    private FakeSession() {
+    }
+
+    // Names are lower-cased like NanoHTTPD does; pairs are name, value, name, value...
+    static IHTTPSession withHeaders(String... pairs) {
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            headers.put(pairs[i].toLowerCase(Locale.US), pairs[i + 1]);
+        }
+        return (IHTTPSession) Proxy.newProxyInstance(IHTTPSession.class.getClassLoader(), new Class<?>[]{IHTTPSession.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getHeaders")) return headers;
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
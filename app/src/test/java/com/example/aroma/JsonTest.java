@@ -0,0 +1,31 @@
+package com.example.aroma;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class JsonTest {
+
+    @Test
+    public void nullBecomesTheJsonLiteral() throws Exception {
+        assertEquals("null", Json.quote(null));
+        StringBuilder out = new StringBuilder();
+        Json.writeString(out, null);
+        assertEquals("null", out.toString());
+    }
+
+    @Test
+    public void plainTextIsOnlyQuoted() {
+        assertEquals("\"\"", Json.quote(""));
+        assertEquals("\"photo \u00e9t\u00e9.jpg\"", Json.quote("photo \u00e9t\u00e9.jpg"));
+    }
+
+    @Test
+    public void specialCharactersAreEscaped() {
+        assertEquals("\"a\\\"b\\\\c\"", Json.quote("a\"b\\c"));
+        assertEquals("\"\\n\\r\\t\"", Json.quote("\n\r\t"));
+        assertEquals("\"\\u0001\\u001f\"", Json.quote("\u0001\u001f"));
+        // valid JSON but not valid inside a script block
+        assertEquals("\"\\u2028\\u2029\"", Json.quote("\u2028\u2029"));
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.aroma;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+public class MultipartReaderTest {
+    private static final String BOUNDARY = "----WebKitFormBoundaryX3c9";
+
+    @Test
+    public void boundaryFromContentType() {
+        assertEquals("abc", MultipartReader.boundary("multipart/form-data; boundary=abc"));
+        assertEquals("a b", MultipartReader.boundary("Multipart/Form-Data; charset=utf-8; Boundary=\"a b\""));
+        assertNull(MultipartReader.boundary("multipart/form-data"));
+        assertNull(MultipartReader.boundary("application/x-www-form-urlencoded; boundary=abc"));
+        assertNull(MultipartReader.boundary(null));
+    }
+
+    @Test
+    public void fieldsAndFiles() throws Exception {
+        String body = "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"originalPath\"\r\n\r\n"
+                + "dir/a.txt\r\n"
+                + "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"uploadedFile\"; filename=\"a.txt\"\r\n"
+                + "Content-Type: text/plain\r\n\r\n"
+                + "line one\r\nline two\r\n"
+                + "--" + BOUNDARY + "--\r\n";
+        MultipartReader reader = reader(body, body.length());
+
+        MultipartReader.Part field = reader.next();
+        assertEquals("originalPath", field.name);
+        assertFalse(field.isFile());
+        assertEquals("dir/a.txt", reader.readString(1024));
+
+        MultipartReader.Part file = reader.next();
+        assertEquals("uploadedFile", file.name);
+        assertEquals("a.txt", file.filename);
+        assertEquals("text/plain", file.contentType);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(18, reader.transferTo(out));
+        assertEquals("line one\r\nline two", out.toString("UTF-8"));
+
+        assertNull(reader.next());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void preambleAndEpilogueAreIgnored() throws Exception {
+        String body = "This is a preamble.\r\nContent-Type: not/a-header\r\n\r\nStill preamble.\r\n"
+                + "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"f\"\r\n\r\n"
+                + "value\r\n"
+                + "--" + BOUNDARY + "--\r\nepilogue";
+        MultipartReader reader = reader(body, body.length());
+        MultipartReader.Part part = reader.next();
+        assertEquals("f", part.name);
+        assertNull(part.contentType);
+        assertEquals("value", reader.readString(1024));
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void unreadPartsAreSkipped() throws Exception {
+        String body = "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"a\"\r\n\r\n"
+                + "skipped\r\n"
+                + "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"b\"\r\n\r\n"
+                + "kept\r\n"
+                + "--" + BOUNDARY + "--\r\n";
+        MultipartReader reader = reader(body, body.length());
+        assertEquals("a", reader.next().name);
+        assertEquals("b", reader.next().name);
+        assertEquals("kept", reader.readString(1024));
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void quotedFilenames() throws Exception {
+        String body = "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"f\"; filename=\"a;b %22c%22.txt\"\r\n\r\n"
+                + "\r\n"
+                + "--" + BOUNDARY + "--\r\n";
+        MultipartReader reader = reader(body, body.length());
+        MultipartReader.Part part = reader.next();
+        assertEquals("a;b \"c\".txt", part.filename);
+        assertEquals(0, reader.transferTo(new ByteArrayOutputStream()));
+        assertNull(reader.next());
+    }
+
+    // Binary bodies full of near-delimiters, delivered a few bytes at a time
+    @Test
+    public void delimiterPrefixesInsideBodiesSurviveAnySplit() throws Exception {
+        Random random = new Random(42);
+        byte[] content = new byte[200_000];
+        random.nextBytes(content);
+        byte[] prefix = ("\r\n--" + BOUNDARY.substring(0, 10)).getBytes(StandardCharsets.ISO_8859_1);
+        for (int at = 0; at + prefix.length < content.length; at += 997) {
+            System.arraycopy(prefix, 0, content, at, prefix.length);
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"f\"; filename=\"x.bin\"\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+        body.write(content);
+        body.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        byte[] bytes = body.toByteArray();
+
+        MultipartReader reader = new MultipartReader(new Trickle(bytes, random), bytes.length, BOUNDARY);
+        assertTrue(reader.next().isFile());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        reader.transferTo(out);
+        assertArrayEquals(content, out.toByteArray());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void neverReadsPastContentLength() throws Exception {
+        String body = "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"f\"\r\n\r\n"
+                + "v\r\n"
+                + "--" + BOUNDARY + "--\r\n";
+        String next = "GET / HTTP/1.1\r\n";
+        InputStream in = new ByteArrayInputStream((body + next).getBytes(StandardCharsets.ISO_8859_1));
+        MultipartReader reader = new MultipartReader(in, body.length(), BOUNDARY);
+        reader.next();
+        assertNull(reader.next());
+        assertEquals(next.length(), in.available());
+    }
+
+    @Test
+    public void truncatedBodyFails() throws Exception {
+        String body = "--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"f\"; filename=\"a\"\r\n\r\n"
+                + "cut off here";
+        MultipartReader reader = reader(body, body.length());
+        reader.next();
+        try {
+            reader.transferTo(new ByteArrayOutputStream());
+            fail("expected an IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static MultipartReader reader(String body, long length) {
+        return new MultipartReader(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), length, BOUNDARY);
+    }
+
+    // Hands out 1 to 7 bytes per read, like a slow socket
+    private static final class Trickle extends InputStream {
+        private final byte[] data;
+        private final Random random;
+        private int pos;
+
+        Trickle(byte[] data, Random random) {
+            this.data = data;
+            this.random = random;
+        }
+
+        @Override
+        public int read() {
+            return pos < data.length ? data[pos++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (pos >= data.length) return -1;
+            int n = Math.min(Math.min(len, 1 + random.nextInt(7)), data.length - pos);
+            System.arraycopy(data, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.aroma;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PathSegmentsTest {
+
+    @Test
+    public void parentSegmentsClimb() {
+        assertTrue(PathSegments.climbs(".."));
+        assertTrue(PathSegments.climbs("/.."));
+        assertTrue(PathSegments.climbs("../etc"));
+        assertTrue(PathSegments.climbs("/a/../../b"));
+        assertTrue(PathSegments.climbs("a/.."));
+        assertTrue(PathSegments.climbs("a\\..\\b"));
+    }
+
+    @Test
+    public void dotsInsideNamesDoNot() {
+        assertFalse(PathSegments.climbs(""));
+        assertFalse(PathSegments.climbs("/"));
+        assertFalse(PathSegments.climbs("/a..b"));
+        assertFalse(PathSegments.climbs("/photos/..hidden/x"));
+        assertFalse(PathSegments.climbs("/archive.tar..gz"));
+        assertFalse(PathSegments.climbs("/./a"));
+        assertFalse(PathSegments.climbs("/.../a"));
+    }
+}
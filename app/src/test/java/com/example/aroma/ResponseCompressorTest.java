@@ -0,0 +1,110 @@
+package com.example.aroma;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import fi.iki.elonen.NanoHTTPD;
+import fi.iki.elonen.NanoHTTPD.IHTTPSession;
+import fi.iki.elonen.NanoHTTPD.Response;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.Inflater;
+
+public class ResponseCompressorTest {
+    private static final String HEAD = "<!DOCTYPE html><html><head><link rel='stylesheet' href='/a.css'></head><body>";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void gzipFlushEmitsEverythingWrittenSoFar() throws Exception {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        OutputStream out = ResponseCompressor.wrap(sink, "gzip", 6);
+        out.write(HEAD.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        byte[] sent = sink.toByteArray();
+        // 10-byte gzip header, then raw deflate
+        assertEquals(HEAD, inflate(Arrays.copyOfRange(sent, 10, sent.length), true));
+    }
+
+    @Test
+    public void deflateFlushEmitsEverythingWrittenSoFar() throws Exception {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        OutputStream out = ResponseCompressor.wrap(sink, "deflate", 6);
+        out.write(HEAD.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        assertEquals(HEAD, inflate(sink.toByteArray(), false));
+    }
+
+    @Test
+    public void compressibilityFollowsTheFileTypesRegistry() {
+        assertTrue(ResponseCompressor.isCompressible("text/html"));
+        assertTrue(ResponseCompressor.isCompressible("application/json; charset=utf-8"));
+        assertTrue(ResponseCompressor.isCompressible("image/bmp"));
+        assertTrue(ResponseCompressor.isCompressible("audio/wav"));
+        assertFalse(ResponseCompressor.isCompressible("image/jpeg"));
+        assertFalse(ResponseCompressor.isCompressible("application/zip"));
+        assertFalse(ResponseCompressor.isCompressible("application/x-unknown"));
+        assertFalse(ResponseCompressor.isCompressible(null));
+        for (String name : new String[]{"a.txt", "a.ico", "a.svg", "a.png", "a.mp4", "a.tar"}) {
+            FileTypes.Type type = FileTypes.forName(name);
+            assertEquals(name, type.compressible, ResponseCompressor.isCompressible(type.mimeType));
+        }
+    }
+
+    @Test
+    public void eventStreamsAreNeverCompressed() {
+        assertFalse(ResponseCompressor.isCompressible("text/event-stream"));
+        assertFalse(ResponseCompressor.isCompressible("text/event-stream; charset=utf-8"));
+    }
+
+    @Test
+    public void responsesCarryingAReprDigestAreSentAsIs() throws Exception {
+        ResponseCompressor compressor = new ResponseCompressor(6, 16);
+        IHTTPSession session = FakeSession.withHeaders("Accept-Encoding", "gzip");
+        File file = tmp.newFile("notes.txt");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[4096]);
+        }
+
+        FileResponse plain = FileResponse.full(file, "text/plain");
+        compressor.apply(session, plain);
+        assertEquals("gzip", plain.getHeader("content-encoding"));
+
+        FileResponse trailer = FileResponse.full(file, "text/plain");
+        trailer.sendDigestTrailer(new ContentDigest(false));
+        compressor.apply(session, trailer);
+        assertNull(trailer.getHeader("content-encoding"));
+
+        FileResponse header = FileResponse.full(file, "text/plain");
+        header.addHeader("Repr-Digest", ContentDigest.sha256Header(HashIndex.hex(new byte[32])));
+        compressor.apply(session, header);
+        assertNull(header.getHeader("content-encoding"));
+        assertEquals("Accept-Encoding", header.getHeader("vary"));
+
+        Response fixed = NanoHTTPD.newFixedLengthResponse(Response.Status.OK, "text/plain", new String(new char[4096]));
+        fixed.addHeader("Repr-Digest", "crc32c=:AAAAAA==:");
+        compressor.apply(session, fixed);
+        assertNull(fixed.getHeader("content-encoding"));
+    }
+
+    private static String inflate(byte[] data, boolean raw) throws Exception {
+        Inflater inflater = new Inflater(raw);
+        inflater.setInput(data);
+        byte[] buffer = new byte[4096];
+        int n = inflater.inflate(buffer);
+        inflater.end();
+        return new String(buffer, 0, n, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,255 @@
+package com.example.aroma;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class TarReaderTest {
+
+    @Test
+    public void ustarFilesAndDirectories() throws Exception {
+        Tar tar = new Tar()
+                .entry("docs/", '5', new byte[0])
+                .entry("docs/a.txt", '0', bytes("hello"))
+                .entry("docs/b.txt", '0', bytes("second file"))
+                .end();
+        TarReader reader = tar.reader();
+
+        TarReader.Entry dir = reader.next();
+        assertEquals("docs/", dir.name);
+        assertEquals(TarReader.DIRECTORY, dir.type);
+
+        TarReader.Entry a = reader.next();
+        assertEquals("docs/a.txt", a.name);
+        assertEquals(TarReader.FILE, a.type);
+        assertEquals(5, a.size);
+        assertEquals(1_600_000_000_000L, a.modified);
+        assertArrayEquals(bytes("hello"), content(reader));
+
+        // left unread, so next() has to skip it
+        assertEquals("docs/b.txt", reader.next().name);
+        assertNull(reader.next());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void ustarPrefixIsJoinedToTheName() throws Exception {
+        byte[] header = Tar.header("file.txt", '0', 0);
+        System.arraycopy(bytes("some/long/prefix"), 0, header, 345, 16);
+        Tar.checksum(header);
+        TarReader reader = new Tar().raw(header).end().reader();
+        assertEquals("some/long/prefix/file.txt", reader.next().name);
+    }
+
+    @Test
+    public void gnuLongName() throws Exception {
+        String name = repeat("d/", 80) + "file.txt";
+        TarReader reader = new Tar()
+                .entry("././@LongLink", 'L', bytes(name + "\0"))
+                .entry(name.substring(0, 100), '0', bytes("x"))
+                .end()
+                .reader();
+        TarReader.Entry entry = reader.next();
+        assertEquals(name, entry.name);
+        assertArrayEquals(bytes("x"), content(reader));
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void paxPathAndSizeOverrideTheHeader() throws Exception {
+        String name = repeat("\u00e9", 70) + ".txt";
+        byte[] data = bytes("0123456789");
+        TarReader reader = new Tar()
+                .entry("PaxHeader", 'x', bytes(pax("path", name) + pax("mtime", "1") + pax("size", "10")))
+                .entry("short", '0', data, 3)
+                .end()
+                .reader();
+        TarReader.Entry entry = reader.next();
+        assertEquals(name, entry.name);
+        assertEquals(10, entry.size);
+        assertArrayEquals(data, content(reader));
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void base256Size() throws Exception {
+        byte[] header = Tar.header("big.bin", '0', 0);
+        Arrays.fill(header, 124, 136, (byte) 0);
+        header[124] = (byte) 0x80;
+        header[131] = 0x02;
+        header[135] = 0x01;
+        Tar.checksum(header);
+        TarReader.Entry entry = new Tar().raw(header).reader().next();
+        assertEquals((2L << 32) + 1, entry.size);
+    }
+
+    @Test
+    public void linksCarryNoData() throws Exception {
+        byte[] header = Tar.header("link", '2', 0);
+        // a size on a link is ignored rather than read as data
+        System.arraycopy(bytes("00000001000"), 0, header, 124, 11);
+        Tar.checksum(header);
+        TarReader reader = new Tar().raw(header).entry("after", '0', bytes("y")).end().reader();
+        assertEquals(0, reader.next().size);
+        assertEquals("after", reader.next().name);
+    }
+
+    @Test
+    public void badChecksumIsRejected() throws Exception {
+        byte[] header = Tar.header("a.txt", '0', 0);
+        header[0] = 'b';
+        expectFailure(new Tar().raw(header).end().reader());
+    }
+
+    @Test
+    public void oversizedExtensionHeaderIsRejected() throws Exception {
+        byte[] header = Tar.header("././@LongLink", 'L', 64 * 1024 + 1);
+        expectFailure(new Tar().raw(header).reader());
+    }
+
+    @Test
+    public void cutOffHeaderIsRejected() throws Exception {
+        byte[] archive = new Tar().entry("a.txt", '0', bytes("abc")).entry("b.txt", '0', bytes("def")).bytes();
+        TarReader reader = new TarReader(new ByteArrayInputStream(archive, 0, 1024 + 100), -1);
+        reader.next();
+        expectFailure(reader);
+    }
+
+    @Test
+    public void cutOffDataIsRejected() throws Exception {
+        byte[] archive = new Tar().entry("a.txt", '0', new byte[2000]).bytes();
+        TarReader reader = new TarReader(new ByteArrayInputStream(archive, 0, 512 + 1000), -1);
+        reader.next();
+        try {
+            content(reader);
+            fail("expected the short entry to fail");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void missingEndMarkerIsTolerated() throws Exception {
+        TarReader reader = new Tar().entry("a.txt", '0', bytes("abc")).reader();
+        assertEquals("a.txt", reader.next().name);
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void readsExactlyTheGivenLength() throws Exception {
+        byte[] archive = new Tar().entry("a.txt", '0', bytes("abc")).end().bytes();
+        byte[] body = Arrays.copyOf(archive, archive.length + 4096 + 7);
+        ByteArrayInputStream in = new ByteArrayInputStream(body);
+        // the end marker is followed by record padding that belongs to the body
+        TarReader reader = new TarReader(in, archive.length + 4096);
+        reader.next();
+        assertNull(reader.next());
+        assertEquals(7, in.available());
+    }
+
+    private static void expectFailure(TarReader reader) {
+        try {
+            reader.next();
+            fail("expected a corrupt archive to fail");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static byte[] content(TarReader reader) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        reader.transferTo(out);
+        return out.toByteArray();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) sb.append(s);
+        return sb.toString();
+    }
+
+    // "<length> <key>=<value>\n", where the length counts its own digits
+    private static String pax(String key, String value) {
+        String record = " " + key + "=" + value + "\n";
+        int n = bytes(record).length;
+        int length = n + String.valueOf(n).length();
+        if (String.valueOf(length).length() > String.valueOf(n).length()) length++;
+        return length + record;
+    }
+
+    private static final class Tar {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Tar entry(String name, char type, byte[] data) {
+            return entry(name, type, data, data.length);
+        }
+
+        // headerSize differs from the data when a pax record supplies the real size
+        Tar entry(String name, char type, byte[] data, long headerSize) {
+            raw(header(name, type, headerSize));
+            out.write(data, 0, data.length);
+            out.write(new byte[(512 - data.length % 512) % 512], 0, (512 - data.length % 512) % 512);
+            return this;
+        }
+
+        Tar raw(byte[] block) {
+            out.write(block, 0, block.length);
+            return this;
+        }
+
+        Tar end() {
+            out.write(new byte[1024], 0, 1024);
+            return this;
+        }
+
+        byte[] bytes() {
+            return out.toByteArray();
+        }
+
+        TarReader reader() {
+            byte[] archive = bytes();
+            return new TarReader(new ByteArrayInputStream(archive), archive.length);
+        }
+
+        static byte[] header(String name, char type, long size) {
+            byte[] h = new byte[512];
+            put(h, name, 0, 100);
+            put(h, "0000644", 100, 8);
+            put(h, octal(size, 11), 124, 12);
+            put(h, octal(1_600_000_000L, 11), 136, 12);
+            h[156] = (byte) type;
+            put(h, "ustar\0" + "00", 257, 8);
+            checksum(h);
+            return h;
+        }
+
+        static void checksum(byte[] h) {
+            Arrays.fill(h, 148, 156, (byte) ' ');
+            long sum = 0;
+            for (byte b : h) sum += b & 0xff;
+            put(h, octal(sum, 6) + "\0 ", 148, 8);
+        }
+
+        private static String octal(long value, int digits) {
+            StringBuilder s = new StringBuilder(Long.toOctalString(value));
+            while (s.length() < digits) s.insert(0, '0');
+            return s.toString();
+        }
+
+        private static void put(byte[] h, String value, int off, int len) {
+            byte[] b = value.getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(b, 0, h, off, Math.min(len, b.length));
+        }
+    }
+}
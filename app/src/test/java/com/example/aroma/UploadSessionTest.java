@@ -0,0 +1,147 @@
+package com.example.aroma;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Random;
+import java.util.zip.CRC32C;
+
+public class UploadSessionTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private UploadApi.Session session(long size) {
+        return new UploadApi.Session(tmp.getRoot(), "abc", "/dir/file.bin", size, false);
+    }
+
+    @Test
+    public void disjointRangesStaySortedAndSeparate() {
+        UploadApi.Session upload = session(100);
+        upload.add(50, 60);
+        upload.add(0, 10);
+        upload.add(80, 90);
+        assertEquals("0-9, 50-59, 80-89", upload.rangesHeader());
+        assertEquals(30, upload.received());
+    }
+
+    @Test
+    public void adjacentRangesMerge() {
+        UploadApi.Session upload = session(100);
+        upload.add(0, 10);
+        upload.add(20, 30);
+        upload.add(10, 20);
+        assertEquals("0-29", upload.rangesHeader());
+        assertEquals(30, upload.received());
+    }
+
+    @Test
+    public void overlappingRangesMergeAcrossSeveral() {
+        UploadApi.Session upload = session(100);
+        upload.add(0, 5);
+        upload.add(10, 15);
+        upload.add(20, 25);
+        upload.add(30, 35);
+        upload.add(3, 22);
+        assertEquals("0-24, 30-34", upload.rangesHeader());
+        assertEquals(25 + 5, upload.received());
+    }
+
+    @Test
+    public void repeatedChunksCountOnce() {
+        UploadApi.Session upload = session(100);
+        // add() reports only the new bytes, which is what the session's space reservation gives back
+        assertEquals(10, upload.add(40, 50));
+        assertEquals(0, upload.add(40, 50));
+        assertEquals(0, upload.add(42, 48));
+        assertEquals(5, upload.add(45, 55));
+        assertEquals("40-54", upload.rangesHeader());
+        assertEquals(15, upload.received());
+    }
+
+    @Test
+    public void jsonListsHalfOpenRanges() {
+        UploadApi.Session upload = session(100);
+        upload.add(0, 10);
+        upload.add(90, 100);
+        String json = upload.toJson();
+        assertTrue(json, json.contains("\"receivedBytes\":20"));
+        assertTrue(json, json.contains("\"received\":[[0,10],[90,100]]"));
+    }
+
+    @Test
+    public void savedProgressLoadsBack() throws Exception {
+        UploadApi.Session upload = session(100);
+        assertTrue(upload.dataFile().createNewFile());
+        upload.add(0, 10);
+        upload.add(50, 100);
+        upload.save();
+
+        UploadApi.Session loaded = UploadApi.Session.load(tmp.getRoot(), upload.metaFile());
+        assertEquals("abc", loaded.id);
+        assertEquals("/dir/file.bin", loaded.path);
+        assertEquals(100, loaded.size);
+        assertEquals("0-9, 50-99", loaded.rangesHeader());
+    }
+
+    @Test
+    public void chunkCrcsCombineIntoTheFileCrc() throws Exception {
+        byte[] data = new byte[100];
+        new Random(7).nextBytes(data);
+        UploadApi.Session upload = session(100);
+        upload.addCrc(60, 100, crc(data, 60, 100));
+        assertEquals(-1, upload.crc32c());
+        upload.addCrc(0, 25, crc(data, 0, 25));
+        assertEquals(-1, upload.crc32c());
+        upload.addCrc(25, 60, crc(data, 25, 60));
+        assertEquals(crc(data, 0, 100), upload.crc32c());
+
+        assertTrue(upload.dataFile().createNewFile());
+        upload.save();
+        UploadApi.Session loaded = UploadApi.Session.load(tmp.getRoot(), upload.metaFile());
+        assertEquals(crc(data, 0, 100), loaded.crc32c());
+    }
+
+    @Test
+    public void resentBytesKeepTheFirstPieces() {
+        UploadApi.Session upload = session(100);
+        upload.addCrc(10, 20, 1);
+        upload.addCrc(40, 60, 2);
+        // a chunk over both is cut at their edges, so its pieces line up with them
+        assertArrayEquals(new long[]{20, 40, 60}, upload.crcCuts(15, 70));
+        assertArrayEquals(new long[]{20}, upload.crcCuts(10, 30));
+        assertArrayEquals(new long[0], upload.crcCuts(60, 100));
+        upload.addCrc(10, 20, 99);
+        upload.addCrc(15, 25, 99);
+        upload.addCrc(0, 100, 99);
+        upload.addCrc(20, 40, 3);
+        upload.addCrc(0, 10, 4);
+        upload.addCrc(60, 100, 5);
+        long expected = 4;
+        expected = ContentDigest.combineCrc32c(expected, 1, 10);
+        expected = ContentDigest.combineCrc32c(expected, 3, 20);
+        expected = ContentDigest.combineCrc32c(expected, 2, 20);
+        expected = ContentDigest.combineCrc32c(expected, 5, 40);
+        assertEquals(expected, upload.crc32c());
+    }
+
+    private static long crc(byte[] data, int from, int to) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, from, to - from);
+        return crc.getValue();
+    }
+
+    @Test
+    public void sessionWithoutDataIsNotLoaded() throws Exception {
+        UploadApi.Session upload = session(100);
+        upload.save();
+        assertNull(UploadApi.Session.load(tmp.getRoot(), new File(tmp.getRoot(), "abc.properties")));
+    }
+}
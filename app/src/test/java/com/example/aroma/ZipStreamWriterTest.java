@@ -0,0 +1,187 @@
+package com.example.aroma;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+public class ZipStreamWriterTest {
+    private static final long FOUR_GB = 1L << 32;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void storedAndDeflatedEntriesRoundTrip() throws Exception {
+        byte[] text = "hello hello hello hello hello\n".getBytes(StandardCharsets.UTF_8);
+        File plain = write("plain.txt", text);
+        File photo = write("photo.jpg", new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, 1, 2, 3});
+        File archive = tmp.newFile("out.zip");
+        try (OutputStream out = new FileOutputStream(archive)) {
+            ZipStreamWriter zip = new ZipStreamWriter(out, 6);
+            zip.addDirectory("dir/", plain.lastModified());
+            zip.addFile("dir/plain.txt", plain, true);
+            zip.addFile("dir/\u00fcn\u00efcode.jpg", photo, false);
+            zip.finish();
+            assertEquals(3, zip.getEntryCount());
+            assertEquals(archive.length(), zip.getBytesWritten());
+        }
+
+        try (ZipFile zip = new ZipFile(archive)) {
+            assertEquals(3, zip.size());
+            assertTrue(zip.getEntry("dir/").isDirectory());
+            ZipEntry deflated = zip.getEntry("dir/plain.txt");
+            assertEquals(ZipEntry.DEFLATED, deflated.getMethod());
+            assertArrayEquals(text, read(zip, deflated));
+            ZipEntry stored = zip.getEntry("dir/\u00fcn\u00efcode.jpg");
+            assertEquals(ZipEntry.STORED, stored.getMethod());
+            assertArrayEquals(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, 1, 2, 3}, read(zip, stored));
+        }
+    }
+
+    @Test
+    public void moreThan65535EntriesGetAZip64End() throws Exception {
+        File archive = tmp.newFile("many.zip");
+        int count = 70_000;
+        try (OutputStream out = new FileOutputStream(archive)) {
+            ZipStreamWriter zip = new ZipStreamWriter(out, 6);
+            for (int i = 0; i < count; i++) {
+                zip.addDirectory("d" + i + "/", 0);
+            }
+            zip.finish();
+        }
+        try (ZipFile zip = new ZipFile(archive)) {
+            assertEquals(count, zip.size());
+            assertTrue(zip.getEntry("d69999/").isDirectory());
+        }
+    }
+
+    // A sparse file just over 4 GB, stored, followed by a small file whose header lies past 4 GB.
+    // Only the bytes outside the big file's data are kept, and the records are checked by hand.
+    @Test
+    public void sizesAndOffsetsPast4GbUseZip64Fields() throws Exception {
+        File big = tmp.newFile("big.bin");
+        try (RandomAccessFile raf = new RandomAccessFile(big, "rw")) {
+            raf.setLength(FOUR_GB + 10);
+        }
+        File small = write("after.txt", new byte[]{'x'});
+        TailCapture capture = new TailCapture(FOUR_GB);
+        ZipStreamWriter zip = new ZipStreamWriter(capture, 1);
+        zip.addFile("big.bin", big, false);
+        long smallHeader = zip.getBytesWritten();
+        zip.addFile("after.txt", small, false);
+        zip.finish();
+        byte[] tail = capture.tail.toByteArray();
+        long end = capture.position;
+
+        // big.bin's data descriptor carries 8-byte sizes
+        long descriptor = smallHeader - 24;
+        assertEquals(0x08074b50, int32(tail, descriptor - FOUR_GB));
+        assertEquals(FOUR_GB + 10, int64(tail, descriptor - FOUR_GB + 8));
+        assertEquals(FOUR_GB + 10, int64(tail, descriptor - FOUR_GB + 16));
+
+        // classic end record points at the ZIP64 one through the locator
+        int eocd = (int) (end - 22 - FOUR_GB);
+        assertEquals(0x06054b50, int32(tail, eocd));
+        assertEquals(0xFFFFFFFFL, int32(tail, eocd + 16));
+        int locator = eocd - 20;
+        assertEquals(0x07064b50, int32(tail, locator));
+        long zip64End = int64(tail, locator + 8);
+        int z = (int) (zip64End - FOUR_GB);
+        assertEquals(0x06064b50, int32(tail, z));
+        assertEquals(2, int64(tail, z + 32));
+        long centralOffset = int64(tail, z + 48);
+        assertTrue(centralOffset > FOUR_GB);
+
+        // big.bin: both sizes in the ZIP64 extra, offset 0 fits
+        int c = (int) (centralOffset - FOUR_GB);
+        assertEquals(0x02014b50, int32(tail, c));
+        assertEquals(0xFFFFFFFFL, int32(tail, c + 20));
+        assertEquals(0xFFFFFFFFL, int32(tail, c + 24));
+        int nameLength = int16(tail, c + 28);
+        int extra = c + 46 + nameLength;
+        assertEquals(0x0001, int16(tail, extra));
+        assertEquals(16, int16(tail, extra + 2));
+        assertEquals(FOUR_GB + 10, int64(tail, extra + 4));
+        assertEquals(FOUR_GB + 10, int64(tail, extra + 12));
+
+        // after.txt: small sizes, offset in the ZIP64 extra
+        c = extra + 20;
+        assertEquals(0x02014b50, int32(tail, c));
+        assertEquals(1, int32(tail, c + 24));
+        assertEquals(0xFFFFFFFFL, int32(tail, c + 42));
+        extra = c + 46 + int16(tail, c + 28);
+        assertEquals(8, int16(tail, extra + 2));
+        assertEquals(smallHeader, int64(tail, extra + 4));
+    }
+
+    private File write(String name, byte[] content) throws IOException {
+        File file = tmp.newFile(name);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        return file;
+    }
+
+    private static byte[] read(ZipFile zip, ZipEntry entry) throws IOException {
+        try (InputStream in = zip.getInputStream(entry)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static int int16(byte[] b, long at) {
+        int i = (int) at;
+        return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8;
+    }
+
+    private static long int32(byte[] b, long at) {
+        return int16(b, at) | (long) int16(b, at + 2) << 16;
+    }
+
+    private static long int64(byte[] b, long at) {
+        return int32(b, at) | int32(b, at + 4) << 32;
+    }
+
+    // Counts everything, keeps only what is written from tailStart on.
+    private static final class TailCapture extends OutputStream {
+        final ByteArrayOutputStream tail = new ByteArrayOutputStream();
+        final long tailStart;
+        long position;
+
+        TailCapture(long tailStart) {
+            this.tailStart = tailStart;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            long skip = Math.max(0, Math.min(len, tailStart - position));
+            if (skip < len) tail.write(b, off + (int) skip, len - (int) skip);
+            position += len;
+        }
+    }
+}